@@ -17,98 +17,213 @@
 package com.android.server.telecom.callfiltering;
 
 import android.content.Context;
-import android.os.AsyncTask;
-import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import com.android.server.telecom.Call;
 import android.util.Log;
 
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * An {@link AsyncTask} that checks if a call needs to be blocked.
- * <p> An {@link AsyncTask} is used to perform the block check to avoid blocking the main thread.
- * The block check itself is performed in the {@link AsyncTask#doInBackground(Object[])}.
+ * Checks if a call needs to be blocked.
+ * <p> The block check runs on a small dedicated executor rather than the global
+ * {@link android.os.AsyncTask} serial executor, so it never waits behind unrelated work.  If the
+ * check has not answered within the deadline the last known verdict for the number is used, or
+ * the call is allowed when there is none.  The result is always delivered on the main thread,
+ * exactly once.
  */
-public class AsyncBlockCheckFilter extends AsyncTask<String, Void, Boolean>{
+public class AsyncBlockCheckFilter {
+    private static final String TAG = "InterceptInfos";
+
+    /** Default time the block check may take before the call is let through. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+
+    private static final int POOL_SIZE = 2;
+    private static final int QUEUE_CAPACITY = 16;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "BlockCheck-" + mCount.incrementAndGet());
+                }
+            });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Stats sStats = new Stats();
+
     private final Context mContext;
     private final BlockCheckerAdapter mBlockCheckerAdapter;
+    private final long mTimeoutMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
     private Call mIncomingCall;
     private CallFilterResultCallback mCallback;
     private String blockedNumber;
 
+    /** Guarded by the main thread. */
+    private boolean mFinished;
+    private long mStartTime;
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Boolean cached = mBlockCheckerAdapter.getLastKnownVerdict(mContext,
+                    blockedNumber);
+            Log.w(TAG, "block check timed out after " + mTimeoutMillis + "ms, cached verdict="
+                    + cached);
+            sStats.onTimeout(cached != null);
+            finish(cached != null && cached, SystemClock.elapsedRealtime(), -1);
+        }
+    };
+
     public AsyncBlockCheckFilter(Context context, BlockCheckerAdapter blockCheckerAdapter) {
+        this(context, blockCheckerAdapter, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public AsyncBlockCheckFilter(Context context, BlockCheckerAdapter blockCheckerAdapter,
+            long timeoutMillis) {
         mContext = context;
         mBlockCheckerAdapter = blockCheckerAdapter;
+        mTimeoutMillis = timeoutMillis;
     }
 
     public void startFilterLookup(Call call, CallFilterResultCallback callback) {
         mCallback = callback;
         mIncomingCall = call;
-        String number = call.getHandle() == null ?
+        blockedNumber = call.getHandle() == null ?
                 null : call.getHandle().getSchemeSpecificPart();
-        this.execute(number);
-    }
+        mStartTime = SystemClock.elapsedRealtime();
+        Log.d(TAG, "block check initiated for " + blockedNumber);
 
-    @Override
-    protected void onPreExecute() {
-    }
-
-    @Override
-    protected Boolean doInBackground(String... params) {
+        mHandler.postDelayed(mTimeoutRunnable, mTimeoutMillis);
         try {
-            blockedNumber = params[0];
-            Log.e("InterceptInfos", "mIncomingCall, LogUtils.Events.BLOCK_CHECK_INITIATED ="+ blockedNumber);
-            return mBlockCheckerAdapter.isBlocked(mContext, params[0]);
-        } finally {
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final long ipcStart = SystemClock.elapsedRealtime();
+                    final boolean isBlocked = mBlockCheckerAdapter.isBlocked(mContext,
+                            blockedNumber);
+                    final long ipcEnd = SystemClock.elapsedRealtime();
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            finish(isBlocked, ipcEnd, ipcEnd - ipcStart);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "block check queue full, using cached verdict");
+            mHandler.removeCallbacks(mTimeoutRunnable);
+            mHandler.post(mTimeoutRunnable);
         }
     }
 
-    @Override
-    protected void onPostExecute(Boolean isBlocked) {
-        try {
-            CallFilteringResult result;
-            if (isBlocked) {
-                Log.e("InterceptInfos","blockedNumber=="+blockedNumber + " start add db..");
-                addInterceptNumber();
-                result = new CallFilteringResult(
-                        false, // shouldAllowCall
-                        true, //shouldReject
-                        false, //shouldAddToCallLog
-                        false // shouldShowNotification
-                );
-            } else {
-                result = new CallFilteringResult(
-                        true, // shouldAllowCall
-                        false, // shouldReject
-                        true, // shouldAddToCallLog
-                        true // shouldShowNotification
-                );
-            }
-            mCallback.onCallFilteringComplete(mIncomingCall, result);
-        } finally {
+    /**
+     * Delivers the result; runs on the main thread.
+     *
+     * @param resultTime when the verdict became available.
+     * @param ipcMillis time spent in the provider lookup, or -1 if it did not complete.
+     */
+    private void finish(boolean isBlocked, long resultTime, long ipcMillis) {
+        if (mFinished) {
+            return;
         }
+        mFinished = true;
+        mHandler.removeCallbacks(mTimeoutRunnable);
+
+        CallFilteringResult result;
+        if (isBlocked) {
+            Log.d(TAG, "blockedNumber==" + blockedNumber + " start add db..");
+            addInterceptNumber();
+            result = new CallFilteringResult(
+                    false, // shouldAllowCall
+                    true, //shouldReject
+                    false, //shouldAddToCallLog
+                    false // shouldShowNotification
+            );
+        } else {
+            result = new CallFilteringResult(
+                    true, // shouldAllowCall
+                    false, // shouldReject
+                    true, // shouldAddToCallLog
+                    true // shouldShowNotification
+            );
+        }
+        final long dispatchStart = SystemClock.elapsedRealtime();
+        mCallback.onCallFilteringComplete(mIncomingCall, result);
+        final long end = SystemClock.elapsedRealtime();
+
+        sStats.onComplete(end - mStartTime, ipcMillis, dispatchStart - resultTime,
+                end - dispatchStart);
+        Log.i(TAG, "block check: total=" + (end - mStartTime) + "ms, ipc=" + ipcMillis
+                + "ms, handoff=" + (dispatchStart - resultTime) + "ms, callback="
+                + (end - dispatchStart) + "ms, blocked=" + isBlocked);
     }
 
     //add for intetcept telinfo to db
     public void addInterceptNumber(){
-        android.content.ContentResolver contentResolver = mContext.getContentResolver();
-        android.content.ContentValues newValues = new android.content.ContentValues();
-        newValues.put("type", 1);//TEL
-        newValues.put("number", blockedNumber);//number
-        newValues.put("content", "");
+        InterceptJournal.getInstance(mContext).logBlockedCall(blockedNumber);
+    }
 
-        java.text.SimpleDateFormat simpleDateFormat = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        java.util.Date date = new java.util.Date(System.currentTimeMillis());
-        String time = simpleDateFormat.format(date);
-        newValues.put("time", time);
+    public static void dump(PrintWriter pw) {
+        sStats.dump(pw);
+    }
 
-        contentResolver.insert(android.net.Uri.parse("content://cn.kaer.blockeddata/intercept"), newValues);
+    /**
+     * Aggregated block check latencies since boot.
+     */
+    private static class Stats {
+        private int mCount;
+        private int mTimeouts;
+        private int mTimeoutsWithCachedVerdict;
+        private long mTotalMillis;
+        private long mMaxTotalMillis;
+        private long mMaxIpcMillis;
+        private long mMaxHandoffMillis;
+        private long mMaxCallbackMillis;
 
-        Intent blockIntent = new Intent("cn.kaer.blockedNumber.intetcept");
-        blockIntent.putExtra("number", blockedNumber);
-        blockIntent.putExtra("time", time);
-        mContext.sendBroadcast(blockIntent);
+        synchronized void onTimeout(boolean usedCachedVerdict) {
+            mTimeouts++;
+            if (usedCachedVerdict) {
+                mTimeoutsWithCachedVerdict++;
+            }
+        }
 
-        android.util.Log.e("InterceptInfos","add db end...");
-    }
+        synchronized void onComplete(long totalMillis, long ipcMillis, long handoffMillis,
+                long callbackMillis) {
+            mCount++;
+            mTotalMillis += totalMillis;
+            mMaxTotalMillis = Math.max(mMaxTotalMillis, totalMillis);
+            mMaxIpcMillis = Math.max(mMaxIpcMillis, ipcMillis);
+            mMaxHandoffMillis = Math.max(mMaxHandoffMillis, handoffMillis);
+            mMaxCallbackMillis = Math.max(mMaxCallbackMillis, callbackMillis);
+        }
 
+        synchronized void dump(PrintWriter pw) {
+            pw.println("Block checks: " + mCount
+                    + ", avg=" + (mCount == 0 ? 0 : mTotalMillis / mCount) + "ms"
+                    + ", max=" + mMaxTotalMillis + "ms"
+                    + ", maxIpc=" + mMaxIpcMillis + "ms"
+                    + ", maxHandoff=" + mMaxHandoffMillis + "ms"
+                    + ", maxCallback=" + mMaxCallbackMillis + "ms"
+                    + ", timeouts=" + mTimeouts
+                    + " (" + mTimeoutsWithCachedVerdict + " from cache)");
+        }
+    }
 }
@@ -17,13 +17,66 @@
 package com.android.server.telecom.callfiltering;
 
 import android.content.Context;
+import android.provider.BlockedNumberContract.SystemContract;
 
 import com.android.internal.telephony.BlockChecker;
 
 public class BlockCheckerAdapter {
+    private volatile BlockVerdictCache mCache;
+
     public BlockCheckerAdapter() { }
 
     public boolean isBlocked(Context context, String number) {
-        return BlockChecker.isBlocked(context, number);
+        final BlockVerdictCache cache = getCache(context);
+        final Boolean cached = cache.get(number);
+        if (cached != null) {
+            return cached;
+        }
+        // Read before the verdict: suppression starting afterwards invalidates the generation,
+        // and the cache doesn't take verdicts while blocks are suppressed.
+        final int generation = cache.getGeneration();
+        final boolean isBlocked = BlockChecker.isBlocked(context, number);
+        cache.put(number, isBlocked, generation);
+        return isBlocked;
+    }
+
+    /**
+     * @return the verdict of the last completed check for {@code number} in this process, even
+     *         if it is older than the cache would normally serve, or {@code null} if there is
+     *         none.
+     */
+    public Boolean getLastKnownVerdict(Context context, String number) {
+        return BlockVerdictCache.getInstance(context).getLastKnown(number);
+    }
+
+    /**
+     * Starts block suppression after an emergency contact.  Use instead of calling
+     * {@link SystemContract#notifyEmergencyContact} directly so cached verdicts are dropped.
+     */
+    public void notifyEmergencyContact(Context context) {
+        SystemContract.notifyEmergencyContact(context);
+        onBlockSuppressionChanged(context);
+    }
+
+    /**
+     * Ends block suppression; see {@link #notifyEmergencyContact}.
+     */
+    public void endBlockSuppression(Context context) {
+        SystemContract.endBlockSuppression(context);
+        onBlockSuppressionChanged(context);
+    }
+
+    private void onBlockSuppressionChanged(Context context) {
+        SystemContract.BlockSuppressionStatus status =
+                SystemContract.getBlockSuppressionStatus(context);
+        getCache(context).onBlockSuppressionChanged(status.isSuppressed,
+                status.untilTimestampMillis);
+    }
+
+    private BlockVerdictCache getCache(Context context) {
+        if (mCache == null) {
+            mCache = BlockVerdictCache.getInstance(context);
+        }
+        return mCache;
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.callfiltering;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.BlockedNumberContract;
+import android.provider.BlockedNumberContract.SystemContract;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.PrintWriter;
+
+/**
+ * Caches recent block verdicts so repeat callers skip the IPC into the blocked number provider.
+ * <p> The whole cache is dropped whenever anything under {@link BlockedNumberContract#AUTHORITY_URI}
+ * changes (blocked numbers, block rules or block suppression), and entries expire after
+ * {@link #MAX_AGE_MILLIS} as a safety net.  While blocks are suppressed after an emergency
+ * contact nothing is cached or served; the suppression state is only read when it changes, so
+ * lookups don't pay for an extra IPC.
+ */
+public class BlockVerdictCache {
+    private static final String TAG = "InterceptInfos";
+
+    private static final int MAX_ENTRIES = 128;
+    private static final long MAX_AGE_MILLIS = 60 * 1000;
+    /** Notified by the provider whenever block suppression starts or ends. */
+    private static final Uri BLOCK_SUPPRESSION_URI =
+            Uri.withAppendedPath(BlockedNumberContract.AUTHORITY_URI, "block_suppression");
+
+    private static BlockVerdictCache sInstance;
+
+    private final LruCache<String, Entry> mCache = new LruCache<>(MAX_ENTRIES);
+    private final Object mLock = new Object();
+
+    /** Bumped on every invalidation, so lookups racing with a change don't cache stale data. */
+    private int mGeneration;
+    /** Whether blocks are suppressed and the cache must be bypassed, until mSuppressedUntil. */
+    private boolean mSuppressed;
+    /** Wall clock time at which suppression expires; the provider doesn't notify that. */
+    private long mSuppressedUntil;
+
+    private int mHits;
+    private int mMisses;
+    private int mInvalidations;
+
+    private static class Entry {
+        final boolean isBlocked;
+        final long time;
+
+        Entry(boolean isBlocked, long time) {
+            this.isBlocked = isBlocked;
+            this.time = time;
+        }
+    }
+
+    public static synchronized BlockVerdictCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BlockVerdictCache();
+            sInstance.register(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private void register(final Context context) {
+        context.getContentResolver().registerContentObserver(
+                BlockedNumberContract.AUTHORITY_URI, true /* notifyForDescendants */,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        if (BLOCK_SUPPRESSION_URI.equals(uri)) {
+                            readBlockSuppression(context);
+                        } else {
+                            invalidate();
+                        }
+                    }
+                });
+        // Suppression may already be active, e.g. if telecom restarted after an emergency call.
+        readBlockSuppression(context);
+    }
+
+    private void readBlockSuppression(Context context) {
+        SystemContract.BlockSuppressionStatus status =
+                SystemContract.getBlockSuppressionStatus(context);
+        onBlockSuppressionChanged(status.isSuppressed, status.untilTimestampMillis);
+    }
+
+    /**
+     * @return the cached verdict, or {@code null} if the provider has to be asked.
+     */
+    public Boolean get(String number) {
+        return get(number, false);
+    }
+
+    /**
+     * @param allowExpired also return entries older than {@link #MAX_AGE_MILLIS}; invalidated
+     *        entries are never returned.
+     */
+    public Boolean get(String number, boolean allowExpired) {
+        if (number == null) {
+            return null;
+        }
+        synchronized (mLock) {
+            Entry entry = getLocked(number);
+            if (entry == null || (!allowExpired
+                    && SystemClock.elapsedRealtime() - entry.time > MAX_AGE_MILLIS)) {
+                mMisses++;
+                return null;
+            }
+            mHits++;
+            return entry.isBlocked;
+        }
+    }
+
+    /**
+     * Like {@link #get(String, boolean)} with expired entries allowed, for the fallback when a
+     * check doesn't complete in time; not counted as a hit or miss.
+     */
+    public Boolean getLastKnown(String number) {
+        if (number == null) {
+            return null;
+        }
+        synchronized (mLock) {
+            Entry entry = getLocked(number);
+            return entry == null ? null : entry.isBlocked;
+        }
+    }
+
+    private Entry getLocked(String number) {
+        return isSuppressedLocked() ? null : mCache.get(number);
+    }
+
+    private boolean isSuppressedLocked() {
+        if (!mSuppressed) {
+            return false;
+        }
+        if (System.currentTimeMillis() < mSuppressedUntil) {
+            return true;
+        }
+        // Suppression expires without a notification, drop what may predate it.
+        mSuppressed = false;
+        mSuppressedUntil = 0;
+        invalidateLocked();
+        return false;
+    }
+
+    public int getGeneration() {
+        synchronized (mLock) {
+            return mGeneration;
+        }
+    }
+
+    /**
+     * Caches a verdict obtained from the provider, unless the cache was invalidated since
+     * {@code generation} was read.
+     */
+    public void put(String number, boolean isBlocked, int generation) {
+        if (number == null) {
+            return;
+        }
+        synchronized (mLock) {
+            // Verdicts while suppressed are "not blocked" only for the time being.
+            if (generation == mGeneration && !isSuppressedLocked()) {
+                mCache.put(number, new Entry(isBlocked, SystemClock.elapsedRealtime()));
+            }
+        }
+    }
+
+    public void invalidate() {
+        synchronized (mLock) {
+            invalidateLocked();
+        }
+    }
+
+    private void invalidateLocked() {
+        mGeneration++;
+        mInvalidations++;
+        mCache.evictAll();
+    }
+
+    /**
+     * Drops all verdicts and bypasses the cache until {@code untilTimestampMillis}.
+     */
+    public void onBlockSuppressionChanged(boolean isSuppressed, long untilTimestampMillis) {
+        synchronized (mLock) {
+            mSuppressed = isSuppressed;
+            mSuppressedUntil = isSuppressed ? untilTimestampMillis : 0;
+            invalidateLocked();
+        }
+        Log.d(TAG, "block suppression changed: suppressed=" + isSuppressed);
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("Block verdict cache: size=" + mCache.size() + ", hits=" + mHits
+                    + ", misses=" + mMisses + ", invalidations=" + mInvalidations);
+        }
+    }
+}
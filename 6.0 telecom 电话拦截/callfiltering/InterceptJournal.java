@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.callfiltering;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Buffers intercepted calls and writes them to the intercept provider in batches.
+ * <p> Events are coalesced for {@link #FLUSH_DELAY_MS} (or until {@link #MAX_PENDING} are
+ * queued) and then written with a single {@code bulkInsert}, which the provider commits in one
+ * transaction with one change notification.  One broadcast is sent per flush.
+ */
+public class InterceptJournal {
+    private static final String TAG = "InterceptInfos";
+
+    private static final Uri INTERCEPT_URI = Uri.parse("content://cn.kaer.blockeddata/intercept");
+    private static final String ACTION_INTERCEPT = "cn.kaer.blockedNumber.intetcept";
+
+    /** Extras of {@link #ACTION_INTERCEPT} describing every event of the flush. */
+    public static final String EXTRA_NUMBERS = "numbers";
+    public static final String EXTRA_TIMES = "times";
+
+    public static final int TYPE_TEL = 1;
+
+    private static final long FLUSH_DELAY_MS = 500;
+    private static final int MAX_PENDING = 64;
+
+    private static InterceptJournal sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+    private ArrayList<ContentValues> mPending = new ArrayList<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static synchronized InterceptJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InterceptJournal(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private InterceptJournal(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public void logBlockedCall(String number) {
+        ContentValues values = new ContentValues();
+        values.put("type", TYPE_TEL);
+        values.put("number", number);
+        values.put("content", "");
+        values.put("time", System.currentTimeMillis());
+        record(values);
+    }
+
+    private void record(ContentValues values) {
+        synchronized (mLock) {
+            mPending.add(values);
+            if (mPending.size() >= MAX_PENDING) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mHandler.post(mFlushRunnable);
+            } else if (mPending.size() == 1) {
+                mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+            }
+        }
+    }
+
+    private void flush() {
+        final ArrayList<ContentValues> batch;
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batch = mPending;
+            mPending = new ArrayList<>();
+        }
+
+        try {
+            mContext.getContentResolver().bulkInsert(INTERCEPT_URI,
+                    batch.toArray(new ContentValues[batch.size()]));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to write " + batch.size() + " intercept records", e);
+            return;
+        }
+
+        final String[] numbers = new String[batch.size()];
+        final long[] times = new long[batch.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = batch.get(i).getAsString("number");
+            times[i] = batch.get(i).getAsLong("time");
+        }
+        Intent blockIntent = new Intent(ACTION_INTERCEPT);
+        // "number" and "time" describe the latest event, as before batching.
+        blockIntent.putExtra("number", numbers[numbers.length - 1]);
+        blockIntent.putExtra("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
+                .format(new Date(times[times.length - 1])));
+        blockIntent.putExtra(EXTRA_NUMBERS, numbers);
+        blockIntent.putExtra(EXTRA_TIMES, times);
+        mContext.sendBroadcast(blockIntent);
+
+        Log.d(TAG, "flushed " + batch.size() + " intercept records");
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+
+/**
+ * Matches phone numbers against prefix and range block rules using digit tries, so a lookup costs
+ * O(number length) regardless of how many rules exist.
+ *
+ * <p>Supported patterns:
+ * <ul>
+ *   <li>Prefix: {@code +86170*} or {@code 0755*}.  Matches any number starting with the digits.
+ *   <li>Range: {@code +8617000000000-8617099999999}.  Both bounds must have the same number of
+ *       digits; matches numbers of exactly that length whose value lies within the bounds.
+ * </ul>
+ * Patterns starting with '+' are matched against the E164 form of the number, others against the
+ * digits of the number as dialed.  Separators ({@code " -.()"}) are ignored in prefixes.
+ */
+final class BlockRuleMatcher {
+    /** Longest digit string we index; also bounds the length mask below. */
+    private static final int MAX_DIGITS = 18;
+
+    private final Node mE164Root = new Node();
+    private final Node mRawRoot = new Node();
+
+    private static final class Node {
+        final Node[] children = new Node[10];
+        /** A prefix rule ends here: any number continuing from this node matches. */
+        boolean anyLength;
+        /** Bit {@code n} set: a range rule matches numbers of exactly {@code n} digits. */
+        long lengthMask;
+    }
+
+    /**
+     * A parsed rule.  A rule is a set of (digit prefix, required length) entries; a required
+     * length of 0 means any length.
+     */
+    static final class Rule {
+        final boolean e164;
+        final String[] prefixes;
+        final int length;
+
+        private Rule(boolean e164, String[] prefixes, int length) {
+            this.e164 = e164;
+            this.prefixes = prefixes;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Parses {@code pattern}.
+     *
+     * @throws IllegalArgumentException if the pattern is not a valid prefix or range rule.
+     */
+    static Rule parse(String pattern) {
+        if (TextUtils.isEmpty(pattern)) {
+            throw new IllegalArgumentException("Empty block rule");
+        }
+        final String p = pattern.trim();
+        final boolean e164 = p.startsWith("+");
+        final String body = e164 ? p.substring(1) : p;
+
+        if (body.endsWith("*")) {
+            final String digits = stripSeparators(body.substring(0, body.length() - 1));
+            if (digits == null || digits.isEmpty() || digits.length() > MAX_DIGITS) {
+                throw new IllegalArgumentException("Invalid prefix rule: " + pattern);
+            }
+            return new Rule(e164, new String[] {digits}, 0);
+        }
+
+        final int dash = body.indexOf('-');
+        if (dash > 0) {
+            final String lo = body.substring(0, dash).trim();
+            String hi = body.substring(dash + 1).trim();
+            if (hi.startsWith("+") && e164) {
+                hi = hi.substring(1);
+            }
+            if (!isDigits(lo) || !isDigits(hi) || lo.length() != hi.length()
+                    || lo.length() > MAX_DIGITS || lo.compareTo(hi) > 0) {
+                throw new IllegalArgumentException("Invalid range rule: " + pattern);
+            }
+            return new Rule(e164, rangeToPrefixes(lo, hi), lo.length());
+        }
+        throw new IllegalArgumentException("Not a prefix or range rule: " + pattern);
+    }
+
+    void add(Rule rule) {
+        final Node root = rule.e164 ? mE164Root : mRawRoot;
+        for (String prefix : rule.prefixes) {
+            Node node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                final int d = prefix.charAt(i) - '0';
+                if (node.children[d] == null) {
+                    node.children[d] = new Node();
+                }
+                node = node.children[d];
+            }
+            if (rule.length == 0) {
+                node.anyLength = true;
+            } else {
+                node.lengthMask |= 1L << rule.length;
+            }
+        }
+    }
+
+    /**
+     * @param rawNumber the number as received.
+     * @param e164Number its E164 form, or empty if unknown.
+     */
+    boolean matches(String rawNumber, @Nullable String e164Number) {
+        if (!TextUtils.isEmpty(e164Number) && e164Number.charAt(0) == '+'
+                && matches(mE164Root, e164Number, 1)) {
+            return true;
+        }
+        return !TextUtils.isEmpty(rawNumber) && rawNumber.indexOf('@') < 0
+                && matches(mRawRoot, rawNumber, rawNumber.startsWith("+") ? 1 : 0);
+    }
+
+    private static boolean matches(Node root, String number, int start) {
+        final int length = countDigits(number, start);
+        if (length > MAX_DIGITS) {
+            return false;
+        }
+        if (matchesAt(root, length)) {
+            return true;
+        }
+        Node node = root;
+        for (int i = start; i < number.length() && node != null; i++) {
+            final char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            node = node.children[c - '0'];
+            if (node != null && matchesAt(node, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAt(Node node, int length) {
+        return node.anyLength || (node.lengthMask & (1L << length)) != 0;
+    }
+
+    private static int countDigits(String s, int start) {
+        int n = 0;
+        for (int i = start; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static boolean isDigits(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the digits of {@code s}, or null if it contains anything but digits/separators. */
+    @Nullable
+    private static String stripSeparators(String s) {
+        final StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            } else if (" -.()".indexOf(c) < 0) {
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits the inclusive range [lo, hi] of equal-length digit strings into the minimal set of
+     * aligned blocks, each expressed as a digit prefix.
+     */
+    private static String[] rangeToPrefixes(String lo, String hi) {
+        final int width = lo.length();
+        long from = Long.parseLong(lo);
+        final long to = Long.parseLong(hi);
+        final ArrayList<String> prefixes = new ArrayList<>();
+        while (from <= to) {
+            // Grow the block while it stays aligned and inside the range.
+            int k = 0;
+            long size = 1;
+            while (k < width && from % (size * 10) == 0 && from + size * 10 - 1 <= to) {
+                size *= 10;
+                k++;
+            }
+            final int prefixWidth = width - k;
+            // Zero-pad by hand; String.format would localize the digits.
+            final String block = Long.toString(from / size);
+            final StringBuilder prefix = new StringBuilder(prefixWidth);
+            for (int i = block.length(); i < prefixWidth; i++) {
+                prefix.append('0');
+            }
+            if (prefixWidth > 0) {
+                prefix.append(block);
+            }
+            prefixes.add(prefix.toString());
+            from += size;
+        }
+        return prefixes.toArray(new String[prefixes.size()]);
+    }
+}
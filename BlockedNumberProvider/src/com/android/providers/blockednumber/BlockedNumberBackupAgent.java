@@ -23,6 +23,7 @@ import android.app.backup.BackupDataOutput;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.provider.BlockedNumberContract;
 import android.util.Log;
@@ -51,7 +52,11 @@ public class BlockedNumberBackupAgent extends BackupAgent {
             BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER,
     };
     private static final String TAG = "BlockedNumberBackup";
-    private static final int VERSION = 1;
+    private static final int VERSION = 2;
+    /** Version 1 state files only hold blocked number ids. */
+    private static final int VERSION_NUMBERS_ONLY = 1;
+    /** Key prefix of block rule entities; blocked numbers are keyed by their plain row id. */
+    private static final String RULE_KEY_PREFIX = "rule_";
     private static final boolean DEBUG = false; // DO NOT SUBMIT WITH TRUE.
 
     @Override
@@ -69,6 +74,7 @@ public class BlockedNumberBackupAgent extends BackupAgent {
         }
 
         runBackup(state, backupDataOutput, getAllBlockedNumbers());
+        runRulesBackup(state, backupDataOutput, getAllBlockRules());
 
         DataOutputStream dataOutputStream =
                 new DataOutputStream(new FileOutputStream(newState.getFileDescriptor()));
@@ -85,6 +91,13 @@ public class BlockedNumberBackupAgent extends BackupAgent {
         logV("Restoring blocked numbers.");
 
         while (data.readNextHeader()) {
+            if (data.getKey().startsWith(RULE_KEY_PREFIX)) {
+                BackedUpBlockRule blockRule = readBlockRuleFromData(data);
+                if (blockRule != null) {
+                    writeToProvider(blockRule);
+                }
+                continue;
+            }
             BackedUpBlockedNumber blockedNumber = readBlockedNumberFromData(data);
             if (blockedNumber != null) {
                 writeToProvider(blockedNumber);
@@ -97,9 +110,22 @@ public class BlockedNumberBackupAgent extends BackupAgent {
         if (dataInputStream.available() > 0) {
             version = dataInputStream.readInt();
         }
-        BackupState state = new BackupState(version, new TreeSet<Integer>());
+        BackupState state =
+                new BackupState(version, new TreeSet<Integer>(), new TreeSet<Integer>());
+        if (version == VERSION_NUMBERS_ONLY) {
+            while (dataInputStream.available() > 0) {
+                state.ids.add(dataInputStream.readInt());
+            }
+            return state;
+        }
+        if (dataInputStream.available() > 0) {
+            int numIds = dataInputStream.readInt();
+            for (int i = 0; i < numIds; i++) {
+                state.ids.add(dataInputStream.readInt());
+            }
+        }
         while (dataInputStream.available() > 0) {
-            state.ids.add(dataInputStream.readInt());
+            state.ruleIds.add(dataInputStream.readInt());
         }
         return state;
     }
@@ -127,6 +153,27 @@ public class BlockedNumberBackupAgent extends BackupAgent {
         }
     }
 
+    private void runRulesBackup(BackupState state, BackupDataOutput backupDataOutput,
+                                Iterable<BackedUpBlockRule> allBlockRules) throws IOException {
+        SortedSet<Integer> deletedBlockRules = new TreeSet<>(state.ruleIds);
+
+        for (BackedUpBlockRule blockRule : allBlockRules) {
+            if (state.ruleIds.contains(blockRule.id)) {
+                deletedBlockRules.remove(blockRule.id);
+            } else {
+                logV("Adding block rule to backup: " + blockRule);
+                addToBackup(backupDataOutput, blockRule);
+                state.ruleIds.add(blockRule.id);
+            }
+        }
+
+        for (int id : deletedBlockRules) {
+            logV("Removing block rule from backup: " + id);
+            backupDataOutput.writeEntityHeader(RULE_KEY_PREFIX + id, -1);
+            state.ruleIds.remove(id);
+        }
+    }
+
     private void addToBackup(BackupDataOutput output, BackedUpBlockedNumber blockedNumber)
             throws IOException {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -140,6 +187,18 @@ public class BlockedNumberBackupAgent extends BackupAgent {
         output.writeEntityData(outputStream.toByteArray(), outputStream.size());
     }
 
+    private void addToBackup(BackupDataOutput output, BackedUpBlockRule blockRule)
+            throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(VERSION);
+        writeString(dataOutputStream, blockRule.pattern);
+        dataOutputStream.flush();
+
+        output.writeEntityHeader(RULE_KEY_PREFIX + blockRule.id, outputStream.size());
+        output.writeEntityData(outputStream.toByteArray(), outputStream.size());
+    }
+
     private void writeString(DataOutputStream dataOutputStream, @Nullable String value)
             throws IOException {
         if (value == null) {
@@ -182,6 +241,23 @@ public class BlockedNumberBackupAgent extends BackupAgent {
         return blockedNumbers;
     }
 
+    private Iterable<BackedUpBlockRule> getAllBlockRules() {
+        List<BackedUpBlockRule> blockRules = new ArrayList<>();
+        Bundle res = getContentResolver().call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_BLOCK_RULES, null, null);
+        if (res != null) {
+            long[] ids = res.getLongArray(BlockedNumberProvider.RES_BLOCK_RULE_IDS);
+            ArrayList<String> patterns =
+                    res.getStringArrayList(BlockedNumberProvider.RES_BLOCK_RULE_PATTERNS);
+            if (ids != null && patterns != null) {
+                for (int i = 0; i < ids.length && i < patterns.size(); i++) {
+                    blockRules.add(new BackedUpBlockRule((int) ids[i], patterns.get(i)));
+                }
+            }
+        }
+        return blockRules;
+    }
+
     private BackedUpBlockedNumber createBlockedNumberFromCursor(Cursor cursor) {
         return new BackedUpBlockedNumber(
                 cursor.getInt(0), cursor.getString(1), cursor.getString(2));
@@ -190,9 +266,13 @@ public class BlockedNumberBackupAgent extends BackupAgent {
     private void writeNewState(DataOutputStream dataOutputStream, BackupState state)
             throws IOException {
         dataOutputStream.writeInt(VERSION);
+        dataOutputStream.writeInt(state.ids.size());
         for (int i : state.ids) {
             dataOutputStream.writeInt(i);
         }
+        for (int i : state.ruleIds) {
+            dataOutputStream.writeInt(i);
+        }
     }
 
     @Nullable
@@ -220,6 +300,39 @@ public class BlockedNumberBackupAgent extends BackupAgent {
         }
     }
 
+    @Nullable
+    private BackedUpBlockRule readBlockRuleFromData(BackupDataInput data) {
+        int id;
+        try {
+            id = Integer.parseInt(data.getKey().substring(RULE_KEY_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Unexpected key found in restore: " + data.getKey());
+            return null;
+        }
+
+        try {
+            byte[] byteArray = new byte[data.getDataSize()];
+            data.readEntityData(byteArray, 0, byteArray.length);
+            DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(byteArray));
+            dataInput.readInt(); // Ignore version.
+            BackedUpBlockRule blockRule = new BackedUpBlockRule(id, readString(dataInput));
+            logV("Restoring block rule: " + blockRule);
+            return blockRule;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading block rule for: " + id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToProvider(BackedUpBlockRule blockRule) {
+        try {
+            getContentResolver().call(BlockedNumberContract.AUTHORITY_URI,
+                    BlockedNumberProvider.METHOD_ADD_BLOCK_RULE, blockRule.pattern, null);
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to insert block rule " + blockRule + " :" + e.getMessage());
+        }
+    }
+
     private void writeToProvider(BackedUpBlockedNumber blockedNumber) {
         ContentValues contentValues = new ContentValues();
         contentValues.put(BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
@@ -247,10 +360,31 @@ public class BlockedNumberBackupAgent extends BackupAgent {
     private static class BackupState {
         final int version;
         final SortedSet<Integer> ids;
+        final SortedSet<Integer> ruleIds;
 
-        BackupState(int version, SortedSet<Integer> ids) {
+        BackupState(int version, SortedSet<Integer> ids, SortedSet<Integer> ruleIds) {
             this.version = version;
             this.ids = ids;
+            this.ruleIds = ruleIds;
+        }
+    }
+
+    private static class BackedUpBlockRule {
+        final int id;
+        final String pattern;
+
+        BackedUpBlockRule(int id, String pattern) {
+            this.id = id;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public String toString() {
+            if (isDebug()) {
+                return String.format("[%d, pattern: %s]", id, pattern);
+            } else {
+                return String.format("[%d]", id);
+            }
         }
     }
 
@@ -24,7 +24,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.Preconditions;
 
 public class BlockedNumberDatabaseHelper {
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 4;
 
     private static final String DATABASE_NAME = "blockednumbers.db";
 
@@ -39,6 +39,27 @@ public class BlockedNumberDatabaseHelper {
     public interface Tables {
         String BLOCKED_NUMBERS = "blocked";
         String BLOCKED_INTERCEPT = "intercepted";//add
+        String BLOCK_RULES = "block_rules";
+    }
+
+    /**
+     * Columns of {@link Tables#BLOCKED_INTERCEPT}.
+     */
+    public interface InterceptColumns {
+        String ID = "id";
+        String TYPE = "type";
+        String NUMBER = "number";
+        String CONTENT = "content";
+        /** Epoch millis. */
+        String TIME = "time";
+    }
+
+    /**
+     * Columns of {@link Tables#BLOCK_RULES}.  See {@link BlockRuleMatcher} for the pattern syntax.
+     */
+    public interface BlockRuleColumns {
+        String ID = "_id";
+        String PATTERN = "pattern";
     }
 
     private static final class OpenHelper extends SQLiteOpenHelper {
@@ -59,8 +80,34 @@ public class BlockedNumberDatabaseHelper {
             if (oldVersion < 2) {
                 db.execSQL("DROP TABLE IF EXISTS blocked");
                 db.execSQL("DROP TABLE IF EXISTS intercepted");//add
+                db.execSQL("DROP TABLE IF EXISTS " + Tables.BLOCK_RULES);
                 createTables(db);
+                return;
             }
+            if (oldVersion < 3) {
+                createBlockRulesTable(db);
+            }
+            if (oldVersion < 4) {
+                upgradeInterceptTimeToMillis(db);
+            }
+        }
+
+        /**
+         * Rebuilds the intercept table with an INTEGER time column, converting the old
+         * "yyyy-MM-dd HH:mm:ss" local time strings to epoch millis.  A plain UPDATE is not enough
+         * since the old column's TEXT affinity would turn the numbers back into strings.
+         */
+        private void upgradeInterceptTimeToMillis(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + Tables.BLOCKED_INTERCEPT + " RENAME TO intercepted_old");
+            createInterceptTable(db);
+            db.execSQL("INSERT INTO " + Tables.BLOCKED_INTERCEPT + " SELECT " +
+                    InterceptColumns.ID + "," +
+                    InterceptColumns.TYPE + "," +
+                    InterceptColumns.NUMBER + "," +
+                    InterceptColumns.CONTENT + "," +
+                    " CAST(strftime('%s', " + InterceptColumns.TIME + ", 'utc') AS INTEGER) * 1000" +
+                    " FROM intercepted_old");
+            db.execSQL("DROP TABLE intercepted_old");
         }
 
         private void createTables(SQLiteDatabase db) {
@@ -70,19 +117,32 @@ public class BlockedNumberDatabaseHelper {
                     BlockedNumbers.COLUMN_E164_NUMBER + " TEXT" +
                     ")");
 
-             db.execSQL("CREATE TABLE " + Tables.BLOCKED_INTERCEPT + " (" +
-                    " id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    " type INTEGER ," +
-                    " number TEXT ," +
-                    " content TEXT ," +
-                    " time TEXT" +
-                    ")");//add
+            createInterceptTable(db);
 
             db.execSQL("CREATE INDEX blocked_number_idx_original ON " + Tables.BLOCKED_NUMBERS +
                     " (" + BlockedNumbers.COLUMN_ORIGINAL_NUMBER + ");");
             db.execSQL("CREATE INDEX blocked_number_idx_e164 ON " + Tables.BLOCKED_NUMBERS + " (" +
                     BlockedNumbers.COLUMN_E164_NUMBER +
                     ");");
+
+            createBlockRulesTable(db);
+        }
+
+        private void createInterceptTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + Tables.BLOCKED_INTERCEPT + " (" +
+                    InterceptColumns.ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    InterceptColumns.TYPE + " INTEGER ," +
+                    InterceptColumns.NUMBER + " TEXT ," +
+                    InterceptColumns.CONTENT + " TEXT ," +
+                    InterceptColumns.TIME + " INTEGER" +
+                    ")");//add
+        }
+
+        private void createBlockRulesTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + Tables.BLOCK_RULES + " (" +
+                    BlockRuleColumns.ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    BlockRuleColumns.PATTERN + " TEXT NOT NULL UNIQUE" +
+                    ")");
         }
     }
 
@@ -117,5 +177,6 @@ public class BlockedNumberDatabaseHelper {
 
     public void wipeForTest() {
         getWritableDatabase().execSQL("DELETE FROM " + Tables.BLOCKED_NUMBERS);
+        getWritableDatabase().execSQL("DELETE FROM " + Tables.BLOCK_RULES);
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.providers.blockednumber;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BlockedNumberContract.BlockedNumbers;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.providers.blockednumber.BlockedNumberDatabaseHelper.BlockRuleColumns;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * In-memory copy of the {@link BlockedNumberDatabaseHelper.Tables#BLOCKED_NUMBERS} and
+ * {@link BlockedNumberDatabaseHelper.Tables#BLOCK_RULES} tables, so that the "is blocked" checks
+ * done for every incoming call and SMS don't have to query SQLite.
+ *
+ * <p>The index is loaded from the database on first use and is then kept in sync by the provider
+ * on every insert and delete.  Writers must hold the index lock across the database write and the
+ * index update, so that the two are never observed out of order.
+ */
+final class BlockedNumberIndex {
+    private static final String TAG = BlockedNumberProvider.TAG;
+
+    private static final String[] PROJECTION = new String[] {
+            BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+            BlockedNumbers.COLUMN_E164_NUMBER,
+    };
+
+    private static final String[] RULES_PROJECTION = new String[] {
+            BlockRuleColumns.PATTERN,
+    };
+
+    private final BlockedNumberDatabaseHelper mDbHelper;
+
+    /** original_number -> e164_number ("" when the number has no E164 form). */
+    private HashMap<String, String> mOriginalNumbers;
+
+    /** e164_number -> number of rows with that E164 number. */
+    private HashMap<String, Integer> mE164Numbers;
+
+    /** pattern -> parsed rule, for every row of the block rules table. */
+    private HashMap<String, BlockRuleMatcher.Rule> mRules;
+
+    private BlockRuleMatcher mRuleMatcher;
+
+    BlockedNumberIndex(BlockedNumberDatabaseHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Same semantics as the SQL lookup it replaces: a match on the original number, or on the
+     * E164 number when one is available.
+     */
+    synchronized boolean contains(String originalNumber, String e164Number) {
+        ensureLoaded();
+        return mOriginalNumbers.containsKey(originalNumber)
+                || (!TextUtils.isEmpty(e164Number) && mE164Numbers.containsKey(e164Number));
+    }
+
+    /**
+     * Whether the number matches any prefix or range rule.
+     */
+    synchronized boolean matchesRule(String originalNumber, String e164Number) {
+        ensureLoaded();
+        return !mRules.isEmpty() && mRuleMatcher.matches(originalNumber, e164Number);
+    }
+
+    /**
+     * Records a row written with {@link SQLiteDatabase#CONFLICT_REPLACE}, i.e. it replaces any
+     * existing row with the same original number.
+     */
+    synchronized void onInserted(String originalNumber, String e164Number) {
+        if (mOriginalNumbers == null) {
+            // Not loaded yet; the row will be picked up when the table is read.
+            return;
+        }
+        removeOriginal(originalNumber);
+        final String e164 = e164Number == null ? "" : e164Number;
+        mOriginalNumbers.put(originalNumber, e164);
+        if (!e164.isEmpty()) {
+            final Integer count = mE164Numbers.get(e164);
+            mE164Numbers.put(e164, count == null ? 1 : count + 1);
+        }
+    }
+
+    synchronized void onDeleted(Collection<String> originalNumbers) {
+        if (mOriginalNumbers == null) {
+            return;
+        }
+        for (String originalNumber : originalNumbers) {
+            removeOriginal(originalNumber);
+        }
+    }
+
+    synchronized void onRuleInserted(String pattern, BlockRuleMatcher.Rule rule) {
+        if (mRules == null) {
+            return;
+        }
+        if (mRules.put(pattern, rule) == null) {
+            mRuleMatcher.add(rule);
+        }
+    }
+
+    synchronized void onRulesDeleted(Collection<String> patterns) {
+        if (mRules == null) {
+            return;
+        }
+        boolean changed = false;
+        for (String pattern : patterns) {
+            changed |= mRules.remove(pattern) != null;
+        }
+        if (changed) {
+            // Tries don't support removal; rules are few compared to numbers, so just rebuild.
+            mRuleMatcher = buildMatcher(mRules);
+        }
+    }
+
+    /**
+     * Drops the in-memory copy; it will be re-read from the database on next use.
+     */
+    synchronized void invalidate() {
+        mOriginalNumbers = null;
+        mE164Numbers = null;
+        mRules = null;
+        mRuleMatcher = null;
+    }
+
+    private void removeOriginal(String originalNumber) {
+        final String e164 = mOriginalNumbers.remove(originalNumber);
+        if (TextUtils.isEmpty(e164)) {
+            return;
+        }
+        final Integer count = mE164Numbers.get(e164);
+        if (count == null || count <= 1) {
+            mE164Numbers.remove(e164);
+        } else {
+            mE164Numbers.put(e164, count - 1);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mOriginalNumbers != null) {
+            return;
+        }
+        final HashMap<String, String> originalNumbers = new HashMap<>();
+        final HashMap<String, Integer> e164Numbers = new HashMap<>();
+        final Cursor c = mDbHelper.getReadableDatabase().query(
+                BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS, PROJECTION,
+                null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                final String e164 = c.isNull(1) ? "" : c.getString(1);
+                originalNumbers.put(c.getString(0), e164);
+                if (!e164.isEmpty()) {
+                    final Integer count = e164Numbers.get(e164);
+                    e164Numbers.put(e164, count == null ? 1 : count + 1);
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        final HashMap<String, BlockRuleMatcher.Rule> rules = new HashMap<>();
+        final Cursor r = mDbHelper.getReadableDatabase().query(
+                BlockedNumberDatabaseHelper.Tables.BLOCK_RULES, RULES_PROJECTION,
+                null, null, null, null, null);
+        try {
+            while (r.moveToNext()) {
+                final String pattern = r.getString(0);
+                try {
+                    rules.put(pattern, BlockRuleMatcher.parse(pattern));
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Ignoring invalid block rule: " + e.getMessage());
+                }
+            }
+        } finally {
+            r.close();
+        }
+
+        mOriginalNumbers = originalNumbers;
+        mE164Numbers = e164Numbers;
+        mRules = rules;
+        mRuleMatcher = buildMatcher(rules);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Loaded blocked number index: " + originalNumbers.size() + " numbers, "
+                    + rules.size() + " rules");
+        }
+    }
+
+    private static BlockRuleMatcher buildMatcher(HashMap<String, BlockRuleMatcher.Rule> rules) {
+        final BlockRuleMatcher matcher = new BlockRuleMatcher();
+        for (BlockRuleMatcher.Rule rule : rules.values()) {
+            matcher.add(rule);
+        }
+        return matcher;
+    }
+}
@@ -48,9 +48,12 @@ import android.util.Log;
 
 import com.android.common.content.ProjectionMap;
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.providers.blockednumber.BlockedNumberDatabaseHelper.BlockRuleColumns;
 import com.android.providers.blockednumber.BlockedNumberDatabaseHelper.Tables;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Blocked phone number provider.
@@ -68,6 +71,27 @@ public class BlockedNumberProvider extends ContentProvider {
 
     private static final UriMatcher sUriMatcher;
 
+    /**
+     * Adds a prefix or range block rule, see {@link BlockRuleMatcher} for the syntax.  {@code arg}
+     * is the pattern; the result holds the row id in {@link #RES_BLOCK_RULE_ID}.
+     */
+    public static final String METHOD_ADD_BLOCK_RULE = "add_block_rule";
+
+    /**
+     * Removes the block rule whose pattern is {@code arg}; the result holds the number of removed
+     * rules in {@link BlockedNumberContract#RES_NUM_ROWS_DELETED}.
+     */
+    public static final String METHOD_REMOVE_BLOCK_RULE = "remove_block_rule";
+
+    /**
+     * Lists all block rules in {@link #RES_BLOCK_RULE_IDS} and {@link #RES_BLOCK_RULE_PATTERNS}.
+     */
+    public static final String METHOD_GET_BLOCK_RULES = "get_block_rules";
+
+    public static final String RES_BLOCK_RULE_ID = "block_rule_id";
+    public static final String RES_BLOCK_RULE_IDS = "block_rule_ids";
+    public static final String RES_BLOCK_RULE_PATTERNS = "block_rule_patterns";
+
     private static final String PREF_FILE = "block_number_provider_prefs";
     private static final String BLOCK_SUPPRESSION_EXPIRY_TIME_PREF =
             "block_suppression_expiry_time_pref";
@@ -83,6 +107,9 @@ public class BlockedNumberProvider extends ContentProvider {
         sUriMatcher.addURI(BlockedNumberContract.AUTHORITY, "blocked/#", BLOCKED_ID);
     }
 
+    private static final Uri BLOCK_SUPPRESSION_URI =
+            Uri.withAppendedPath(BlockedNumberContract.AUTHORITY_URI, "block_suppression");
+
     private static final ProjectionMap sBlockedNumberColumns = ProjectionMap.builder()
             .add(BlockedNumberContract.BlockedNumbers.COLUMN_ID)
             .add(BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER)
@@ -103,6 +130,8 @@ public class BlockedNumberProvider extends ContentProvider {
     @VisibleForTesting
     protected BackupManager mBackupManager;
 
+    private volatile BlockedNumberIndex mIndex;
+
     @Override
     public boolean onCreate() {
         mDbHelper = BlockedNumberDatabaseHelper.getInstance(getContext());
@@ -163,9 +192,16 @@ public class BlockedNumberProvider extends ContentProvider {
         }
 
         // Then insert.
-        final long id = mDbHelper.getWritableDatabase().insertWithOnConflict(
-                BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS, null, cv,
-                SQLiteDatabase.CONFLICT_REPLACE);
+        final BlockedNumberIndex index = getIndex();
+        final long id;
+        synchronized (index) {
+            id = mDbHelper.getWritableDatabase().insertWithOnConflict(
+                    BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS, null, cv,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            if (id >= 0) {
+                index.onInserted(phoneNumber, e164Number);
+            }
+        }
 
         return ContentUris.withAppendedId(BlockedNumberContract.BlockedNumbers.CONTENT_URI, id);
     }
@@ -229,9 +265,50 @@ public class BlockedNumberProvider extends ContentProvider {
                      null);
         }*/
 
-        return db.delete(
-                BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
-                selection, selectionArgs);
+        final BlockedNumberIndex index = getIndex();
+        synchronized (index) {
+            final List<String> deletedNumbers = new ArrayList<>();
+            final int numRows;
+            db.beginTransaction();
+            try {
+                final Cursor c = db.query(BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                        new String[] {BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER},
+                        selection, selectionArgs, null, null, null);
+                try {
+                    while (c.moveToNext()) {
+                        deletedNumbers.add(c.getString(0));
+                    }
+                } finally {
+                    c.close();
+                }
+                numRows = db.delete(
+                        BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS,
+                        selection, selectionArgs);
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                // Don't guess what made it to disk; re-read the table on next lookup.
+                index.invalidate();
+                throw e;
+            } finally {
+                db.endTransaction();
+            }
+            index.onDeleted(deletedNumbers);
+            return numRows;
+        }
+    }
+
+    private BlockedNumberIndex getIndex() {
+        BlockedNumberIndex index = mIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = mIndex;
+                if (index == null) {
+                    index = new BlockedNumberIndex(mDbHelper);
+                    mIndex = index;
+                }
+            }
+        }
+        return index;
     }
 
     @Override
@@ -342,6 +419,27 @@ public class BlockedNumberProvider extends ContentProvider {
                 res.putBoolean(
                         BlockedNumberContract.RES_NUMBER_IS_BLOCKED, shouldSystemBlockNumber(arg));
                 break;
+            case METHOD_ADD_BLOCK_RULE:
+                enforceWritePermissionAndPrimaryUser();
+
+                res.putLong(RES_BLOCK_RULE_ID, addBlockRule(arg));
+                notifyBlockRulesChanged();
+                break;
+            case METHOD_REMOVE_BLOCK_RULE:
+                enforceWritePermissionAndPrimaryUser();
+
+                final int count = removeBlockRule(arg);
+                res.putInt(BlockedNumberContract.RES_NUM_ROWS_DELETED, count);
+                // Observers drop their cached verdicts on every notification.
+                if (count > 0) {
+                    notifyBlockRulesChanged();
+                }
+                break;
+            case METHOD_GET_BLOCK_RULES:
+                enforceReadPermissionAndPrimaryUser();
+
+                getBlockRules(res);
+                break;
             default:
                 enforceReadPermissionAndPrimaryUser();
 
@@ -370,12 +468,79 @@ public class BlockedNumberProvider extends ContentProvider {
         return deleteBlockedNumber(selection, selectionArgs);
     }
 
-    private boolean isEmergencyNumber(String phoneNumber) {
+    private long addBlockRule(String pattern) {
+        final BlockRuleMatcher.Rule rule = BlockRuleMatcher.parse(pattern);
+        final String trimmed = pattern.trim();
+
+        final ContentValues cv = new ContentValues();
+        cv.put(BlockRuleColumns.PATTERN, trimmed);
+
+        final BlockedNumberIndex index = getIndex();
+        synchronized (index) {
+            final long id = mDbHelper.getWritableDatabase().insertWithOnConflict(
+                    BlockedNumberDatabaseHelper.Tables.BLOCK_RULES, null, cv,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            if (id >= 0) {
+                index.onRuleInserted(trimmed, rule);
+            }
+            if (DEBUG) {
+                Log.d(TAG, String.format("added block rule: %s, id=%d", trimmed, id));
+            }
+            return id;
+        }
+    }
+
+    private int removeBlockRule(String pattern) {
+        if (TextUtils.isEmpty(pattern)) {
+            return 0;
+        }
+        final String trimmed = pattern.trim();
+
+        final BlockedNumberIndex index = getIndex();
+        synchronized (index) {
+            final int numRows = mDbHelper.getWritableDatabase().delete(
+                    BlockedNumberDatabaseHelper.Tables.BLOCK_RULES,
+                    BlockRuleColumns.PATTERN + "=?", new String[] {trimmed});
+            index.onRulesDeleted(Arrays.asList(trimmed));
+            return numRows;
+        }
+    }
+
+    private void getBlockRules(Bundle res) {
+        final ArrayList<String> patterns = new ArrayList<>();
+        final Cursor c = mDbHelper.getReadableDatabase().query(
+                BlockedNumberDatabaseHelper.Tables.BLOCK_RULES,
+                new String[] {BlockRuleColumns.ID, BlockRuleColumns.PATTERN},
+                null, null, null, null, BlockRuleColumns.ID);
+        final long[] ids;
+        try {
+            ids = new long[c.getCount()];
+            while (c.moveToNext()) {
+                ids[c.getPosition()] = c.getLong(0);
+                patterns.add(c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        res.putLongArray(RES_BLOCK_RULE_IDS, ids);
+        res.putStringArrayList(RES_BLOCK_RULE_PATTERNS, patterns);
+    }
+
+    private void notifyBlockRulesChanged() {
+        getContext().getContentResolver().notifyChange(
+                BlockedNumberContract.BlockedNumbers.CONTENT_URI, null);
+        mBackupManager.dataChanged();
+    }
+
+    /**
+     * @param e164Number the E164 form of {@code phoneNumber}, as returned by
+     *        {@link Utils#getE164Number}.
+     */
+    private boolean isEmergencyNumber(String phoneNumber, String e164Number) {
         if (TextUtils.isEmpty(phoneNumber)) {
             return false;
         }
 
-        final String e164Number = Utils.getE164Number(getContext(), phoneNumber, null);
         return PhoneNumberUtils.isEmergencyNumber(phoneNumber)
                 || PhoneNumberUtils.isEmergencyNumber(e164Number);
     }
@@ -385,37 +550,26 @@ public class BlockedNumberProvider extends ContentProvider {
             return false;
         }
 
-        final String inE164 = Utils.getE164Number(getContext(), phoneNumber, null); // may be empty.
+        // may be empty.
+        return isBlocked(phoneNumber, Utils.getE164Number(getContext(), phoneNumber, null));
+    }
+
+    private boolean isBlocked(String phoneNumber, String inE164) {
+        if (TextUtils.isEmpty(phoneNumber)) {
+            return false;
+        }
 
         if (DEBUG) {
             Log.d(TAG, String.format("isBlocked: in=%s, e164=%s", phoneNumber, inE164));
         }
 
-        final Cursor c = mDbHelper.getReadableDatabase().rawQuery(
-                "SELECT " +
-                BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "," +
-                BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER +
-                " FROM " + BlockedNumberDatabaseHelper.Tables.BLOCKED_NUMBERS +
-                " WHERE " + BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=?1" +
-                " OR (?2 != '' AND " +
-                        BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER + "=?2)",
-                new String[] {phoneNumber, inE164}
-                );
-        try {
-            while (c.moveToNext()) {
-                if (DEBUG) {
-                    final String original = c.getString(0);
-                    final String e164 = c.getString(1);
-
-                    Log.d(TAG, String.format("match found: original=%s, e164=%s", original, e164));
-                }
-                return true;
-            }
-        } finally {
-            c.close();
+        final BlockedNumberIndex index = getIndex();
+        final boolean blocked = index.contains(phoneNumber, inE164)
+                || index.matchesRule(phoneNumber, inE164);
+        if (DEBUG && blocked) {
+            Log.d(TAG, String.format("match found: in=%s, e164=%s", phoneNumber, inE164));
         }
-        // No match found.
-        return false;
+        return blocked;
     }
 
     private boolean canCurrentUserBlockUsers() {
@@ -454,10 +608,15 @@ public class BlockedNumberProvider extends ContentProvider {
          * Emergency number check may cost more time than blocked number check.
          * In order to improve the performance, do blocked number check first.
          */
-        if (!isBlocked(phoneNumber)) {
+        if (TextUtils.isEmpty(phoneNumber)) {
+            return false;
+        }
+        // Normalize once for both checks.
+        final String e164Number = Utils.getE164Number(getContext(), phoneNumber, null);
+        if (!isBlocked(phoneNumber, e164Number)) {
             return false;
         }
-        if (isEmergencyNumber(phoneNumber)) {
+        if (isEmergencyNumber(phoneNumber, e164Number)) {
             return false;
         }
         /*
@@ -524,6 +683,8 @@ public class BlockedNumberProvider extends ContentProvider {
     }
 
     private void notifyBlockSuppressionStateChange() {
+        // Lets observers of AUTHORITY_URI (e.g. telecom's verdict cache) drop cached verdicts.
+        getContext().getContentResolver().notifyChange(BLOCK_SUPPRESSION_URI, null);
         //Intent intent = new Intent(SystemContract.ACTION_BLOCK_SUPPRESSION_STATE_CHANGED);
         //getContext().sendBroadcast(intent, Manifest.permission.READ_BLOCKED_NUMBERS);
     }
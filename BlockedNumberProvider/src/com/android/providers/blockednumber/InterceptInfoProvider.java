@@ -1,8 +1,11 @@
 package com.android.providers.blockednumber;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -12,6 +15,12 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.util.Log;
 
+import com.android.providers.blockednumber.BlockedNumberDatabaseHelper.InterceptColumns;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+
 /**
  * Created by  on 2019/7/6.
  */
@@ -33,8 +42,18 @@ public class InterceptInfoProvider extends ContentProvider {
         mMatcher.addURI(AUTHORITY,"intercept", User_Code);
     }
 
+    private static final String LEGACY_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
     protected BlockedNumberDatabaseHelper mDbHelper;
 
+    /** Set while {@link #applyBatch} runs, to send one change notification for the batch. */
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
     @Override
     public boolean onCreate() {
         mDbHelper = BlockedNumberDatabaseHelper.getInstance(getContext());
@@ -45,12 +64,60 @@ public class InterceptInfoProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
         Uri blockedUri = insertInterceptInfo(values);
-        getContext().getContentResolver().notifyChange(blockedUri, null);
+        if (!mApplyingBatch.get()) {
+            getContext().getContentResolver().notifyChange(blockedUri, null);
+        }
         Log.e(TAG, "insertInterceptInfo()....");
         return blockedUri;
     }
 
+    /**
+     * Inserts all rows in a single transaction and sends a single change notification, so that
+     * bursts of blocked calls don't cost a commit and a notification each.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int numInserted = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues cv : values) {
+                insertInterceptInfo(cv);
+                numInserted++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (numInserted > 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        Log.d(TAG, "bulkInsert(): " + numInserted + " rows");
+        return numInserted;
+    }
+
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        final ContentProviderResult[] results;
+        mApplyingBatch.set(true);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mApplyingBatch.set(false);
+        }
+        getContext().getContentResolver().notifyChange(CONTENT_URI, null);
+        return results;
+    }
+
     private Uri insertInterceptInfo(ContentValues values) {
+        normalizeTime(values);
         final long id = mDbHelper.getWritableDatabase().insertWithOnConflict(
                 BlockedNumberDatabaseHelper.Tables.BLOCKED_INTERCEPT, null, values,
                 SQLiteDatabase.CONFLICT_REPLACE);
@@ -59,11 +126,36 @@ public class InterceptInfoProvider extends ContentProvider {
     }
 
 
+    /**
+     * Older clients send the time as "yyyy-MM-dd HH:mm:ss"; store everything as epoch millis.
+     */
+    private static void normalizeTime(ContentValues values) {
+        final Object time = values.get(InterceptColumns.TIME);
+        if (time == null) {
+            values.put(InterceptColumns.TIME, System.currentTimeMillis());
+        } else if (time instanceof String) {
+            final String formatted = (String) time;
+            try {
+                values.put(InterceptColumns.TIME, Long.parseLong(formatted));
+            } catch (NumberFormatException e) {
+                try {
+                    values.put(InterceptColumns.TIME, new SimpleDateFormat(LEGACY_TIME_FORMAT)
+                            .parse(formatted).getTime());
+                } catch (ParseException pe) {
+                    Log.w(TAG, "Unparseable intercept time: " + formatted);
+                    values.put(InterceptColumns.TIME, System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
         final SQLiteDatabase db = mDbHelper.getWritableDatabase();
         int ret = db.delete(BlockedNumberDatabaseHelper.Tables.BLOCKED_INTERCEPT, selection, selectionArgs);
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (!mApplyingBatch.get()) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
         return ret;
     }
 
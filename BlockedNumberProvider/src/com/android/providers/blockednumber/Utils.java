@@ -20,8 +20,13 @@ import android.annotation.Nullable;
 import android.content.Context;
 import android.location.Country;
 import android.location.CountryDetector;
+import android.location.CountryListener;
+import android.os.Looper;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.android.internal.annotations.GuardedBy;
 
 import java.util.Locale;
 
@@ -31,6 +36,33 @@ public class Utils {
 
     public static final int MIN_INDEX_LEN = 8;
 
+    private static final int E164_CACHE_SIZE = 256;
+
+    private static final Object sLock = new Object();
+
+    /** "countryIso/rawNumber" -> E164 number, "" if the number has no E164 form. */
+    private static final LruCache<String, String> sE164Cache = new LruCache<>(E164_CACHE_SIZE);
+
+    /** Country detected by {@link #sCountryDetector}, kept current by {@link #sCountryListener}. */
+    @GuardedBy("sLock")
+    private static String sCountryIso;
+    @GuardedBy("sLock")
+    private static CountryDetector sCountryDetector;
+
+    private static final CountryListener sCountryListener = new CountryListener() {
+        @Override
+        public void onCountryDetected(Country country) {
+            synchronized (sLock) {
+                final String iso = country == null ? null : country.getCountryIso();
+                if (!TextUtils.equals(iso, sCountryIso)) {
+                    sCountryIso = iso;
+                    // Keys include the ISO so entries can't go wrong, but they are now dead weight.
+                    sE164Cache.evictAll();
+                }
+            }
+        }
+    };
+
     /**
      * @return The current country code.
      */
@@ -38,9 +70,21 @@ public class Utils {
         final CountryDetector detector = (CountryDetector) context.getSystemService(
                 Context.COUNTRY_DETECTOR);
         if (detector != null) {
-            final Country country = detector.detectCountry();
-            if (country != null) {
-                return country.getCountryIso();
+            synchronized (sLock) {
+                if (detector != sCountryDetector) {
+                    // First call, or a different detector (unit tests): detect once, then rely on
+                    // the listener instead of an IPC per call.
+                    if (sCountryDetector != null) {
+                        sCountryDetector.removeCountryListener(sCountryListener);
+                    }
+                    sCountryDetector = detector;
+                    final Country country = detector.detectCountry();
+                    sCountryIso = country == null ? null : country.getCountryIso();
+                    detector.addCountryListener(sCountryListener, Looper.getMainLooper());
+                }
+                if (sCountryIso != null) {
+                    return sCountryIso;
+                }
             }
         }
         final Locale locale = context.getResources().getConfiguration().locale;
@@ -66,9 +110,17 @@ public class Utils {
         if (TextUtils.isEmpty(rawNumber)) {
             return "";
         }
-        final String e164 =
-                PhoneNumberUtils.formatNumberToE164(rawNumber, getCurrentCountryIso(context));
-        return e164 == null ? "" : e164;
+        final String countryIso = getCurrentCountryIso(context);
+        final String key = countryIso + "/" + rawNumber;
+        String e164 = sE164Cache.get(key);
+        if (e164 == null) {
+            e164 = PhoneNumberUtils.formatNumberToE164(rawNumber, countryIso);
+            if (e164 == null) {
+                e164 = "";
+            }
+            sE164Cache.put(key, e164);
+        }
+        return e164;
     }
 
     public static @Nullable String wrapSelectionWithParens(@Nullable String selection) {
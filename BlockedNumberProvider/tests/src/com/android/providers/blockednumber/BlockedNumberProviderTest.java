@@ -35,6 +35,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.location.Country;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.PersistableBundle;
 import android.os.SystemProperties;
 import android.provider.BlockedNumberContract;
@@ -514,6 +515,76 @@ public class BlockedNumberProviderTest extends AndroidTestCase {
         assertIsBlocked(false, "abc.def@gmail.com");
     }
 
+    public void testIsBlockedAfterReplaceAndDelete() {
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-500-454-3333"));
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1500-454-3333"));
+        assertIsBlocked(true, "+15004543333");
+
+        // Re-inserting replaces the E164 number of the existing row.
+        insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, "1-500-454-3333",
+                BlockedNumbers.COLUMN_E164_NUMBER, "+815004543333"));
+        assertIsBlocked(true, "+815004543333");
+        assertIsBlocked(true, "+15004543333");
+
+        // The E164 number stays blocked while any row still refers to it.
+        mResolver.delete(BlockedNumbers.CONTENT_URI,
+                BlockedNumbers.COLUMN_ORIGINAL_NUMBER + "=?", new String[]{"1500-454-3333"});
+        assertIsBlocked(false, "+15004543333");
+        assertIsBlocked(true, "+815004543333");
+
+        mResolver.delete(BlockedNumbers.CONTENT_URI, null, null);
+        assertIsBlocked(false, "+815004543333");
+        assertIsBlocked(false, "1-500-454-3333");
+    }
+
+    public void testBlockRules() {
+        addBlockRuleExpectingFailure("");
+        addBlockRuleExpectingFailure("123");
+        addBlockRuleExpectingFailure("+86x*");
+        addBlockRuleExpectingFailure("1000-99");
+        addBlockRuleExpectingFailure("2000-1000");
+
+        addBlockRule("+86170*");
+        addBlockRule("0755-8*");
+        addBlockRule("+15004540100-15004540199");
+
+        assertIsBlocked(true, "+8617012345678");
+        assertIsBlocked(false, "+8617112345678");
+        assertIsBlocked(true, "0755 8123 4567");
+        assertIsBlocked(false, "0755 7123 4567");
+        assertIsBlocked(true, "+1 500-454-0100");
+        assertIsBlocked(true, "500-454-0150");
+        assertIsBlocked(true, "+1 500-454-0199");
+        assertIsBlocked(false, "+1 500-454-0200");
+        assertIsBlocked(false, "+1 500-454-01000");
+
+        Bundle res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_GET_BLOCK_RULES, null, null);
+        assertEquals(3, res.getLongArray(BlockedNumberProvider.RES_BLOCK_RULE_IDS).length);
+        MoreAsserts.assertContentsInAnyOrder(
+                res.getStringArrayList(BlockedNumberProvider.RES_BLOCK_RULE_PATTERNS),
+                "+86170*", "0755-8*", "+15004540100-15004540199");
+
+        res = mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_REMOVE_BLOCK_RULE, "+86170*", null);
+        assertEquals(1, res.getInt(BlockedNumberContract.RES_NUM_ROWS_DELETED));
+        assertIsBlocked(false, "+8617012345678");
+        assertIsBlocked(true, "500-454-0150");
+    }
+
+    private void addBlockRule(String pattern) {
+        mResolver.call(BlockedNumberContract.AUTHORITY_URI,
+                BlockedNumberProvider.METHOD_ADD_BLOCK_RULE, pattern, null);
+    }
+
+    private void addBlockRuleExpectingFailure(String pattern) {
+        try {
+            addBlockRule(pattern);
+            fail("IllegalArgumentException expected for " + pattern);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
     public void testEmergencyNumbersAreNotBlockedBySystem() {
         String emergencyNumber = getEmergencyNumberFromSystemPropertiesOrDefault();
         insert(cv(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, emergencyNumber));
@@ -1,92 +1,78 @@
 package com.android.soundrecorder;
 
 import android.content.Context;
-import android.content.res.Resources;
+import android.database.Cursor;
+import android.util.LruCache;
+import android.util.SparseArray;
 import android.util.SparseBooleanArray;
-import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.CheckBox;
-import android.widget.RelativeLayout;
+import android.widget.CursorAdapter;
 import android.widget.TextView;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
-public class EditViewAdapter extends BaseAdapter {
-    private static final int DEFAULT_SECONDARY_SIZE_TEXT_COLOR = -4276546;
+/**
+ * Adapter of the recording list in edit mode, backed by the recording cursor of
+ * {@link RecordingFileList}.  Rows are read from the cursor window and formatted when bound, so
+ * only the visible rows are ever materialized.  Check states are kept per MediaStore id.
+ *
+ * <p>Waveform peaks are loaded in the background and cached per MediaStore id; a row bound
+ * before its peaks are loaded shows them once they are.
+ */
+public class EditViewAdapter extends CursorAdapter {
+    private static final int PEAKS_CACHE_SIZE = 64;
 
-    private final Resources mResources;
     private final LayoutInflater mInflater;
-    private final List<String> mNameList;
-    private final List<String> mPathList;
-    private final List<String> mTitleList;
-    private final List<String> mDurationList;
-    private final List<Integer> mIdList;
-    private final List<Integer> mCheckedItemId;
+    private final RecordingFileList.RowFormatter mFormatter;
     private final SparseBooleanArray mCheckStates;
-    private int mCurPos = -1;
-    private List<Integer> mPosCheckedList = null;
-    private final SparseIntArray mIdPos;
+    private final LruCache<Integer, WaveformPeaks> mPeaks =
+            new LruCache<Integer, WaveformPeaks>(PEAKS_CACHE_SIZE);
+    // Ids of the recordings without a valid peak file.
+    private final SparseBooleanArray mNoPeaks = new SparseBooleanArray();
+    // Rows waiting for their peaks, by the id of the recording being loaded.
+    private final SparseArray<EditViewTag> mPendingPeaks = new SparseArray<EditViewTag>();
 
     /**
-     * The constructor to construct a navigation view adapter
+     * The constructor to construct an edit view adapter
      *
-     * @param context      the context of FileManagerActivity
-     * @param nameList     a list of file names
-     * @param pathList     a list of file path
-     * @param titleList    a list of file title
-     * @param durationList a list of file duration
-     * @param curPos       current click item index
+     * @param context   the context of RecordingFileList
+     * @param cursor    the recording cursor, see {@link RecordingFileList#queryData()}
+     * @param formatter formats rows when they are bound
+     * @param curId     id of the item long-pressed to enter edit mode, or -1
      */
-    public EditViewAdapter(Context context, List<String> nameList,
-                           List<String> pathList, List<String> titleList,
-                           List<String> durationList, List<Integer> idList, int curPos) {
-        mResources = context.getResources();
+    public EditViewAdapter(Context context, Cursor cursor,
+                           RecordingFileList.RowFormatter formatter, int curId) {
+        super(context, cursor, 0);
         mInflater = LayoutInflater.from(context);
-        mNameList = nameList;
-        mPathList = pathList;
-        mTitleList = titleList;
-        mDurationList = durationList;
-        mIdList = idList;
+        mFormatter = formatter;
         mCheckStates = new SparseBooleanArray();
-        mCheckedItemId = new ArrayList<Integer>();
-        mIdPos = new SparseIntArray();
-        mCurPos = curPos;
-        if (mCurPos != -1) {
-            mCheckStates.put(mCurPos, true);
+        if (curId != -1) {
+            mCheckStates.put(curId, true);
         }
     }
 
     /**
-     * The constructor to construct a navigation view adapter
+     * The constructor to construct an edit view adapter
      *
-     * @param context        the context of FileManagerActivity
-     * @param nameList       a list of file names
-     * @param pathList       a list of file path
-     * @param titleList      a list of file title
-     * @param durationList   a list of file duration
-     * @param posCheckedList current checked box list
+     * @param context      the context of RecordingFileList
+     * @param cursor       the recording cursor, see {@link RecordingFileList#queryData()}
+     * @param formatter    formats rows when they are bound
+     * @param checkedIdList ids of the items to check
      */
-    public EditViewAdapter(Context context, List<String> nameList,
-                           List<String> pathList, List<String> titleList,
-                           List<String> durationList, List<Integer> idList, List<Integer> posCheckedList) {
-        mResources = context.getResources();
+    public EditViewAdapter(Context context, Cursor cursor,
+                           RecordingFileList.RowFormatter formatter, List<Integer> checkedIdList) {
+        super(context, cursor, 0);
         mInflater = LayoutInflater.from(context);
-        mNameList = nameList;
-        mPathList = pathList;
-        mTitleList = titleList;
-        mDurationList = durationList;
-        mIdList = idList;
+        mFormatter = formatter;
         mCheckStates = new SparseBooleanArray();
-        mCheckedItemId = new ArrayList<Integer>();
-        mPosCheckedList = posCheckedList;
-        mIdPos = new SparseIntArray();
-        if (mPosCheckedList != null) {
-            for (int i = 0; i < mPosCheckedList.size(); i++) {
-                mCheckStates.put(mPosCheckedList.get(i), true);
+        if (checkedIdList != null) {
+            for (int i = 0; i < checkedIdList.size(); i++) {
+                mCheckStates.put(checkedIdList.get(i), true);
             }
         }
     }
@@ -102,17 +88,18 @@ public class EditViewAdapter extends BaseAdapter {
     }
 
     /**
-     * This method return the list of current checked box
+     * This method return the ids of the checked items
      *
-     * @return current list of checked box
+     * @return current list of checked ids
      */
     protected List<Integer> getCheckedPosList() {
+        List<Integer> checkedItemId = new ArrayList<Integer>();
         for (int i = 0; i < mCheckStates.size(); i++) {
             if (mCheckStates.valueAt(i)) {
-                mCheckedItemId.add(mCheckStates.keyAt(i));
+                checkedItemId.add(mCheckStates.keyAt(i));
             }
         }
-        return mCheckedItemId;
+        return checkedItemId;
     }
 
     /**
@@ -131,22 +118,6 @@ public class EditViewAdapter extends BaseAdapter {
         return count;
     }
 
-    /**
-     * This method gets the list of the checked items
-     *
-     * @return the list of the checked items
-     */
-    protected ArrayList<String> getCheckedItemsList() {
-        ArrayList<String> checkedItemsList = new ArrayList<String>();
-        for (int i = 0; i < mCheckStates.size(); i++) {
-            if (mCheckStates.valueAt(i)) {
-                checkedItemsList.add(mPathList.get(getItemPos(mCheckStates
-                        .keyAt(i))));
-            }
-        }
-        return checkedItemsList;
-    }
-
     /**
      * This method gets the list of the grey out items
      *
@@ -156,99 +127,75 @@ public class EditViewAdapter extends BaseAdapter {
         return mCheckStates;
     }
 
-    /**
-     * This method gets the count of the items in the name list
-     *
-     * @return the number of the items
-     */
     @Override
-    public int getCount() {
-        return mNameList.size();
-    }
-
-    /**
-     * This method gets the name of the item at the specified position
-     *
-     * @param pos the position of item
-     * @return the name of the item
-     */
-    @Override
-    public Object getItem(int pos) {
-        return mNameList.get(pos);
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        View editListItemView = mInflater.inflate(R.layout.edit_adapter, parent, false);
+
+        // construct an item tag
+        EditViewTag editViewTag = new EditViewTag(
+                (TextView) editListItemView
+                        .findViewById(R.id.record_file_name),
+                (CheckBox) editListItemView
+                        .findViewById(R.id.record_file_checkbox),
+                (TextView) editListItemView
+                        .findViewById(R.id.record_file_title),
+                (TextView) editListItemView
+                        .findViewById(R.id.record_file_duration),
+                (WaveformView) editListItemView
+                        .findViewById(R.id.record_file_waveform));
+        editListItemView.setTag(editViewTag);
+        return editListItemView;
     }
 
-    /**
-     * This method gets the item id at the specified position
-     *
-     * @param pos the position of item
-     * @return the id of the item
-     */
     @Override
-    public long getItemId(int pos) {
-        long id = mIdList.get(pos);
-        mIdPos.put((int) id, pos);
-        return id;
-    }
-
-    public int getItemPos(int id) {
-        return mIdPos.get(id);
+    public void bindView(View view, Context context, Cursor cursor) {
+        EditViewTag editViewTag = (EditViewTag) view.getTag();
+        editViewTag.mName.setText(cursor.getString(RecordingFileList.COLUMN_DISPLAY_NAME));
+        editViewTag.mTitle.setText(cursor.getString(RecordingFileList.COLUMN_TITLE));
+        editViewTag.mDuration.setText(
+                mFormatter.formatDuration(cursor.getInt(RecordingFileList.COLUMN_DURATION)));
+        final int id = cursor.getInt(RecordingFileList.COLUMN_ID);
+        editViewTag.mId = id;
+        editViewTag.mCheckBox.setChecked(mCheckStates.get(id));
+        bindPeaks(editViewTag, cursor.getString(RecordingFileList.COLUMN_DATA));
     }
 
-    /**
-     * This method gets the view for each item to be displayed in the list view
-     *
-     * @param pos         the position of the item
-     * @param convertView the view to be shown
-     * @param parent      the parent view
-     * @return the view to be shown
-     */
-    @Override
-    public View getView(int pos, View convertView, ViewGroup parent) {
-        EditViewTag editViewTag;
-        View editListItemView = convertView;
-
-        if (editListItemView == null) {
-            editListItemView = mInflater.inflate(R.layout.edit_adapter, null);
-
-            // construct an item tag
-            editViewTag = new EditViewTag(
-                    (TextView) editListItemView
-                            .findViewById(R.id.record_file_name),
-                    (CheckBox) editListItemView
-                            .findViewById(R.id.record_file_checkbox),
-                    (TextView) editListItemView
-                            .findViewById(R.id.record_file_title),
-                    (TextView) editListItemView
-                            .findViewById(R.id.record_file_duration));
-            editListItemView.setTag(editViewTag);
-        } else {
-            editViewTag = (EditViewTag) editListItemView.getTag();
+    private void bindPeaks(EditViewTag editViewTag, String data) {
+        final int id = editViewTag.mId;
+        WaveformPeaks peaks = mPeaks.get(id);
+        editViewTag.mWaveform.setPeaks(peaks);
+        if (peaks != null || data == null || mNoPeaks.get(id)) {
+            return;
         }
-
-        RelativeLayout.LayoutParams params = null;
-
-        // set name
-        params = (RelativeLayout.LayoutParams) editViewTag.mName
-                .getLayoutParams();
-        editViewTag.mName.setLayoutParams(params);
-        String fileName = mNameList.get(pos);
-        editViewTag.mName.setText(fileName);
-
-        String title = mTitleList.get(pos);
-        editViewTag.mTitle.setText(title);
-
-        String duration = mDurationList.get(pos);
-        editViewTag.mDuration.setText(duration);
-
-        editViewTag.mCheckBox.setChecked(mCheckStates.get((int) getItemId(pos)));
-        return editListItemView;
+        boolean loading = mPendingPeaks.indexOfKey(id) >= 0;
+        mPendingPeaks.put(id, editViewTag);
+        if (loading) {
+            return;
+        }
+        WaveformPeaks.loadAsync(new File(data), new WaveformPeaks.LoadCallback() {
+            public void onPeaksLoaded(WaveformPeaks peaks) {
+                if (peaks != null) {
+                    mPeaks.put(id, peaks);
+                } else {
+                    mNoPeaks.put(id, true);
+                }
+                EditViewTag pending = mPendingPeaks.get(id);
+                mPendingPeaks.remove(id);
+                // The row may have been recycled for another recording meanwhile.
+                if (pending != null && pending.mId == id) {
+                    pending.mWaveform.setPeaks(peaks);
+                }
+            }
+        });
     }
 
     static class EditViewTag {
+        protected int mId = -1;
         protected TextView mName;
         protected CheckBox mCheckBox;
         protected TextView mTitle;
         protected TextView mDuration;
+        protected WaveformView mWaveform;
 
         /**
          * The constructor to construct an edit view tag
@@ -257,13 +204,15 @@ public class EditViewAdapter extends BaseAdapter {
          * @param box      the check box view of the item
          * @param title    the title view of the item
          * @param duration the duration view of the item
+         * @param waveform the waveform view of the item
          */
         public EditViewTag(TextView name, CheckBox box, TextView title,
-                           TextView duration) {
+                           TextView duration, WaveformView waveform) {
             this.mName = name;
             this.mCheckBox = box;
             this.mTitle = title;
             this.mDuration = duration;
+            this.mWaveform = waveform;
         }
     }
-}
\ No newline at end of file
+}
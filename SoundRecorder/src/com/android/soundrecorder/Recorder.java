@@ -27,6 +27,7 @@ import android.media.MediaPlayer.OnCompletionListener;
 import android.media.MediaPlayer.OnErrorListener;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
 import android.util.Log;
 
 import java.text.SimpleDateFormat;
@@ -68,6 +69,23 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
     MediaPlayer mPlayer = null;
     int mSamplingRate = 48000;
 
+    /*
+     * MediaRecorder.getMaxAmplitude() resets on every call, so amplitudes are sampled here at a
+     * fixed rate for the waveform, and the VU meter reads the latest sample.
+     */
+    private final Handler mHandler = new Handler();
+    private final WaveformPeaks.Builder mPeaksBuilder = new WaveformPeaks.Builder();
+    private int mLastAmplitude = 0;
+    private final Runnable mSampleAmplitude = new Runnable() {
+        public void run() {
+            if (mState != RECORDING_STATE || mRecorder == null)
+                return;
+            mLastAmplitude = mRecorder.getMaxAmplitude();
+            mPeaksBuilder.add(mLastAmplitude);
+            mHandler.postDelayed(this, WaveformPeaks.SAMPLE_INTERVAL_MS);
+        }
+    };
+
     public Recorder() {
     }
 
@@ -83,7 +101,7 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
     public int getMaxAmplitude() {
         if (mState != RECORDING_STATE)
             return 0;
-        return mRecorder.getMaxAmplitude();
+        return mLastAmplitude;
     }
 
     public void restoreState(Bundle recorderState) {
@@ -136,8 +154,10 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
     public void delete() {
         stop();
 
-        if (mSampleFile != null)
+        if (mSampleFile != null) {
             mSampleFile.delete();
+            WaveformPeaks.delete(mSampleFile);
+        }
 
         mSampleFile = null;
         mSampleLength = 0;
@@ -258,7 +278,10 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
             return;
         }
         mSampleStart = System.currentTimeMillis();
+        mPeaksBuilder.reset();
+        mLastAmplitude = 0;
         setState(RECORDING_STATE);
+        mHandler.postDelayed(mSampleAmplitude, WaveformPeaks.SAMPLE_INTERVAL_MS);
     }
 
     public void sampleFileDelSuffix() {
@@ -289,11 +312,15 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
         if (mRecorder == null)
             return;
 
+        mHandler.removeCallbacks(mSampleAmplitude);
         mRecorder.stop();
         mRecorder.release();
         mRecorder = null;
 
         mSampleLength = (int) ((System.currentTimeMillis() - mSampleStart) / 1000);
+        // Written under the final name; see WaveformPeaks.sidecarFor().
+        mPeaksBuilder.writeAsync(mSampleFile);
+        mPeaksBuilder.reset();
         setState(IDLE_STATE);
     }
 
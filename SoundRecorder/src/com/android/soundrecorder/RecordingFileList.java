@@ -21,11 +21,11 @@ import android.widget.AdapterView;
 import android.widget.CheckBox;
 import android.widget.ImageButton;
 import android.widget.ListView;
-import android.widget.SimpleAdapter;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 public class RecordingFileList extends Activity implements
@@ -35,12 +35,29 @@ public class RecordingFileList extends Activity implements
     ImageButton mRecordButton;
     ImageButton mDeleteButton;
     View mEmptyView;
-    private ArrayList<HashMap<String, Object>> mArrlist;
-    private ArrayList<String> mNameList;
-    private ArrayList<String> mPathList;
-    private ArrayList<String> mTitleList;
-    private ArrayList<String> mDurationList;
-    private List<Integer> mIdList;
+
+    /**
+     * Recordings currently shown.  Both adapters read rows from this cursor on demand, so only
+     * the current cursor window is held in memory.
+     */
+    private Cursor mCursor;
+    private RowFormatter mRowFormatter;
+
+    static final String[] PROJECTION = new String[]{
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.DISPLAY_NAME,
+            MediaStore.Audio.Media.TITLE};
+    static final int COLUMN_ID = 0;
+    static final int COLUMN_DATA = 1;
+    static final int COLUMN_DURATION = 2;
+    static final int COLUMN_DISPLAY_NAME = 3;
+    static final int COLUMN_TITLE = 4;
+
+    private static final String RECORDING_SELECTION = MediaStore.Audio.Media.IS_MUSIC + " =0 and "
+            + MediaStore.Audio.Media.DATA + " LIKE '" + "%" + "/"
+            + Recorder.RECORD_FOLDER + "%" + "'";
 
     private static final int NORMAL = 1;
     private static final int EDIT = 2;
@@ -54,10 +71,6 @@ public class RecordingFileList extends Activity implements
     private static final String DOWHAT = "dowhat";
     private static final String PATH = "path";
     private static final String DURATION = "duration";
-    private static final String FILE_NAME = "filename";
-    private static final String CREAT_DATE = "creatdate";
-    private static final String FORMAT_DURATION = "formatduration";
-    private static final String RECORD_ID = "recordid";
     private static final String SINGLE = "Single";
     private boolean mActivityForeground = true;
     private List<Integer> mCheckedList;
@@ -69,6 +82,7 @@ public class RecordingFileList extends Activity implements
     public void onCreate(Bundle icycle) {
         super.onCreate(icycle);
         setContentView(R.layout.recording_file_list);
+        mRowFormatter = new RowFormatter(getResources().getString(R.string.timer_format));
         mRecordingFileListView = (ListView) findViewById(R.id.recording_file_list_view);
         mRecordButton = (ImageButton) findViewById(R.id.recordButton);
         mDeleteButton = (ImageButton) findViewById(R.id.deleteButton);
@@ -106,16 +120,14 @@ public class RecordingFileList extends Activity implements
                             }
                         } else {
                             Intent intent = new Intent();
-                            HashMap<String, Object> map =
-                                    (HashMap<String, Object>) mRecordingFileListView
-                                            .getItemAtPosition(arg2);
+                            Cursor cursor = (Cursor) mRecordingFileListView
+                                    .getItemAtPosition(arg2);
                             intent.putExtra(DOWHAT, PLAY);
-                            if (map != null && map.get(PATH) != null) {
-                                intent.putExtra(PATH, map.get(PATH).toString());
+                            if (cursor != null && !cursor.isNull(COLUMN_DATA)) {
+                                intent.putExtra(PATH, cursor.getString(COLUMN_DATA));
                             }
-                            if (map != null && map.get(DURATION) != null) {
-                                intent.putExtra(DURATION, Integer.parseInt(map
-                                        .get(DURATION).toString()));
+                            if (cursor != null && !cursor.isNull(COLUMN_DURATION)) {
+                                intent.putExtra(DURATION, cursor.getInt(COLUMN_DURATION));
                             }
                             intent.setClass(RecordingFileList.this,
                                     SoundRecorder.class);
@@ -131,16 +143,8 @@ public class RecordingFileList extends Activity implements
                     @Override
                     public boolean onItemLongClick(AdapterView<?> arg0,
                                                    View arg1, int arg2, long arg3) {
-                        int id = 0;
-                        if (mCurrentDapterMode == EDIT) {
-                            id = (int) ((EditViewAdapter) mRecordingFileListView
-                                    .getAdapter()).getItemId(arg2);
-                        } else {
-                            HashMap<String, Object> map =
-                                    (HashMap<String, Object>) mRecordingFileListView
-                                            .getItemAtPosition(arg2);
-                            id = (Integer) map.get(RECORD_ID);
-                        }
+                        // Both adapters use the MediaStore _ID as item id.
+                        int id = (int) arg3;
                         if (mCurrentDapterMode == NORMAL) {
                             saveLastSelection();
                             mCurrentDapterMode = EDIT;
@@ -224,63 +228,74 @@ public class RecordingFileList extends Activity implements
     }
 
     /**
-     * query sound recorder recording file data
+     * query sound recorder recording file data.  The cursor is returned open; rows are paged in
+     * through the cursor window as the list scrolls.
      */
-    public ArrayList<HashMap<String, Object>> queryData() {
-        Cursor mRecordingFileCursor = this.getContentResolver().query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                new String[]{MediaStore.Audio.Media.ARTIST,
-                        MediaStore.Audio.Media.ALBUM,
-                        MediaStore.Audio.Media.DATA,
-                        MediaStore.Audio.Media.DURATION,
-                        MediaStore.Audio.Media.DISPLAY_NAME,
-                        MediaStore.Audio.Media.DATE_ADDED,
-                        MediaStore.Audio.Media.TITLE,
-                        MediaStore.Audio.Media._ID},
-                MediaStore.Audio.Media.IS_MUSIC + " =0 and "
-                        + MediaStore.Audio.Media.DATA + " LIKE '" + "%" + "/"
-                        + Recorder.RECORD_FOLDER + "%" + "'", null, null);
+    public Cursor queryData() {
+        Cursor recordingFileCursor = this.getContentResolver().query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, PROJECTION,
+                RECORDING_SELECTION, null, null);
         try {
-            if (mRecordingFileCursor == null
-                    || mRecordingFileCursor.getCount() == 0) {
+            // getCount() also fills the first window off the UI thread.
+            if (recordingFileCursor == null || recordingFileCursor.getCount() == 0) {
+                if (recordingFileCursor != null) {
+                    recordingFileCursor.close();
+                }
                 return null;
             }
-            mRecordingFileCursor.moveToFirst();
-            mArrlist = new ArrayList<HashMap<String, Object>>();
-            mNameList = new ArrayList<String>();
-            mPathList = new ArrayList<String>();
-            mTitleList = new ArrayList<String>();
-            mDurationList = new ArrayList<String>();
-            mIdList = new ArrayList<Integer>();
-            int num = mRecordingFileCursor.getCount();
-            for (int j = 0; j < num; j++) {
-                HashMap<String, Object> map = new HashMap<String, Object>();
-                map.put(FILE_NAME, mRecordingFileCursor.getString(4));
-                map.put(PATH, mRecordingFileCursor.getString(2));
-                map.put(DURATION, mRecordingFileCursor.getInt(3));
-                map.put(CREAT_DATE, mRecordingFileCursor.getString(6));
-                map.put(FORMAT_DURATION,
-                        formatDuration(mRecordingFileCursor.getInt(3)));
-                map.put(RECORD_ID,
-                        mRecordingFileCursor.getInt(7));
-
-                mNameList.add(mRecordingFileCursor.getString(4));
-                mPathList.add(mRecordingFileCursor.getString(2));
-                mTitleList.add(mRecordingFileCursor.getString(6));
-                mDurationList
-                        .add(formatDuration(mRecordingFileCursor.getInt(3)));
-                mIdList.add(mRecordingFileCursor.getInt(7));
-                mRecordingFileCursor.moveToNext();
-                mArrlist.add(map);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+            recordingFileCursor.close();
+            return null;
+        }
+        return recordingFileCursor;
+    }
+
+    /**
+     * Keeps only the ids in {@code list} which still exist in the media database.
+     */
+    private void retainExistingIds(List<Integer> list) {
+        if (list.isEmpty()) {
+            return;
+        }
+        Cursor cursor = query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Audio.Media._ID},
+                RECORDING_SELECTION + " and " + buildIdSelection(list), null, null);
+        List<Integer> existing = new ArrayList<Integer>();
+        try {
+            while (cursor != null && cursor.moveToNext()) {
+                existing.add(cursor.getInt(0));
             }
         } catch (IllegalStateException e) {
             e.printStackTrace();
         } finally {
-            if (mRecordingFileCursor != null) {
-                mRecordingFileCursor.close();
+            if (cursor != null) {
+                cursor.close();
             }
         }
-        return mArrlist;
+        list.retainAll(existing);
+    }
+
+    private static String buildIdSelection(List<Integer> ids) {
+        StringBuilder sb = new StringBuilder(MediaStore.Audio.Media._ID).append(" IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(ids.get(i).intValue());
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Replaces the displayed cursor, closing the previous one.
+     */
+    private void changeCursor(Cursor cursor) {
+        Cursor old = mCursor;
+        mCursor = cursor;
+        if (old != null && old != cursor) {
+            old.close();
+        }
     }
 
     /**
@@ -291,7 +306,6 @@ public class RecordingFileList extends Activity implements
             mCurrentDapterMode = NORMAL;
             swicthAdapterView(-1);
         } else {
-            list.retainAll(mIdList);
             if (list.size() == 0) {
                 removeDialog(ALERT_DELETE_DIALOG);
                 mCurrentDapterMode = NORMAL;
@@ -299,8 +313,7 @@ public class RecordingFileList extends Activity implements
             } else {
                 mCurrentDapterMode = EDIT;
                 EditViewAdapter adapter = new EditViewAdapter(
-                        getApplicationContext(), mNameList, mPathList, mTitleList,
-                        mDurationList, mIdList, list);
+                        getApplicationContext(), mCursor, mRowFormatter, list);
                 mRecordingFileListView.setAdapter(adapter);
                 mDeleteButton.setVisibility(View.VISIBLE);
                 mRecordButton.setVisibility(View.GONE);
@@ -310,12 +323,31 @@ public class RecordingFileList extends Activity implements
     }
 
     /**
-     * format duartion to display as 00:00
+     * Formats list rows when they are bound, rather than for every row up front.
      */
-    public String formatDuration(int duration) {
-        String mTimerFormat = getResources().getString(R.string.timer_format);
-        int time = duration / 1000;
-        return String.format(mTimerFormat, time / 60, time % 60);
+    static class RowFormatter implements SimpleCursorAdapter.ViewBinder {
+        private final String mTimerFormat;
+
+        RowFormatter(String timerFormat) {
+            mTimerFormat = timerFormat;
+        }
+
+        /**
+         * format duartion to display as 00:00
+         */
+        String formatDuration(int duration) {
+            int time = duration / 1000;
+            return String.format(mTimerFormat, time / 60, time % 60);
+        }
+
+        @Override
+        public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+            if (columnIndex == COLUMN_DURATION) {
+                ((TextView) view).setText(formatDuration(cursor.getInt(columnIndex)));
+                return true;
+            }
+            return false;
+        }
     }
 
     @Override
@@ -352,17 +384,18 @@ public class RecordingFileList extends Activity implements
      */
     public void swicthAdapterView(int pos) {
         if (mCurrentDapterMode == NORMAL) {
-            SimpleAdapter adapter = new SimpleAdapter(this, mArrlist,
-                    R.layout.navigation_adapter, new String[]{FILE_NAME,
-                    CREAT_DATE, FORMAT_DURATION}, new int[]{
+            SimpleCursorAdapter adapter = new SimpleCursorAdapter(this,
+                    R.layout.navigation_adapter, mCursor, new String[]{
+                    MediaStore.Audio.Media.DISPLAY_NAME, MediaStore.Audio.Media.TITLE,
+                    MediaStore.Audio.Media.DURATION}, new int[]{
                     R.id.record_file_name, R.id.record_file_title,
-                    R.id.record_file_duration});
+                    R.id.record_file_duration}, 0);
+            adapter.setViewBinder(mRowFormatter);
             mRecordingFileListView.setAdapter(adapter);
             mDeleteButton.setVisibility(View.GONE);
             mRecordButton.setVisibility(View.VISIBLE);
         } else {
-            EditViewAdapter adapter = new EditViewAdapter(this, mNameList,
-                    mPathList, mTitleList, mDurationList, mIdList, pos);
+            EditViewAdapter adapter = new EditViewAdapter(this, mCursor, mRowFormatter, pos);
             mRecordingFileListView.setAdapter(adapter);
             mDeleteButton.setVisibility(View.VISIBLE);
             mRecordButton.setVisibility(View.GONE);
@@ -371,27 +404,46 @@ public class RecordingFileList extends Activity implements
     }
 
     /**
-     * The method gets the selected items and create a list of File objects
+     * The method gets the ids of the selected items; must be called on the UI thread.
+     *
+     * @return a list of MediaStore ids
+     */
+    protected List<Integer> getSelectedIds() {
+        if (EDIT != mCurrentDapterMode
+                || ((EditViewAdapter) mRecordingFileListView.getAdapter()) == null) {
+            return new ArrayList<Integer>();
+        }
+        return ((EditViewAdapter) mRecordingFileListView.getAdapter()).getCheckedPosList();
+    }
+
+    /**
+     * The method resolves the selected items and create a list of File objects
      *
+     * @param ids the ids returned by {@link #getSelectedIds()}
      * @return a list of File objects
      */
-    protected List<File> getSelectedFiles() {
+    protected List<File> getSelectedFiles(List<Integer> ids) {
         List<File> list = new ArrayList<File>();
-        if (EDIT != mCurrentDapterMode) {
+        if (ids.isEmpty()) {
             return list;
         }
-        if (((EditViewAdapter) mRecordingFileListView.getAdapter()) != null) {
-            List<String> checkedList = ((EditViewAdapter) mRecordingFileListView
-                    .getAdapter()).getCheckedItemsList();
-
-            for (int i = 0; i < checkedList.size(); i++) {
-                File file = new File(checkedList.get(i));
+        Cursor cursor = query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Audio.Media.DATA}, buildIdSelection(ids), null, null);
+        try {
+            while (cursor != null && cursor.moveToNext()) {
+                File file = new File(cursor.getString(0));
                 if (file.exists()) {
-                    list.add(new File(checkedList.get(i)));
+                    list.add(file);
                 } else {
                     deleteFromMediaDB(file);
                 }
             }
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
         return list;
     }
@@ -533,6 +585,7 @@ public class RecordingFileList extends Activity implements
         private final ProgressDialog mDialog = new ProgressDialog(
                 RecordingFileList.this);
         Resources mResources = RecordingFileList.this.getResources();
+        List<Integer> mSelectedIds;
 
         /**
          * A callback method to be invoked before the background thread starts
@@ -544,6 +597,7 @@ public class RecordingFileList extends Activity implements
             mDialog.setMessage(mResources.getString(R.string.deleting));
             mDialog.setCancelable(false);
             mDialog.show();
+            mSelectedIds = getSelectedIds();
         }
 
         /**
@@ -556,11 +610,12 @@ public class RecordingFileList extends Activity implements
         @Override
         protected Void doInBackground(Void... params) {
             // delete files
-            List<File> list = getSelectedFiles();
+            List<File> list = getSelectedFiles(mSelectedIds);
             for (int i = 0; i < list.size(); i++) {
                 if (!list.get(i).delete()) {
 
                 }
+                WaveformPeaks.delete(list.get(i));
                 deleteFromMediaDB(list.get(i));
             }
             return null;
@@ -601,7 +656,7 @@ public class RecordingFileList extends Activity implements
     /**
      * through AsyncTask to query recording file data from database
      */
-    public class QueryDataTask extends AsyncTask<Void, Object, ArrayList<HashMap<String, Object>>> {
+    public class QueryDataTask extends AsyncTask<Void, Object, Cursor> {
         List<Integer> mList;
 
         QueryDataTask(List<Integer> list) {
@@ -611,23 +666,32 @@ public class RecordingFileList extends Activity implements
         /**
          * query data from database
          */
-        protected ArrayList<HashMap<String, Object>> doInBackground(Void... params) {
-            return queryData();
+        protected Cursor doInBackground(Void... params) {
+            Cursor cursor = queryData();
+            if (cursor != null && mList != null) {
+                retainExistingIds(mList);
+            }
+            return cursor;
         }
 
         /**
          * update ui
          */
-        protected void onPostExecute(ArrayList<HashMap<String, Object>> result) {
-            if (mActivityForeground) {
-                if (result == null) {
-                    removeDialog(ALERT_DELETE_DIALOG);
-                    mRecordingFileListView.setEmptyView(mEmptyView);
-                    mDeleteButton.setVisibility(View.GONE);
-                    mRecordButton.setVisibility(View.VISIBLE);
-                } else {
-                    afterQuery(mList);
+        protected void onPostExecute(Cursor result) {
+            if (!mActivityForeground || isDestroyed()) {
+                if (result != null) {
+                    result.close();
                 }
+                return;
+            }
+            changeCursor(result);
+            if (result == null) {
+                removeDialog(ALERT_DELETE_DIALOG);
+                mRecordingFileListView.setEmptyView(mEmptyView);
+                mDeleteButton.setVisibility(View.GONE);
+                mRecordButton.setVisibility(View.VISIBLE);
+            } else {
+                afterQuery(mList);
             }
         }
     }
@@ -650,6 +714,8 @@ public class RecordingFileList extends Activity implements
             unregisterReceiver(mSDCardMountEventReceiver);
             mSDCardMountEventReceiver = null;
         }
+        mRecordingFileListView.setAdapter(null);
+        changeCursor(null);
         super.onDestroy();
     }
 
@@ -292,6 +292,8 @@ public class SoundRecorder extends Activity
     Button mAcceptButtonSD;
     Button mDiscardButton;
     VUMeter mVUMeter;
+    WaveformView mWaveformView;
+    private int mWaveformRequest;
     private BroadcastReceiver mSDCardMountEventReceiver = null;
 
     private Menu mMenu;
@@ -662,6 +664,7 @@ public class SoundRecorder extends Activity
         mAcceptButton = (Button) findViewById(R.id.acceptButton);
         mDiscardButton = (Button) findViewById(R.id.discardButton);
         mVUMeter = (VUMeter) findViewById(R.id.uvMeter);
+        mWaveformView = (WaveformView) findViewById(R.id.waveformView);
 
 
         mRecordButton.setOnClickListener(this);
@@ -1247,6 +1250,7 @@ public class SoundRecorder extends Activity
 
         if (state == Recorder.PLAYING_STATE) {
             mStateProgressBar.setProgress((int) (100 * time / mRecorder.sampleLength()));
+            mWaveformView.setProgress((float) time / mRecorder.sampleLength());
         } else if (state == Recorder.RECORDING_STATE) {
             updateTimeRemaining();
         }
@@ -1334,6 +1338,7 @@ public class SoundRecorder extends Activity
 
                     mExitButtons.setVisibility(View.INVISIBLE);
                     mVUMeter.setVisibility(View.VISIBLE);
+                    showWaveform(false);
 
                     mStateProgressBar.setVisibility(View.INVISIBLE);
 
@@ -1356,6 +1361,8 @@ public class SoundRecorder extends Activity
                         mExitButtons.setVisibility(View.INVISIBLE);
                     }
                     mVUMeter.setVisibility(View.INVISIBLE);
+                    showWaveform(true);
+                    mWaveformView.setProgress(-1);
 
                     mStateProgressBar.setVisibility(View.INVISIBLE);
 
@@ -1393,6 +1400,7 @@ public class SoundRecorder extends Activity
 
                 mExitButtons.setVisibility(View.INVISIBLE);
                 mVUMeter.setVisibility(View.VISIBLE);
+                showWaveform(false);
 
                 mStateProgressBar.setVisibility(View.INVISIBLE);
 
@@ -1419,6 +1427,7 @@ public class SoundRecorder extends Activity
                     mExitButtons.setVisibility(View.INVISIBLE);
                 }
                 mVUMeter.setVisibility(View.INVISIBLE);
+                showWaveform(true);
 
                 mStateProgressBar.setVisibility(View.VISIBLE);
 
@@ -1431,6 +1440,31 @@ public class SoundRecorder extends Activity
         mVUMeter.invalidate();
     }
 
+    /**
+     * Shows the waveform of the current sample in place of the VU meter, if it has a peak file.
+     */
+    private void showWaveform(boolean show) {
+        // Drops the result of a load still running for an earlier call.
+        final int request = ++mWaveformRequest;
+        final File sampleFile = show ? mRecorder.sampleFile() : null;
+        if (sampleFile == null) {
+            setWaveformPeaks(null);
+            return;
+        }
+        WaveformPeaks.loadAsync(sampleFile, new WaveformPeaks.LoadCallback() {
+            public void onPeaksLoaded(WaveformPeaks peaks) {
+                if (request == mWaveformRequest) {
+                    setWaveformPeaks(peaks);
+                }
+            }
+        });
+    }
+
+    private void setWaveformPeaks(WaveformPeaks peaks) {
+        mWaveformView.setPeaks(peaks);
+        mWaveformView.setVisibility(peaks != null ? View.VISIBLE : View.INVISIBLE);
+    }
+
     /*
      * Called when Recorder changed it's state.
      */
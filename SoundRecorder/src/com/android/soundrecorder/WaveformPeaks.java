@@ -0,0 +1,334 @@
+package com.android.soundrecorder;
+
+import android.os.AsyncTask;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Multi-resolution amplitude summary of a recording, stored as a hidden sidecar file next to it
+ * (".&lt;name&gt;.peaks").
+ *
+ * <p>Level 0 holds one max amplitude per {@link #SAMPLE_INTERVAL_MS}; every further level merges
+ * {@link #FANOUT} buckets of the level below, down to at most {@link #MIN_LEVEL_BUCKETS}.  Each
+ * bucket is a (peak, rms) pair of unsigned 16 bit values.  The file is memory-mapped when read,
+ * so drawing picks a level close to the view width and costs the same for any recording length.
+ *
+ * <p>File layout (big endian): magic, version, sample interval, level count, then per level its
+ * bucket count, then the buckets of all levels in order.
+ *
+ * <p>Sidecars are written and mapped on {@link AsyncTask#SERIAL_EXECUTOR}, so a load requested
+ * after a write sees the written file.
+ */
+public class WaveformPeaks {
+    private static final String TAG = "SoundRecorder/WaveformPeaks";
+
+    public static final int SAMPLE_INTERVAL_MS = 50;
+
+    private static final int MAGIC = 0x5352504b; // "SRPK"
+    private static final int VERSION = 1;
+    private static final int FANOUT = 4;
+    private static final int MIN_LEVEL_BUCKETS = 64;
+    // Enough for Integer.MAX_VALUE buckets at level 0.
+    private static final int MAX_LEVELS = 16;
+    private static final String SIDECAR_SUFFIX = ".peaks";
+
+    private static final LruCache<String, WaveformPeaks> sCache =
+            new LruCache<String, WaveformPeaks>(32);
+
+    /**
+     * Receives the result of {@link #loadAsync}.
+     */
+    public interface LoadCallback {
+        /**
+         * Called on the main thread.
+         *
+         * @param peaks the peaks, or null if there is no valid sidecar.
+         */
+        void onPeaksLoaded(WaveformPeaks peaks);
+    }
+
+    private final int[] mLevelCounts;
+    private final int[] mLevelOffsets;
+    private final ShortBuffer mBuckets;
+    private final int mIntervalMs;
+
+    private WaveformPeaks(int intervalMs, int[] levelCounts, ShortBuffer buckets) {
+        mIntervalMs = intervalMs;
+        mLevelCounts = levelCounts;
+        mLevelOffsets = new int[levelCounts.length];
+        int offset = 0;
+        for (int i = 0; i < levelCounts.length; i++) {
+            mLevelOffsets[i] = offset;
+            offset += levelCounts[i] * 2;
+        }
+        mBuckets = buckets;
+    }
+
+    /**
+     * @return the sidecar file of {@code audioFile}.  A ".tmp" suffix is ignored, so the sidecar
+     *         written while recording stays valid after the recording is renamed.
+     */
+    public static File sidecarFor(File audioFile) {
+        String name = audioFile.getName();
+        if (name.endsWith(Recorder.TEMP_SUFFIX)) {
+            name = name.substring(0, name.length() - Recorder.TEMP_SUFFIX.length());
+        }
+        return new File(audioFile.getParentFile(), "." + name + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Maps the sidecar of {@code audioFile} in the background and hands the result to
+     * {@code callback}.
+     */
+    public static void loadAsync(final File audioFile, final LoadCallback callback) {
+        new AsyncTask<Void, Void, WaveformPeaks>() {
+            @Override
+            protected WaveformPeaks doInBackground(Void... params) {
+                return load(audioFile);
+            }
+
+            @Override
+            protected void onPostExecute(WaveformPeaks peaks) {
+                callback.onPeaksLoaded(peaks);
+            }
+        }.execute();
+    }
+
+    /**
+     * Maps the sidecar of {@code audioFile}.  Does file I/O, don't call it on the main thread.
+     *
+     * @return the peaks, or null if there is no valid sidecar.
+     */
+    public static WaveformPeaks load(File audioFile) {
+        if (audioFile == null) {
+            return null;
+        }
+        final File sidecar = sidecarFor(audioFile);
+        final String key = sidecar.getAbsolutePath() + ":" + sidecar.lastModified();
+        WaveformPeaks peaks = sCache.get(key);
+        if (peaks != null || !sidecar.exists()) {
+            return peaks;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(sidecar, "r");
+            MappedByteBuffer map = file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, file.length());
+            map.order(ByteOrder.BIG_ENDIAN);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                Log.w(TAG, "ignoring unknown peak file " + sidecar);
+                return null;
+            }
+            int intervalMs = map.getInt();
+            int levels = map.getInt();
+            if (intervalMs <= 0 || levels < 1 || levels > MAX_LEVELS
+                    || map.remaining() < levels * 4) {
+                Log.w(TAG, "deleting corrupt peak file " + sidecar);
+                sidecar.delete();
+                return null;
+            }
+            int[] counts = new int[levels];
+            long total = 0;
+            for (int i = 0; i < levels; i++) {
+                counts[i] = map.getInt();
+                if (counts[i] < 0) {
+                    Log.w(TAG, "deleting corrupt peak file " + sidecar);
+                    sidecar.delete();
+                    return null;
+                }
+                total += counts[i] * 2L;
+            }
+            // Two shorts per bucket.
+            if (map.remaining() < total * 2) {
+                Log.w(TAG, "deleting truncated peak file " + sidecar);
+                sidecar.delete();
+                return null;
+            }
+            peaks = new WaveformPeaks(intervalMs, counts, map.slice().asShortBuffer());
+            sCache.put(key, peaks);
+            return peaks;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to map " + sidecar, e);
+            return null;
+        } catch (RuntimeException e) {
+            // Whatever slipped through the checks above, it won't get better on the next try.
+            Log.w(TAG, "deleting unreadable peak file " + sidecar, e);
+            sidecar.delete();
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    // The mapping stays valid after the file is closed.
+                    file.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    public static void delete(File audioFile) {
+        if (audioFile != null && !sidecarFor(audioFile).delete()) {
+            Log.i(TAG, "no peak file to delete for " + audioFile);
+        }
+    }
+
+    /** @return the duration covered by the peaks, in milliseconds. */
+    public long durationMs() {
+        return (long) mLevelCounts[0] * mIntervalMs;
+    }
+
+    /**
+     * @return the coarsest level with at least {@code buckets} buckets, or level 0 if none has.
+     */
+    public int levelFor(int buckets) {
+        for (int level = mLevelCounts.length - 1; level > 0; level--) {
+            if (mLevelCounts[level] >= buckets) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    public int bucketCount(int level) {
+        return mLevelCounts[level];
+    }
+
+    /** @return the peak of a bucket, in [0, 32767]. */
+    public int peak(int level, int bucket) {
+        return mBuckets.get(mLevelOffsets[level] + bucket * 2) & 0xffff;
+    }
+
+    /** @return the rms of a bucket, in [0, 32767]. */
+    public int rms(int level, int bucket) {
+        return mBuckets.get(mLevelOffsets[level] + bucket * 2 + 1) & 0xffff;
+    }
+
+    /**
+     * Collects amplitudes while recording and writes the sidecar when done.  Not thread safe.
+     */
+    public static class Builder {
+        private short[] mSamples = new short[1024];
+        private int mCount;
+
+        public void add(int amplitude) {
+            if (mCount == mSamples.length) {
+                mSamples = Arrays.copyOf(mSamples, mCount * 2);
+            }
+            mSamples[mCount++] = (short) Math.max(0, Math.min(32767, amplitude));
+        }
+
+        public void reset() {
+            mCount = 0;
+        }
+
+        /**
+         * Writes the sidecar of {@code audioFile} in the background.  The builder can be reset
+         * right away, the samples collected so far are copied.
+         */
+        public void writeAsync(final File audioFile) {
+            if (mCount == 0) {
+                return;
+            }
+            final short[] samples = Arrays.copyOf(mSamples, mCount);
+            AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    write(samples, sidecarFor(audioFile));
+                }
+            });
+        }
+
+        private static void write(short[] samples, File sidecar) {
+            final File temp = new File(sidecar.getPath() + Recorder.TEMP_SUFFIX);
+            // Level 0: peak == rms == the sampled max amplitude.
+            int[] peaks = new int[samples.length];
+            long[] squares = new long[samples.length];
+            int[] weights = new int[samples.length];
+            for (int i = 0; i < samples.length; i++) {
+                peaks[i] = samples[i];
+                squares[i] = (long) samples[i] * samples[i];
+                weights[i] = 1;
+            }
+
+            DataOutputStream out = null;
+            try {
+                ArrayList<int[]> levels = new ArrayList<int[]>();
+                int count = samples.length;
+                while (true) {
+                    int[] level = new int[count * 2];
+                    for (int i = 0; i < count; i++) {
+                        level[i * 2] = peaks[i];
+                        level[i * 2 + 1] = (int) Math.sqrt((double) squares[i] / weights[i]);
+                    }
+                    levels.add(level);
+                    if (count <= MIN_LEVEL_BUCKETS) {
+                        break;
+                    }
+                    // Merge FANOUT buckets into one, in place.
+                    int next = (count + FANOUT - 1) / FANOUT;
+                    for (int i = 0; i < next; i++) {
+                        int peak = 0;
+                        long square = 0;
+                        int weight = 0;
+                        for (int j = i * FANOUT; j < Math.min(count, (i + 1) * FANOUT); j++) {
+                            peak = Math.max(peak, peaks[j]);
+                            square += squares[j];
+                            weight += weights[j];
+                        }
+                        peaks[i] = peak;
+                        squares[i] = square;
+                        weights[i] = weight;
+                    }
+                    count = next;
+                }
+
+                // Written next to it and renamed, so a process killed while writing doesn't leave
+                // a truncated sidecar behind.
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(temp)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(SAMPLE_INTERVAL_MS);
+                out.writeInt(levels.size());
+                for (int[] level : levels) {
+                    out.writeInt(level.length / 2);
+                }
+                for (int[] level : levels) {
+                    for (int value : level) {
+                        out.writeShort(value);
+                    }
+                }
+                out.close();
+                out = null;
+                if (!temp.renameTo(sidecar)) {
+                    Log.w(TAG, "failed to rename " + temp + " to " + sidecar);
+                    temp.delete();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "failed to write " + sidecar, e);
+                temp.delete();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+}
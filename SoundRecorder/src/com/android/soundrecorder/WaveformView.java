@@ -0,0 +1,82 @@
+package com.android.soundrecorder;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws the waveform of a recording from its {@link WaveformPeaks}.  One bucket is read per
+ * pixel column from the level closest to the view width, so drawing does not depend on the
+ * recording length.
+ */
+public class WaveformView extends View {
+    private final Paint mPeakPaint = new Paint();
+    private final Paint mRmsPaint = new Paint();
+    private final Paint mProgressPaint = new Paint();
+
+    private WaveformPeaks mPeaks;
+    private float mProgress = -1;
+
+    public WaveformView(Context context) {
+        super(context);
+        init();
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        mPeakPaint.setColor(Color.argb(128, 255, 255, 255));
+        mRmsPaint.setColor(Color.WHITE);
+        mProgressPaint.setColor(Color.RED);
+    }
+
+    public void setPeaks(WaveformPeaks peaks) {
+        if (mPeaks != peaks) {
+            mPeaks = peaks;
+            invalidate();
+        }
+    }
+
+    /**
+     * @param progress playback position in [0, 1], or a negative value to hide the marker.
+     */
+    public void setProgress(float progress) {
+        if (mProgress != progress) {
+            mProgress = progress;
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        final WaveformPeaks peaks = mPeaks;
+        final int width = getWidth();
+        if (peaks == null || width == 0) {
+            return;
+        }
+
+        final float mid = getHeight() / 2f;
+        final float scale = mid / 32768f;
+        final int level = peaks.levelFor(width);
+        final int buckets = peaks.bucketCount(level);
+        for (int x = 0; x < width; x++) {
+            final int bucket = (int) ((long) x * buckets / width);
+            final float peak = peaks.peak(level, bucket) * scale;
+            final float rms = peaks.rms(level, bucket) * scale;
+            canvas.drawLine(x, mid - peak, x, mid + peak, mPeakPaint);
+            canvas.drawLine(x, mid - rms, x, mid + rms, mRmsPaint);
+        }
+
+        if (mProgress >= 0) {
+            final float x = Math.min(1f, mProgress) * (width - 1);
+            canvas.drawLine(x, 0, x, getHeight(), mProgressPaint);
+        }
+    }
+}
@@ -70,7 +70,9 @@ import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.SubscriptionManager.OnSubscriptionsChangedListener;
 import android.telephony.TelephonyManager;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 
@@ -98,6 +100,7 @@ import java.util.List;
 import java.util.Map.Entry;
 //M: ALPS02843533 fix index out of bounds exception
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Watches for updates that may be interesting to the keyguard, and provides
@@ -193,8 +196,10 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     private static KeyguardUpdateMonitor sInstance;
 
     private final Context mContext;
-    HashMap<Integer, SimData> mSimDatas = new HashMap<Integer, SimData>();
-    HashMap<Integer, ServiceState> mServiceStates = new HashMap<Integer, ServiceState>();
+    SparseArray<SimData> mSimDatas = new SparseArray<>();
+    SparseArray<ServiceState> mServiceStates = new SparseArray<>();
+    // Latest service state per subId which hasn't been handled yet, see handleServiceStateChange.
+    private final SparseArray<ServiceState> mPendingServiceStates = new SparseArray<>();
 
     private int mRingMode;
     private int mPhoneState;
@@ -229,7 +234,9 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     private boolean mDeviceInteractive;
     private boolean mScreenOn;
     private SubscriptionManager mSubscriptionManager;
-    private List<SubscriptionInfo> mSubscriptionInfo;
+    // Latest active subscriptions, and the ones the callbacks were last notified about
+    private SubscriptionSnapshot mSubscriptions = SubscriptionSnapshot.EMPTY;
+    private SubscriptionSnapshot mNotifiedSubscriptions = SubscriptionSnapshot.EMPTY;
     private TrustManager mTrustManager;
     private UserManager mUserManager;
     private int mFingerprintRunningState = FINGERPRINT_STATE_STOPPED;
@@ -249,6 +256,19 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     private static final int HW_UNAVAILABLE_TIMEOUT = 3000; // ms
     private static final int HW_UNAVAILABLE_RETRY_MAX = 3;
 
+    // Timing every callback costs two clock reads and a lookup per callback, so only when debugging
+    private static final boolean DEBUG_DISPATCH = DEBUG;
+
+    // Indices into the per callback class entries of mDispatchStats
+    private static final int DISPATCH_STATS_COUNT = 0;
+    private static final int DISPATCH_STATS_TOTAL = 1;
+    private static final int DISPATCH_STATS_MAX = 2;
+    private static final int DISPATCH_STATS_SIZE = 3;
+
+    // Number of dispatches, total and max time in ns spent in the callbacks of each class. Only
+    // written from dispatch(), which runs on the main thread.
+    private final ArrayMap<Class<?>, long[]> mDispatchStats = new ArrayMap<>();
+
     // M: modify for mock
     @VisibleForTesting
     final Handler mHandler = new Handler() {
@@ -322,7 +342,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
                     handleAirplaneModeChanged();
                     break;
                 case MSG_SERVICE_STATE_CHANGE:
-                    handleServiceStateChange(msg.arg1, (ServiceState) msg.obj);
+                    handleServiceStateChange();
                     break;
                 ///M: support airplan mode
                 case MSG_AIRPLANE_MODE_UPDATE:
@@ -382,34 +402,39 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     @Override
     public void onTrustChanged(boolean enabled, int userId, int flags) {
         mUserHasTrust.put(userId, enabled);
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onTrustChanged(userId);
-                if (enabled && flags != 0) {
-                    cb.onTrustGrantedWithFlags(flags, userId);
-                }
+        dispatch(cb -> {
+            cb.onTrustChanged(userId);
+            if (enabled && flags != 0) {
+                cb.onTrustGrantedWithFlags(flags, userId);
             }
-        }
+        });
     }
 
     protected void handleSimSubscriptionInfoChanged() {
+        getSubscriptionInfo(true /* forceReload */);
+        final SubscriptionSnapshot snapshot = mSubscriptions;
         if (DEBUG_SIM_STATES) {
-            Log.v(TAG, "onSubscriptionInfoChanged()");
-            List<SubscriptionInfo> sil = mSubscriptionManager.getActiveSubscriptionInfoList();
-            if (sil != null) {
-                for (SubscriptionInfo subInfo : sil) {
-                    Log.v(TAG, "SubInfo:" + subInfo);
-                }
-            } else {
-                Log.v(TAG, "onSubscriptionInfoChanged: list is null");
+            Log.v(TAG, "onSubscriptionInfoChanged() version=" + snapshot.getVersion());
+            for (SubscriptionInfo subInfo : snapshot.getSubscriptions()) {
+                Log.v(TAG, "SubInfo:" + subInfo);
             }
         }
-        List<SubscriptionInfo> subscriptionInfos = getSubscriptionInfo(true /* forceReload */);
+        if (snapshot == mNotifiedSubscriptions) {
+            // Telephony reports subscription changes repeatedly while the SIMs are loading and
+            // when the network flaps; SIM state changes are delivered by their own broadcast.
+            if (DEBUG_SIM_STATES) Log.v(TAG, "onSubscriptionInfoChanged: unchanged");
+            return;
+        }
+        final List<SubscriptionInfo> subscriptionInfos =
+                snapshot.getChangedSince(mNotifiedSubscriptions);
+        mNotifiedSubscriptions = snapshot;
 
         // Hack level over 9000: Because the subscription id is not yet valid when we see the
-        // first update in handleSimStateChange, we need to force refresh all all SIM states
-        // so the subscription id for them is consistent.
+        // first update in handleSimStateChange, the SIM states have to be refreshed once the
+        // subscriptions are known so the subscription id for them is consistent. Only the
+        // subscriptions which are new or changed since the last notification are refreshed: the
+        // others were refreshed with the same subscription id and slot back then, and their SIM
+        // state changes since are delivered by handleSimStateChange.
         ArrayList<SubscriptionInfo> changedSubscriptions = new ArrayList<>();
         for (int i = 0; i < subscriptionInfos.size(); i++) {
             SubscriptionInfo info = subscriptionInfos.get(i);
@@ -426,62 +451,37 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
             Log.d(TAG, "handleSimSubscriptionInfoChanged() - call callbacks for subId = " + subId +
                 " & phoneId = " + phoneId) ;
 
-            for (int j = 0; j < mCallbacks.size(); j++) {
-                KeyguardUpdateMonitorCallback cb = mCallbacks.get(j).get();
-                if (cb != null) {
-                    //M: Keyguard Telephony
-                    //cb.onSimStateChanged(data.subId, data.slotId, data.simState);
-                    cb.onSimStateChangedUsingPhoneId(phoneId, mSimStateOfPhoneId.get(phoneId));
-                }
-            }
-        }
-        for (int j = 0; j < mCallbacks.size(); j++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(j).get();
-            if (cb != null) {
-                cb.onRefreshCarrierInfo();
-            }
+            //M: Keyguard Telephony
+            //cb.onSimStateChanged(data.subId, data.slotId, data.simState);
+            dispatch(cb -> cb.onSimStateChangedUsingPhoneId(phoneId,
+                    mSimStateOfPhoneId.get(phoneId)));
         }
+        dispatch(cb -> cb.onRefreshCarrierInfo());
     }
 
     private void handleAirplaneModeChanged() {
-        for (int j = 0; j < mCallbacks.size(); j++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(j).get();
-            if (cb != null) {
-                cb.onRefreshCarrierInfo();
-            }
-        }
+        dispatch(cb -> cb.onRefreshCarrierInfo());
     }
 
     /** @return List of SubscriptionInfo records, maybe empty but never null */
     public List<SubscriptionInfo> getSubscriptionInfo(boolean forceReload) {
-        List<SubscriptionInfo> sil = mSubscriptionInfo;
         ///M: Keyguard Telephony, fix ALPS01963966, we should force reload sub list for hot-plug
         /// sim device. since we may insert the sim card later and the sub list is not null
         /// and cannot fetch the latest/updated active sub list.
-        if (sil == null || forceReload ||
-            ((sil != null) && (sil.size() == 0))
-        ) {
-            sil = mSubscriptionManager.getActiveSubscriptionInfoList();
-        }
-        if (sil == null) {
-            // getActiveSubscriptionInfoList was null callers expect an empty list.
-            mSubscriptionInfo = new ArrayList<SubscriptionInfo>();
-        } else {
-            mSubscriptionInfo = sil;
+        if (forceReload || mSubscriptions.getSubscriptions().size() == 0) {
+            // The snapshot is kept if the content didn't change, so its version only moves
+            // when there is something new to tell the callbacks about.
+            mSubscriptions = mSubscriptions.update(
+                    mSubscriptionManager.getActiveSubscriptionInfoList());
         }
-        return mSubscriptionInfo;
+        return mSubscriptions.getSubscriptions();
     }
 
     @Override
     public void onTrustManagedChanged(boolean managed, int userId) {
         mUserTrustIsManaged.put(userId, managed);
 
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onTrustManagedChanged(userId);
-            }
-        }
+        dispatch(cb -> cb.onTrustManagedChanged(userId));
     }
 
     /**
@@ -530,12 +530,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
         }
         // Don't send cancel if authentication succeeds
         mFingerprintCancelSignal = null;
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onFingerprintAuthenticated(userId);
-            }
-        }
+        dispatch(cb -> cb.onFingerprintAuthenticated(userId));
 
         mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_FINGERPRINT_AUTHENTICATION_CONTINUE),
                 FINGERPRINT_CONTINUE_DELAY_MS);
@@ -547,12 +542,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     }
 
     private void handleFingerprintAuthFailed() {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onFingerprintAuthFailed();
-            }
-        }
+        dispatch(cb -> cb.onFingerprintAuthFailed());
         handleFingerprintHelp(-1, mContext.getString(R.string.fingerprint_not_recognized));
     }
 
@@ -560,12 +550,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
         if (acquireInfo != FingerprintManager.FINGERPRINT_ACQUIRED_GOOD) {
             return;
         }
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onFingerprintAcquired();
-            }
-        }
+        dispatch(cb -> cb.onFingerprintAcquired());
     }
 
     private void handleFingerprintAuthenticated(int authUserId) {
@@ -594,12 +579,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     }
 
     private void handleFingerprintHelp(int msgId, String helpString) {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onFingerprintHelp(msgId, helpString);
-            }
-        }
+        dispatch(cb -> cb.onFingerprintHelp(msgId, helpString));
     }
 
     private Runnable mRetryFingerprintAuthentication = new Runnable() {
@@ -634,12 +614,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
                     getCurrentUser());
         }
 
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onFingerprintError(msgId, errString);
-            }
-        }
+        dispatch(cb -> cb.onFingerprintError(msgId, errString));
     }
 
     private void handleFingerprintLockoutReset() {
@@ -660,21 +635,11 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     }
 
     private void notifyFingerprintRunningStateChanged() {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onFingerprintRunningStateChanged(isFingerprintDetectionRunning());
-            }
-        }
+        dispatch(cb -> cb.onFingerprintRunningStateChanged(isFingerprintDetectionRunning()));
     }
     private void handleFaceUnlockStateChanged(boolean running, int userId) {
         mUserFaceUnlockRunning.put(userId, running);
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onFaceUnlockStateChanged(running, userId);
-            }
-        }
+        dispatch(cb -> cb.onFaceUnlockStateChanged(running, userId));
     }
 
     public boolean isFaceUnlockRunning(int userId) {
@@ -727,12 +692,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     }
 
     private void notifyStrongAuthStateChanged(int userId) {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onStrongAuthStateChanged(userId);
-            }
-        }
+        dispatch(cb -> cb.onStrongAuthStateChanged(userId));
     }
 
     public boolean isScreenOn() {
@@ -749,7 +709,8 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
 
     private DisplayClientState mDisplayClientState = new DisplayClientState();
 
-    private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+    @VisibleForTesting
+    final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
 
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -759,6 +720,8 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
             if (Intent.ACTION_TIME_TICK.equals(action)
                     || Intent.ACTION_TIME_CHANGED.equals(action)
                     || Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+                // The callbacks only read the current time, so a queued update is enough.
+                mHandler.removeMessages(MSG_TIME_UPDATE);
                 mHandler.sendEmptyMessage(MSG_TIME_UPDATE);
             } else if (TelephonyIntents.SPN_STRINGS_UPDATED_ACTION.equals(action)) {
                 int subId = intent.getIntExtra(PhoneConstants.SUBSCRIPTION_KEY,
@@ -806,6 +769,8 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
                 final Message msg = mHandler.obtainMessage(
                         MSG_BATTERY_UPDATE, new BatteryStatus(status, level, plugged, health,
                                 maxChargingMicroWatt));
+                // Only the latest status matters, drop the ones which weren't handled yet.
+                mHandler.removeMessages(MSG_BATTERY_UPDATE);
                 mHandler.sendMessage(msg);
             } else if (TelephonyIntents.ACTION_SIM_STATE_CHANGED.equals(action)
                     || ACTION_UNLOCK_SIM_LOCK.equals(action)) {
@@ -852,8 +817,12 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
                     Log.v(TAG, "action " + action + " serviceState=" + serviceState + " subId="
                             + subId);
                 }
-                mHandler.sendMessage(
-                        mHandler.obtainMessage(MSG_SERVICE_STATE_CHANGE, subId, 0, serviceState));
+                synchronized (mPendingServiceStates) {
+                    mPendingServiceStates.put(subId, serviceState);
+                }
+                if (!mHandler.hasMessages(MSG_SERVICE_STATE_CHANGE)) {
+                    mHandler.sendEmptyMessage(MSG_SERVICE_STATE_CHANGE);
+                }
                 //20190827 pjz add
                 checkRilDataModelIs3G(serviceState);
             }
@@ -906,6 +875,8 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
         public void onReceive(Context context, Intent intent) {
             final String action = intent.getAction();
             if (AlarmManager.ACTION_NEXT_ALARM_CLOCK_CHANGED.equals(action)) {
+                // The callbacks only read the current time, so a queued update is enough.
+                mHandler.removeMessages(MSG_TIME_UPDATE);
                 mHandler.sendEmptyMessage(MSG_TIME_UPDATE);
             } else if (Intent.ACTION_USER_INFO_CHANGED.equals(action)) {
                 mHandler.sendMessage(mHandler.obtainMessage(MSG_USER_INFO_CHANGED,
@@ -1175,71 +1146,35 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     protected void handleStartedWakingUp() {
         Trace.beginSection("KeyguardUpdateMonitor#handleStartedWakingUp");
         updateFingerprintListeningState();
-        final int count = mCallbacks.size();
-        for (int i = 0; i < count; i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onStartedWakingUp();
-            }
-        }
+        dispatch(cb -> cb.onStartedWakingUp());
         Trace.endSection();
     }
 
     protected void handleStartedGoingToSleep(int arg1) {
         clearFingerprintRecognized();
-        final int count = mCallbacks.size();
-        for (int i = 0; i < count; i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onStartedGoingToSleep(arg1);
-            }
-        }
+        dispatch(cb -> cb.onStartedGoingToSleep(arg1));
         mGoingToSleep = true;
         updateFingerprintListeningState();
     }
 
     protected void handleFinishedGoingToSleep(int arg1) {
         mGoingToSleep = false;
-        final int count = mCallbacks.size();
-        for (int i = 0; i < count; i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onFinishedGoingToSleep(arg1);
-            }
-        }
+        dispatch(cb -> cb.onFinishedGoingToSleep(arg1));
         updateFingerprintListeningState();
     }
 
     private void handleScreenTurnedOn() {
-        final int count = mCallbacks.size();
-        for (int i = 0; i < count; i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onScreenTurnedOn();
-            }
-        }
+        dispatch(cb -> cb.onScreenTurnedOn());
     }
 
     private void handleScreenTurnedOff() {
         mHardwareUnavailableRetryCount = 0;
-        final int count = mCallbacks.size();
-        for (int i = 0; i < count; i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onScreenTurnedOff();
-            }
-        }
+        dispatch(cb -> cb.onScreenTurnedOff());
     }
 
     private void handleDreamingStateChanged(int dreamStart) {
-        final int count = mCallbacks.size();
         mIsDreaming = dreamStart == 1;
-        for (int i = 0; i < count; i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onDreamingStateChanged(mIsDreaming);
-            }
-        }
+        dispatch(cb -> cb.onDreamingStateChanged(mIsDreaming));
         updateFingerprintListeningState();
     }
 
@@ -1248,35 +1183,20 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
      */
     public void dispatchSetBackground(Bitmap bmp) {
         if (DEBUG) Log.d(TAG, "dispatchSetBackground");
-        final int count = mCallbacks.size();
-        for (int i = 0; i < count; i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onSetBackground(bmp);
-            }
-        }
+        dispatch(cb -> cb.onSetBackground(bmp));
     }
 
     private void handleUserInfoChanged(int userId) {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onUserInfoChanged(userId);
-            }
-        }
+        dispatch(cb -> cb.onUserInfoChanged(userId));
     }
 
     private void handleUserUnlocked() {
         mNeedsSlowUnlockTransition = resolveNeedsSlowUnlockTransition();
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onUserUnlocked();
-            }
-        }
+        dispatch(cb -> cb.onUserUnlocked());
     }
 
-    private KeyguardUpdateMonitor(Context context) {
+    @VisibleForTesting
+    KeyguardUpdateMonitor(Context context) {
         mContext = context;
         mSubscriptionManager = SubscriptionManager.from(context);
         mDeviceProvisioned = isDeviceProvisionedInSettingsDb();
@@ -1473,12 +1393,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     public void setHasLockscreenWallpaper(boolean hasLockscreenWallpaper) {
         if (hasLockscreenWallpaper != mHasLockscreenWallpaper) {
             mHasLockscreenWallpaper = hasLockscreenWallpaper;
-            for (int i = mCallbacks.size() - 1; i >= 0; i--) {
-                KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-                if (cb != null) {
-                    cb.onHasLockscreenWallpaperChanged(hasLockscreenWallpaper);
-                }
-            }
+            dispatch(cb -> cb.onHasLockscreenWallpaperChanged(hasLockscreenWallpaper));
         }
     }
 
@@ -1494,24 +1409,14 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
      */
     protected void handleDevicePolicyManagerStateChanged() {
         updateFingerprintListeningState();
-        for (int i = mCallbacks.size() - 1; i >= 0; i--) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onDevicePolicyManagerStateChanged();
-            }
-        }
+        dispatch(cb -> cb.onDevicePolicyManagerStateChanged());
     }
 
     /**
      * Handle {@link #MSG_USER_SWITCHING}
      */
     protected void handleUserSwitching(int userId, IRemoteCallback reply) {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onUserSwitching(userId);
-            }
-        }
+        dispatch(cb -> cb.onUserSwitching(userId));
         try {
             reply.sendResult(null);
         } catch (RemoteException e) {
@@ -1522,12 +1427,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
      * Handle {@link #MSG_USER_SWITCH_COMPLETE}
      */
     protected void handleUserSwitchComplete(int userId) {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onUserSwitchComplete(userId);
-            }
-        }
+        dispatch(cb -> cb.onUserSwitchComplete(userId));
     }
 
     /**
@@ -1546,12 +1446,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     protected void handleBootCompleted() {
         if (mBootCompleted) return;
         mBootCompleted = true;
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onBootCompleted();
-            }
-        }
+        dispatch(cb -> cb.onBootCompleted());
     }
 
     /**
@@ -1566,12 +1461,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
      * Handle {@link #MSG_DEVICE_PROVISIONED}
      */
     protected void handleDeviceProvisioned() {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onDeviceProvisioned();
-            }
-        }
+        dispatch(cb -> cb.onDeviceProvisioned());
         if (mDeviceProvisionedObserver != null) {
             // We don't need the observer anymore...
             mContext.getContentResolver().unregisterContentObserver(mDeviceProvisionedObserver);
@@ -1603,12 +1493,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
 
         Log.d(TAG, "handlePhoneStateChanged() - mPhoneState = " + mPhoneState);
 
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onPhoneStateChanged(mPhoneState);
-            }
-        }
+        dispatch(cb -> cb.onPhoneStateChanged(mPhoneState));
     }
 
     /**
@@ -1617,12 +1502,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     protected void handleRingerModeChange(int mode) {
         if (DEBUG) Log.d(TAG, "handleRingerModeChange(" + mode + ")");
         mRingMode = mode;
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onRingerModeChanged(mode);
-            }
-        }
+        dispatch(cb -> cb.onRingerModeChanged(mode));
     }
 
     /**
@@ -1630,12 +1510,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
      */
     private void handleTimeUpdate() {
         if (DEBUG) Log.d(TAG, "handleTimeUpdate");
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onTimeChanged();
-            }
-        }
+        dispatch(cb -> cb.onTimeChanged());
     }
 
     /**
@@ -1646,12 +1521,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
         final boolean batteryUpdateInteresting = isBatteryUpdateInteresting(mBatteryStatus, status);
         mBatteryStatus = status;
         if (batteryUpdateInteresting) {
-            for (int i = 0; i < mCallbacks.size(); i++) {
-                KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-                if (cb != null) {
-                    cb.onRefreshBatteryInfo(status);
-                }
-            }
+            dispatch(cb -> cb.onRefreshBatteryInfo(status));
         }
     }
 
@@ -1678,38 +1548,41 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
 
             printState() ;
 
-            for (int i = 0; i < mCallbacks.size(); i++) {
-                KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-                if (cb != null) {
-                    cb.onSimStateChangedUsingPhoneId(phoneId, state);
-                }
-            }
+            dispatch(cb -> cb.onSimStateChangedUsingPhoneId(phoneId, state));
         }
     }
 
     /**
      * Handle {@link #MSG_SERVICE_STATE_CHANGE}
+     *
+     * <p>Applies the latest service state of every subscription which changed since the last
+     * message and refreshes the carrier info once for all of them.
      */
-    private void handleServiceStateChange(int subId, ServiceState serviceState) {
-        if (DEBUG) {
-            Log.d(TAG,
-                    "handleServiceStateChange(subId=" + subId + ", serviceState=" + serviceState);
-        }
-
-        // M: ALPS02790398 No SIM card + airplane on, ecc still display.
-        /*if (!SubscriptionManager.isValidSubscriptionId(subId)) {
-            Log.w(TAG, "invalid subId in handleServiceStateChange()");
-            return;
-        }*/
+    private void handleServiceStateChange() {
+        synchronized (mPendingServiceStates) {
+            for (int i = 0; i < mPendingServiceStates.size(); i++) {
+                int subId = mPendingServiceStates.keyAt(i);
+                ServiceState serviceState = mPendingServiceStates.valueAt(i);
+                if (DEBUG) {
+                    Log.d(TAG, "handleServiceStateChange(subId=" + subId
+                            + ", serviceState=" + serviceState);
+                }
 
-        mServiceStates.put(subId, serviceState);
+                // M: ALPS02790398 No SIM card + airplane on, ecc still display.
+                /*if (!SubscriptionManager.isValidSubscriptionId(subId)) {
+                    Log.w(TAG, "invalid subId in handleServiceStateChange()");
+                    return;
+                }*/
 
-        for (int j = 0; j < mCallbacks.size(); j++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(j).get();
-            if (cb != null) {
-                cb.onRefreshCarrierInfo();
+                mServiceStates.put(subId, serviceState);
             }
+            if (mPendingServiceStates.size() == 0) {
+                return;
+            }
+            mPendingServiceStates.clear();
         }
+
+        dispatch(cb -> cb.onRefreshCarrierInfo());
     }
 
     /**
@@ -1720,12 +1593,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     public void onKeyguardVisibilityChanged(boolean showing) {
         if (DEBUG) Log.d(TAG, "onKeyguardVisibilityChanged(" + showing + ")");
         mKeyguardIsVisible = showing;
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onKeyguardVisibilityChangedRaw(showing);
-            }
-        }
+        dispatch(cb -> cb.onKeyguardVisibilityChangedRaw(showing));
         updateFingerprintListeningState();
     }
 
@@ -1757,12 +1625,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
         if (DEBUG) Log.d(TAG, "handleKeyguardBouncerChanged(" + bouncer + ")");
         boolean isBouncer = (bouncer == 1);
         mBouncer = isBouncer;
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onKeyguardBouncerChanged(isBouncer);
-            }
-        }
+        dispatch(cb -> cb.onKeyguardBouncerChanged(isBouncer));
         updateFingerprintListeningState();
     }
 
@@ -1770,12 +1633,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
      * Handle {@link #MSG_REPORT_EMERGENCY_CALL_ACTION}
      */
     private void handleReportEmergencyCallAction() {
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onEmergencyCallAction();
-            }
-        }
+        dispatch(cb -> cb.onEmergencyCallAction());
     }
 
     private static boolean isBatteryUpdateInteresting(BatteryStatus old, BatteryStatus current) {
@@ -1814,6 +1672,44 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
         return false;
     }
 
+    /**
+     * Calls {@code action} on every registered callback and, with {@link #DEBUG_DISPATCH}, records
+     * how long each one took, so that slow listeners show up in {@link #dump}. Callbacks which were
+     * garbage collected are pruned once after the dispatch. Needs to be called from the main
+     * thread.
+     */
+    private void dispatch(Consumer<KeyguardUpdateMonitorCallback> action) {
+        boolean hasCollectedCallbacks = false;
+        for (int i = 0; i < mCallbacks.size(); i++) {
+            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
+            if (cb == null) {
+                hasCollectedCallbacks = true;
+                continue;
+            }
+            if (DEBUG_DISPATCH) {
+                final long start = System.nanoTime();
+                action.accept(cb);
+                recordDispatchTime(cb.getClass(), System.nanoTime() - start);
+            } else {
+                action.accept(cb);
+            }
+        }
+        if (hasCollectedCallbacks) {
+            removeCallback(null);
+        }
+    }
+
+    private void recordDispatchTime(Class<?> callbackClass, long durationNanos) {
+        long[] stats = mDispatchStats.get(callbackClass);
+        if (stats == null) {
+            stats = new long[DISPATCH_STATS_SIZE];
+            mDispatchStats.put(callbackClass, stats);
+        }
+        stats[DISPATCH_STATS_COUNT]++;
+        stats[DISPATCH_STATS_TOTAL] += durationNanos;
+        stats[DISPATCH_STATS_MAX] = Math.max(stats[DISPATCH_STATS_MAX], durationNanos);
+    }
+
     /**
      * Remove the given observer's callback.
      *
@@ -1965,11 +1861,8 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     }
 
     public State getSimState(int subId) {
-        if (mSimDatas.containsKey(subId)) {
-            return mSimDatas.get(subId).simState;
-        } else {
-            return State.UNKNOWN;
-        }
+        SimData data = mSimDatas.get(subId);
+        return data != null ? data.simState : State.UNKNOWN;
     }
 
     private final TaskStackListener mTaskStackListener = new TaskStackListener() {
@@ -2128,29 +2021,31 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
      * @return SubscriptionInfo
      */
     public SubscriptionInfo getSubscriptionInfoForSubId(int subId, boolean forceReload) {
-        List<SubscriptionInfo> list = getSubscriptionInfo(forceReload /* forceReload */);
-        for (int i = 0; i < list.size(); i++) {
-            SubscriptionInfo info = list.get(i);
-            if (subId == info.getSubscriptionId()) return info;
-        }
-        return null; // not found
+        getSubscriptionInfo(forceReload /* forceReload */);
+        return mSubscriptions.getForSubId(subId);
     }
 
     public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
         pw.println("KeyguardUpdateMonitor state:");
         pw.println("  SIM States:");
-        for (SimData data : mSimDatas.values()) {
-            pw.println("    " + data.toString());
-        }
-        pw.println("  Subs:");
-        if (mSubscriptionInfo != null) {
-            for (int i = 0; i < mSubscriptionInfo.size(); i++) {
-                pw.println("    " + mSubscriptionInfo.get(i));
-            }
+        for (int i = 0; i < mSimDatas.size(); i++) {
+            pw.println("    " + mSimDatas.valueAt(i).toString());
         }
+        mSubscriptions.dump(pw);
         pw.println("  Service states:");
-        for (int subId : mServiceStates.keySet()) {
-            pw.println("    " + subId + "=" + mServiceStates.get(subId));
+        for (int i = 0; i < mServiceStates.size(); i++) {
+            pw.println("    " + mServiceStates.keyAt(i) + "=" + mServiceStates.valueAt(i));
+        }
+        if (DEBUG_DISPATCH) {
+            // Racy with the main thread, good enough for a debug dump.
+            pw.println("  Callback dispatch times (count, total ms, max ms):");
+            for (int i = 0; i < mDispatchStats.size(); i++) {
+                long[] stats = mDispatchStats.valueAt(i);
+                pw.print("    "); pw.print(mDispatchStats.keyAt(i).getName());
+                pw.print(": "); pw.print(stats[DISPATCH_STATS_COUNT]);
+                pw.print(", "); pw.print(stats[DISPATCH_STATS_TOTAL] / 1000000f);
+                pw.print(", "); pw.println(stats[DISPATCH_STATS_MAX] / 1000000f);
+            }
         }
         if (mFpm != null && mFpm.isHardwareDetected()) {
             final int userId = ActivityManager.getCurrentUser();
@@ -2192,8 +2087,7 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
     private int mPinPukMeDismissFlag = PIN_PUK_ME_RESET;
 
     // M: Keyguard Telephony,  for storage  telephony state
-    private HashMap<Integer, IccCardConstants.State> mSimStateOfPhoneId =
-            new HashMap<Integer, IccCardConstants.State>();
+    private SparseArray<IccCardConstants.State> mSimStateOfPhoneId = new SparseArray<>();
     private HashMap<Integer, CharSequence> mTelephonyPlmn = new HashMap<Integer, CharSequence>();
     private HashMap<Integer, CharSequence> mTelephonySpn = new HashMap<Integer, CharSequence>();
     private HashMap<Integer, CharSequence> mTelephonyHnbName = new HashMap<Integer, CharSequence>();
@@ -2611,14 +2505,11 @@ public class KeyguardUpdateMonitor implements TrustManager.TrustListener {
             }
         }
 
-        for (int i = 0; i < mCallbacks.size(); i++) {
-            KeyguardUpdateMonitorCallback cb = mCallbacks.get(i).get();
-            if (cb != null) {
-                cb.onAirPlaneModeChanged(airPlaneModeEnabled);
-                // M: add for ALPS02432499 update carrier when air plane mode change.
-                cb.onRefreshCarrierInfo();
-            }
-        }
+        dispatch(cb -> {
+            cb.onAirPlaneModeChanged(airPlaneModeEnabled);
+            // M: add for ALPS02432499 update carrier when air plane mode change.
+            cb.onRefreshCarrierInfo();
+        });
     }
 
     private boolean isAirplaneModeOn() {
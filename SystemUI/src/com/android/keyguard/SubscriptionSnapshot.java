@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.keyguard;
+
+import android.annotation.Nullable;
+import android.telephony.SubscriptionInfo;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable view of the active subscriptions, indexed by subscription id and by SIM slot.
+ *
+ * <p>A snapshot with a new version is only created when the content of the subscriptions
+ * changed, so the subscription changed storms telephony sends while SIMs are loading or the
+ * network flaps can be recognized by comparing versions.
+ */
+final class SubscriptionSnapshot {
+    static final SubscriptionSnapshot EMPTY =
+            new SubscriptionSnapshot(0, new ArrayList<SubscriptionInfo>());
+
+    private final int mVersion;
+    private final List<SubscriptionInfo> mSubscriptions;
+    private final SparseArray<SubscriptionInfo> mBySubId = new SparseArray<>();
+    private final SparseArray<SubscriptionInfo> mBySlot = new SparseArray<>();
+
+    private SubscriptionSnapshot(int version, ArrayList<SubscriptionInfo> subscriptions) {
+        mVersion = version;
+        mSubscriptions = Collections.unmodifiableList(subscriptions);
+        for (int i = 0; i < subscriptions.size(); i++) {
+            SubscriptionInfo info = subscriptions.get(i);
+            mBySubId.put(info.getSubscriptionId(), info);
+            mBySlot.put(info.getSimSlotIndex(), info);
+        }
+    }
+
+    /**
+     * @param subscriptions the active subscriptions, {@code null} if there are none
+     * @return this snapshot if {@code subscriptions} has the same content, or a snapshot with the
+     *         next version otherwise
+     */
+    SubscriptionSnapshot update(@Nullable List<SubscriptionInfo> subscriptions) {
+        ArrayList<SubscriptionInfo> list = subscriptions != null
+                ? new ArrayList<>(subscriptions) : new ArrayList<>();
+        if (list.size() == mSubscriptions.size()) {
+            boolean same = true;
+            for (int i = 0; i < list.size() && same; i++) {
+                same = isSameSubscription(list.get(i), mSubscriptions.get(i));
+            }
+            if (same) {
+                return this;
+            }
+        }
+        return new SubscriptionSnapshot(mVersion + 1, list);
+    }
+
+    int getVersion() {
+        return mVersion;
+    }
+
+    /** @return the subscriptions in the order telephony reported them, never null */
+    List<SubscriptionInfo> getSubscriptions() {
+        return mSubscriptions;
+    }
+
+    @Nullable
+    SubscriptionInfo getForSubId(int subId) {
+        return mBySubId.get(subId);
+    }
+
+    @Nullable
+    SubscriptionInfo getForSlot(int slotId) {
+        return mBySlot.get(slotId);
+    }
+
+    /**
+     * @return the subscriptions of this snapshot which are not part of {@code previous} or whose
+     *         content changed since
+     */
+    List<SubscriptionInfo> getChangedSince(SubscriptionSnapshot previous) {
+        ArrayList<SubscriptionInfo> changed = new ArrayList<>();
+        for (int i = 0; i < mSubscriptions.size(); i++) {
+            SubscriptionInfo info = mSubscriptions.get(i);
+            SubscriptionInfo old = previous.getForSubId(info.getSubscriptionId());
+            if (old == null || !isSameSubscription(info, old)) {
+                changed.add(info);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * {@link SubscriptionInfo} doesn't implement equals, so compare what keyguard shows of it.
+     */
+    static boolean isSameSubscription(SubscriptionInfo a, SubscriptionInfo b) {
+        return a.getSubscriptionId() == b.getSubscriptionId()
+                && a.getSimSlotIndex() == b.getSimSlotIndex()
+                && a.getNameSource() == b.getNameSource()
+                && a.getIconTint() == b.getIconTint()
+                && a.getDataRoaming() == b.getDataRoaming()
+                && a.getMcc() == b.getMcc()
+                && a.getMnc() == b.getMnc()
+                && Objects.equals(a.getIccId(), b.getIccId())
+                && Objects.equals(a.getNumber(), b.getNumber())
+                && Objects.equals(a.getCountryIso(), b.getCountryIso())
+                && TextUtils.equals(a.getDisplayName(), b.getDisplayName())
+                && TextUtils.equals(a.getCarrierName(), b.getCarrierName());
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("  Subs (version=" + mVersion + "):");
+        for (int i = 0; i < mSubscriptions.size(); i++) {
+            pw.println("    " + mSubscriptions.get(i));
+        }
+    }
+}
@@ -72,6 +72,9 @@ public class ImageWallpaper extends WallpaperService {
     private static final boolean DEBUG = false;
     private static final String PROPERTY_KERNEL_QEMU = "ro.kernel.qemu";
     private static final String PROPERTY_MTK_GMO_RAM_OPTIMIZE = "ro.mtk_gmo_ram_optimize";
+    // Decode the wallpaper at the size the display needs rather than at full resolution.
+    private static final boolean DOWNSAMPLE_WALLPAPER =
+            SystemProperties.getBoolean("persist.sysui.wallpaper_downsample", true);
 
     static final boolean FIXED_SIZED_SURFACE = true;
     static final boolean USE_OPENGL = true;
@@ -82,6 +85,9 @@ public class ImageWallpaper extends WallpaperService {
 
     boolean mIsHwAccelerated;
 
+    // Last wallpaper decoded at reduced size, kept for engines and configurations to come.
+    private volatile ScaledWallpaper mScaledWallpaper;
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -112,6 +118,36 @@ public class ImageWallpaper extends WallpaperService {
         return mEngine;
     }
 
+    /**
+     * Wallpaper decoded for a display size, see {@link WallpaperDecoder}.
+     */
+    private static class ScaledWallpaper {
+        final int mWallpaperId;
+        final int mDisplayLongSide;
+        final int mDisplayShortSide;
+        final Bitmap mBitmap;
+
+        ScaledWallpaper(int wallpaperId, int displayLongSide, int displayShortSide,
+                Bitmap bitmap) {
+            mWallpaperId = wallpaperId;
+            mDisplayLongSide = displayLongSide;
+            mDisplayShortSide = displayShortSide;
+            mBitmap = bitmap;
+        }
+
+        boolean isFor(int wallpaperId, int displayLongSide, int displayShortSide) {
+            return mWallpaperId == wallpaperId && mDisplayLongSide == displayLongSide
+                    && mDisplayShortSide == displayShortSide && !mBitmap.isRecycled();
+        }
+
+        @Override
+        public String toString() {
+            return "ScaledWallpaper{id=" + mWallpaperId + " display=" + mDisplayLongSide + "x"
+                    + mDisplayShortSide + " bitmap=" + mBitmap.getWidth() + "x"
+                    + mBitmap.getHeight() + "}";
+        }
+    }
+
     class DrawableEngine extends Engine {
         static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
         static final int EGL_OPENGL_ES2_BIT = 4;
@@ -190,12 +226,15 @@ public class ImageWallpaper extends WallpaperService {
 
         public void trimMemory(int level) {
             if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
-                    && level <= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
-                    && mBackground != null) {
-                if (DEBUG) {
-                    Log.d(TAG, "trimMemory");
+                    && level <= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                // The scaled wallpaper may be all that is held, e.g. while not visible.
+                mScaledWallpaper = null;
+                if (mBackground != null) {
+                    if (DEBUG) {
+                        Log.d(TAG, "trimMemory");
+                    }
+                    unloadWallpaper(true /* forgetSize */);
                 }
-                unloadWallpaper(true /* forgetSize */);
             }
             if("1".equals(SystemProperties.get(PROPERTY_MTK_GMO_RAM_OPTIMIZE, "0"))
                 && mYv12Enhancement && Utils.useYv12)
@@ -472,6 +511,7 @@ public class ImageWallpaper extends WallpaperService {
                         // position it appropriately.  As such, we no longer needed
                         // the loaded bitmap.  Yay!
                         // hw-accelerated renderer retains bitmap for faster rotation
+                        mScaledWallpaper = null;
                         unloadWallpaper(false /* forgetSize */);
                     }
                 }
@@ -502,6 +542,11 @@ public class ImageWallpaper extends WallpaperService {
                     return;
                 }
             }
+            final DisplayInfo displayInfo = getDefaultDisplayInfo();
+            final int displayLongSide = Math.max(displayInfo.logicalWidth,
+                    displayInfo.logicalHeight);
+            final int displayShortSide = Math.min(displayInfo.logicalWidth,
+                    displayInfo.logicalHeight);
             mLoader = new AsyncTask<Void, Void, Bitmap>() {
                 @Override
                 protected Bitmap doInBackground(Void... params) {
@@ -510,6 +555,9 @@ public class ImageWallpaper extends WallpaperService {
                         if (needsReset) {
                             mWallpaperManager.forgetLoadedWallpaper();
                         }
+                        if (DOWNSAMPLE_WALLPAPER) {
+                            return loadScaledWallpaper(displayLongSide, displayShortSide);
+                        }
                         return mWallpaperManager.getBitmap();
                     } catch (RuntimeException | OutOfMemoryError e) {
                         exception = e;
@@ -571,6 +619,42 @@ public class ImageWallpaper extends WallpaperService {
             }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         }
 
+        /**
+         * Loads the wallpaper no larger than a display of the given size needs in any rotation,
+         * or returns the one loaded last if it was for the same wallpaper and display size.
+         *
+         * Called on a background thread.
+         */
+        private Bitmap loadScaledWallpaper(int displayLongSide, int displayShortSide) {
+            final int wallpaperId = mWallpaperManager.getWallpaperId(WallpaperManager.FLAG_SYSTEM);
+            ScaledWallpaper cached = mScaledWallpaper;
+            if (cached != null && cached.isFor(wallpaperId, displayLongSide, displayShortSide)) {
+                if (DEBUG) {
+                    Log.d(TAG, "Reusing scaled wallpaper " + wallpaperId);
+                }
+                return cached.mBitmap;
+            }
+            Bitmap bitmap = WallpaperDecoder.decode(mWallpaperManager, displayLongSide);
+            if (bitmap == null) {
+                // There is no file for the default wallpaper, load it as usual and scale it.
+                Bitmap full = mWallpaperManager.getBitmap();
+                if (full == null) {
+                    return null;
+                }
+                bitmap = WallpaperDecoder.scaleDown(full, displayLongSide);
+                if (bitmap != full) {
+                    mWallpaperManager.forgetLoadedWallpaper();
+                }
+            }
+            // The low RAM texture upload recycles the bitmap once it is on the GPU.
+            if (wallpaperId >= 0
+                    && !"1".equals(SystemProperties.get(PROPERTY_MTK_GMO_RAM_OPTIMIZE, "0"))) {
+                mScaledWallpaper = new ScaledWallpaper(wallpaperId, displayLongSide,
+                        displayShortSide, bitmap);
+            }
+            return bitmap;
+        }
+
         private void unloadWallpaper(boolean forgetSize) {
             if (mLoader != null) {
                 mLoader.cancel(false);
@@ -617,6 +701,8 @@ public class ImageWallpaper extends WallpaperService {
             out.print(prefix); out.print(" mLastRequestedWidth="); out.print(mLastRequestedWidth);
             out.print(" mLastRequestedHeight="); out.println(mLastRequestedHeight);
 
+            out.print(prefix); out.print(" mScaledWallpaper="); out.println(mScaledWallpaper);
+
             out.print(prefix); out.println(" DisplayInfo at last updateSurfaceSize:");
             out.print(prefix);
             out.print("  rotation="); out.print(mRotationAtLastSurfaceSizeUpdate);
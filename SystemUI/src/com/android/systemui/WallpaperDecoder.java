@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui;
+
+import android.app.WallpaperManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import libcore.io.IoUtils;
+
+import java.io.IOException;
+
+/**
+ * Decodes the system wallpaper at the size {@link ImageWallpaper} draws it at, instead of at
+ * the full resolution of the image.
+ *
+ * <p>The surface of the wallpaper has the aspect ratio of the image and covers the display, so
+ * the whole image is always drawn. Its shorter side needs as many pixels as the longer side of
+ * the display for the image to cover the display in every rotation, including the margin it is
+ * scrolled across.
+ */
+final class WallpaperDecoder {
+    private static final String TAG = "WallpaperDecoder";
+
+    private WallpaperDecoder() {
+    }
+
+    /**
+     * @param targetSize the number of pixels the shorter side of the image needs
+     * @return the wallpaper, scaled down so its shorter side is at most {@code targetSize}, or
+     *         {@code null} if there is no wallpaper file or it can't be decoded
+     */
+    static Bitmap decode(WallpaperManager wallpaperManager, int targetSize) {
+        ParcelFileDescriptor fd = wallpaperManager.getWallpaperFile(WallpaperManager.FLAG_SYSTEM);
+        if (fd == null) {
+            return null;
+        }
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(fd.getFileDescriptor(),
+                    false /* isShareable */);
+            final int width = decoder.getWidth();
+            final int height = decoder.getHeight();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = getSampleSize(width, height, targetSize);
+            Bitmap bitmap = decoder.decodeRegion(new Rect(0, 0, width, height), options);
+            if (bitmap == null) {
+                return null;
+            }
+            Bitmap scaled = scaleDown(bitmap, targetSize);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+            return scaled;
+        } catch (IOException e) {
+            // Not a format the region decoder supports.
+            Log.w(TAG, "Unable to decode wallpaper file", e);
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            IoUtils.closeQuietly(fd);
+        }
+    }
+
+    /**
+     * @return {@code bitmap} if its shorter side is at most {@code targetSize}, or a copy
+     *         scaled down to that size otherwise
+     */
+    static Bitmap scaleDown(Bitmap bitmap, int targetSize) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int shortSide = Math.min(width, height);
+        if (targetSize <= 0 || shortSide <= targetSize) {
+            return bitmap;
+        }
+        final float scale = targetSize / (float) shortSide;
+        return Bitmap.createScaledBitmap(bitmap, Math.round(width * scale),
+                Math.round(height * scale), true /* filter */);
+    }
+
+    /**
+     * @return the largest power of two the image can be subsampled by without its shorter side
+     *         getting smaller than {@code targetSize}
+     */
+    @VisibleForTesting
+    static int getSampleSize(int width, int height, int targetSize) {
+        final int shortSide = Math.min(width, height);
+        int sampleSize = 1;
+        if (targetSize <= 0) {
+            return sampleSize;
+        }
+        while (shortSide / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -16,10 +16,9 @@
 
 package com.android.systemui.classifier;
 
+import android.util.SparseArray;
 import android.view.MotionEvent;
 
-import java.util.HashMap;
-
 /**
  * A classifier which looks at the speed and distance between successive points of a Stroke.
  * It looks at two consecutive speeds between two points and calculates the ratio between them.
@@ -29,7 +28,7 @@ import java.util.HashMap;
  * calculate the speed of a part.
  */
 public class AccelerationClassifier extends StrokeClassifier {
-    private final HashMap<Stroke, Data> mStrokeMap = new HashMap<>();
+    private final SparseArray<Data> mStrokeMap = new SparseArray<>();
 
     public AccelerationClassifier(ClassifierData classifierData) {
         mClassifierData = classifierData;
@@ -42,26 +41,26 @@ public class AccelerationClassifier extends StrokeClassifier {
 
     @Override
     public void onTouchEvent(MotionEvent event) {
-        int action = event.getActionMasked();
-
-        if (action == MotionEvent.ACTION_DOWN) {
-            mStrokeMap.clear();
-        }
-
         for (int i = 0; i < event.getPointerCount(); i++) {
             Stroke stroke = mClassifierData.getStroke(event.getPointerId(i));
-            Point point = stroke.getPoints().get(stroke.getPoints().size() - 1);
-            if (mStrokeMap.get(stroke) == null) {
-                mStrokeMap.put(stroke, new Data(point));
+            float x = stroke.getLastX();
+            float y = stroke.getLastY();
+            long timeOffsetNano = stroke.getLastTimeOffsetNano();
+            Data data = mStrokeMap.get(stroke.getPointerId());
+            if (data == null) {
+                mStrokeMap.put(stroke.getPointerId(), new Data(x, y, timeOffsetNano));
+            } else if (stroke.getCount() == 1) {
+                // A new stroke for this pointer id; reuse the data of the previous one.
+                data.reset(x, y, timeOffsetNano);
             } else {
-                mStrokeMap.get(stroke).addPoint(point);
+                data.addPoint(x, y, timeOffsetNano);
             }
         }
     }
 
     @Override
     public float getFalseTouchEvaluation(int type, Stroke stroke) {
-        Data data = mStrokeMap.get(stroke);
+        Data data = mStrokeMap.get(stroke.getPointerId());
         return 2 * SpeedRatioEvaluator.evaluate(data.maxSpeedRatio);
     }
 
@@ -69,23 +68,36 @@ public class AccelerationClassifier extends StrokeClassifier {
 
         static final float MILLIS_TO_NANOS = 1e6f;
 
-        Point previousPoint;
+        float previousX;
+        float previousY;
+        long previousTimeOffsetNano;
         float previousSpeed = 0;
         float maxSpeedRatio = 0;
 
-        public Data(Point point) {
-            previousPoint = point;
+        public Data(float x, float y, long timeOffsetNano) {
+            reset(x, y, timeOffsetNano);
         }
 
-        public void addPoint(Point point) {
-            float distance = previousPoint.dist(point);
-            float duration = (float) (point.timeOffsetNano - previousPoint.timeOffsetNano + 1);
+        public void reset(float x, float y, long timeOffsetNano) {
+            previousX = x;
+            previousY = y;
+            previousTimeOffsetNano = timeOffsetNano;
+            previousSpeed = 0;
+            maxSpeedRatio = 0;
+        }
+
+        public void addPoint(float x, float y, long timeOffsetNano) {
+            float distance = Point.dist(previousX, previousY, x, y);
+            float duration = (float) (timeOffsetNano - previousTimeOffsetNano + 1);
             float speed = distance / duration;
 
+            previousX = x;
+            previousY = y;
+            previousTimeOffsetNano = timeOffsetNano;
+
             if (duration > 20 * MILLIS_TO_NANOS || duration < 5 * MILLIS_TO_NANOS) {
                 // reject this segment and ensure we won't use data about it in the next round.
                 previousSpeed = 0;
-                previousPoint = point;
                 return;
             }
             if (previousSpeed != 0.0f) {
@@ -93,7 +105,6 @@ public class AccelerationClassifier extends StrokeClassifier {
             }
 
             previousSpeed = speed;
-            previousPoint = point;
         }
     }
-}
\ No newline at end of file
+}
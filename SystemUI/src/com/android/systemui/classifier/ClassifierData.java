@@ -28,6 +28,8 @@ import java.util.ArrayList;
 public class ClassifierData {
     private SparseArray<Stroke> mCurrentStrokes = new SparseArray<>();
     private ArrayList<Stroke> mEndingStrokes = new ArrayList<>();
+    /** Strokes which have ended, kept for reuse so that new traces do not allocate. */
+    private final ArrayList<Stroke> mStrokePool = new ArrayList<>();
     private final float mDpi;
 
     public ClassifierData(float dpi) {
@@ -38,20 +40,24 @@ public class ClassifierData {
         mEndingStrokes.clear();
         int action = event.getActionMasked();
         if (action == MotionEvent.ACTION_DOWN) {
+            for (int i = 0; i < mCurrentStrokes.size(); i++) {
+                mStrokePool.add(mCurrentStrokes.valueAt(i));
+            }
             mCurrentStrokes.clear();
         }
 
         for (int i = 0; i < event.getPointerCount(); i++) {
             int id = event.getPointerId(i);
-            if (mCurrentStrokes.get(id) == null) {
-                mCurrentStrokes.put(id, new Stroke(event.getEventTimeNano(), mDpi));
+            Stroke stroke = mCurrentStrokes.get(id);
+            if (stroke == null) {
+                stroke = obtainStroke(id, event.getEventTimeNano());
+                mCurrentStrokes.put(id, stroke);
             }
-            mCurrentStrokes.get(id).addPoint(event.getX(i), event.getY(i),
-                    event.getEventTimeNano());
+            stroke.addPoint(event.getX(i), event.getY(i), event.getEventTimeNano());
 
             if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL
                     || (action == MotionEvent.ACTION_POINTER_UP && i == event.getActionIndex())) {
-                mEndingStrokes.add(getStroke(id));
+                mEndingStrokes.add(stroke);
             }
         }
     }
@@ -63,11 +69,23 @@ public class ClassifierData {
             int id = event.getPointerId(i);
             if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL
                     || (action == MotionEvent.ACTION_POINTER_UP && i == event.getActionIndex())) {
-                mCurrentStrokes.remove(id);
+                Stroke stroke = mCurrentStrokes.get(id);
+                if (stroke != null) {
+                    mCurrentStrokes.remove(id);
+                    mStrokePool.add(stroke);
+                }
             }
         }
     }
 
+    private Stroke obtainStroke(int id, long eventTimeNano) {
+        Stroke stroke = mStrokePool.isEmpty()
+                ? new Stroke(eventTimeNano, mDpi)
+                : mStrokePool.remove(mStrokePool.size() - 1);
+        stroke.reset(id, eventTimeNano);
+        return stroke;
+    }
+
     /**
      * @return the list of Strokes which are ending in the recently added MotionEvent
      */
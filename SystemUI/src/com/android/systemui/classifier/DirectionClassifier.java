@@ -31,9 +31,7 @@ public class DirectionClassifier extends StrokeClassifier {
 
     @Override
     public float getFalseTouchEvaluation(int type, Stroke stroke) {
-        Point firstPoint = stroke.getPoints().get(0);
-        Point lastPoint = stroke.getPoints().get(stroke.getPoints().size() - 1);
-        return DirectionEvaluator.evaluate(lastPoint.x - firstPoint.x, lastPoint.y - firstPoint.y,
-                type);
+        return DirectionEvaluator.evaluate(stroke.getLastX() - stroke.getFirstX(),
+                stroke.getLastY() - stroke.getFirstY(), type);
     }
 }
\ No newline at end of file
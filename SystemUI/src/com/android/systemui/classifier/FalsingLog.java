@@ -46,6 +46,8 @@ import java.util.Locale;
  *
  * To adjust the log buffer size:
  *  adb shell setprop debug.falsing_log_size 200
+ *
+ * Timing counters of the classifier are always collected and dumped, also when the log is off.
  */
 public class FalsingLog {
     public static final boolean ENABLED = SystemProperties.getBoolean("debug.falsing_log",
@@ -64,6 +66,14 @@ public class FalsingLog {
 
     private static FalsingLog sInstance;
 
+    private static long sClassifiedEvents;
+    private static long sClassificationNanos;
+    private static long sMaxClassificationNanos;
+    private static long sWaits;
+    private static long sWaitMillis;
+    private static long sMaxWaitMillis;
+    private static long sWaitTimeouts;
+
     private FalsingLog() {
     }
 
@@ -120,8 +130,37 @@ public class FalsingLog {
         sInstance.mLog.add(entry);
     }
 
+    /**
+     * Records the time spent classifying one touch event, on whichever thread it ran.
+     */
+    public static synchronized void addClassificationTime(long nanos) {
+        sClassifiedEvents++;
+        sClassificationNanos += nanos;
+        sMaxClassificationNanos = Math.max(sMaxClassificationNanos, nanos);
+    }
+
+    /**
+     * Records how long isFalseTouch() waited for asynchronous classification.
+     */
+    public static synchronized void addWaitTime(long millis, boolean timedOut) {
+        sWaits++;
+        sWaitMillis += millis;
+        sMaxWaitMillis = Math.max(sMaxWaitMillis, millis);
+        if (timedOut) {
+            sWaitTimeouts++;
+        }
+    }
+
     public static synchronized void dump(PrintWriter pw) {
         pw.println("FALSING LOG:");
+        pw.print("classified="); pw.print(sClassifiedEvents);
+        pw.print(" avgUs="); pw.print(sClassifiedEvents == 0
+                ? 0 : sClassificationNanos / sClassifiedEvents / 1000);
+        pw.print(" maxUs="); pw.println(sMaxClassificationNanos / 1000);
+        pw.print("asyncWaits="); pw.print(sWaits);
+        pw.print(" avgMs="); pw.print(sWaits == 0 ? 0 : sWaitMillis / sWaits);
+        pw.print(" maxMs="); pw.print(sMaxWaitMillis);
+        pw.print(" timeouts="); pw.println(sWaitTimeouts);
         if (!ENABLED) {
             pw.println("Disabled, to enable: setprop debug.falsing_log 1");
             pw.println();
@@ -30,6 +30,8 @@ public class HistoryEvaluator {
 
     private final ArrayList<Data> mStrokes = new ArrayList<>();
     private final ArrayList<Data> mGestureWeights = new ArrayList<>();
+    /** Evaluations which decayed to zero, reused for new ones. */
+    private final ArrayList<Data> mPool = new ArrayList<>();
     private long mLastUpdate;
 
     public HistoryEvaluator() {
@@ -38,12 +40,22 @@ public class HistoryEvaluator {
 
     public void addStroke(float evaluation) {
         decayValue();
-        mStrokes.add(new Data(evaluation));
+        mStrokes.add(obtain(evaluation));
     }
 
     public void addGesture(float evaluation) {
         decayValue();
-        mGestureWeights.add(new Data(evaluation));
+        mGestureWeights.add(obtain(evaluation));
+    }
+
+    private Data obtain(float evaluation) {
+        if (mPool.isEmpty()) {
+            return new Data(evaluation);
+        }
+        Data data = mPool.remove(mPool.size() - 1);
+        data.evaluation = evaluation;
+        data.weight = 1.0f;
+        return data;
     }
 
     /**
@@ -93,7 +105,7 @@ public class HistoryEvaluator {
 
         // Removing evaluations with such small weights that they do not matter anymore
         while (!list.isEmpty() && isZero(list.get(0).weight)) {
-            list.remove(0);
+            mPool.add(list.remove(0));
         }
     }
 
@@ -20,7 +20,11 @@ import android.content.Context;
 import android.database.ContentObserver;
 import android.hardware.SensorEvent;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.DisplayMetrics;
@@ -37,8 +41,15 @@ import java.util.ArrayList;
  */
 public class HumanInteractionClassifier extends Classifier {
     private static final String HIC_ENABLE = "HIC_enable";
+    private static final String HIC_ASYNC = "HIC_async";
     private static final float FINGER_DISTANCE = 0.1f;
 
+    /** How long {@link #isFalseTouch()} waits for the worker before giving up. */
+    private static final long ASYNC_TIMEOUT_MS = 100;
+
+    private static final int MSG_TOUCH_EVENT = 1;
+    private static final int MSG_SET_TYPE = 2;
+
     private static HumanInteractionClassifier sInstance = null;
 
     private final Handler mHandler = new Handler(Looper.getMainLooper());
@@ -53,6 +64,20 @@ public class HumanInteractionClassifier extends Classifier {
     private boolean mEnableClassifier = false;
     private int mCurrentType = Classifier.GENERIC;
 
+    /**
+     * Guards the classifiers, {@link #mCurrentType} and {@link #mHistoryEvaluator}, which are
+     * used from the worker thread in async mode and from the sensor thread.
+     */
+    private final Object mLock = new Object();
+    private Handler mWorkerHandler;
+    private boolean mAsyncEnabled = false;
+    /** Whether the current gesture is classified on the worker; latched on ACTION_DOWN. */
+    private boolean mAsyncGesture = false;
+    /** Number of touch events posted to the worker. Only used on the main thread. */
+    private long mPostedEvents;
+    /** Number of touch events the worker has classified. Guarded by {@link #mLock}. */
+    private long mProcessedEvents;
+
     protected final ContentObserver mSettingsObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
@@ -93,6 +118,10 @@ public class HumanInteractionClassifier extends Classifier {
                 Settings.Global.getUriFor(HIC_ENABLE), false,
                 mSettingsObserver,
                 UserHandle.USER_ALL);
+        mContext.getContentResolver().registerContentObserver(
+                Settings.Global.getUriFor(HIC_ASYNC), false,
+                mSettingsObserver,
+                UserHandle.USER_ALL);
 
         updateConfiguration();
     }
@@ -111,10 +140,30 @@ public class HumanInteractionClassifier extends Classifier {
         mEnableClassifier = 0 != Settings.Global.getInt(
                 mContext.getContentResolver(),
                 HIC_ENABLE, defaultValue ? 1 : 0);
+
+        // In async mode touch events are copied and classified on a worker thread, so that
+        // the classifiers do not run during touch dispatch. isFalseTouch() then waits for the
+        // worker to catch up.
+        mAsyncEnabled = 0 != Settings.Global.getInt(
+                mContext.getContentResolver(),
+                HIC_ASYNC, 0);
+        if (mAsyncEnabled && mWorkerHandler == null) {
+            HandlerThread thread = new HandlerThread("FalsingClassifier",
+                    Process.THREAD_PRIORITY_FOREGROUND);
+            thread.start();
+            mWorkerHandler = new Handler(thread.getLooper(), this::handleWorkerMessage);
+        }
     }
 
     public void setType(int type) {
-        mCurrentType = type;
+        if (mAsyncGesture) {
+            // Keep the type in order with the touch events already queued for the worker.
+            mWorkerHandler.obtainMessage(MSG_SET_TYPE, type, 0).sendToTarget();
+        } else {
+            synchronized (mLock) {
+                mCurrentType = type;
+            }
+        }
     }
 
     @Override
@@ -123,6 +172,46 @@ public class HumanInteractionClassifier extends Classifier {
             return;
         }
 
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            mAsyncGesture = mAsyncEnabled;
+        }
+        if (mAsyncGesture) {
+            // The copy carries the historical samples batched into the event as well.
+            mPostedEvents++;
+            mWorkerHandler.obtainMessage(MSG_TOUCH_EVENT, MotionEvent.obtain(event))
+                    .sendToTarget();
+        } else {
+            long start = SystemClock.elapsedRealtimeNanos();
+            synchronized (mLock) {
+                handleTouchEvent(event);
+            }
+            FalsingLog.addClassificationTime(SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    private boolean handleWorkerMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_TOUCH_EVENT:
+                MotionEvent event = (MotionEvent) msg.obj;
+                long start = SystemClock.elapsedRealtimeNanos();
+                synchronized (mLock) {
+                    handleTouchEvent(event);
+                    mProcessedEvents++;
+                    mLock.notifyAll();
+                }
+                FalsingLog.addClassificationTime(SystemClock.elapsedRealtimeNanos() - start);
+                event.recycle();
+                return true;
+            case MSG_SET_TYPE:
+                synchronized (mLock) {
+                    mCurrentType = msg.arg1;
+                }
+                return true;
+        }
+        return false;
+    }
+
+    private void handleTouchEvent(MotionEvent event) {
         // If the user is dragging down the notification, they might want to drag it down
         // enough to see the content, read it for a while and then lift the finger to open
         // the notification. This kind of motion scores very bad in the Classifier so the
@@ -132,19 +221,23 @@ public class HumanInteractionClassifier extends Classifier {
         // MotionEvent and sent to the Classifiers.
         if (mCurrentType == Classifier.NOTIFICATION_DRAG_DOWN) {
             mBufferedEvents.add(MotionEvent.obtain(event));
-            Point pointEnd = new Point(event.getX() / mDpi, event.getY() / mDpi);
+            float endX = event.getX() / mDpi;
+            float endY = event.getY() / mDpi;
 
-            while (pointEnd.dist(new Point(mBufferedEvents.getFirst().getX() / mDpi,
-                    mBufferedEvents.getFirst().getY() / mDpi)) > FINGER_DISTANCE) {
+            while (Point.dist(endX, endY, mBufferedEvents.getFirst().getX() / mDpi,
+                    mBufferedEvents.getFirst().getY() / mDpi) > FINGER_DISTANCE) {
                 addTouchEvent(mBufferedEvents.getFirst());
-                mBufferedEvents.remove();
+                mBufferedEvents.remove().recycle();
             }
 
             int action = event.getActionMasked();
             if (action == MotionEvent.ACTION_UP) {
                 mBufferedEvents.getFirst().setAction(MotionEvent.ACTION_UP);
                 addTouchEvent(mBufferedEvents.getFirst());
-                mBufferedEvents.clear();
+                // Hand the copies back to the MotionEvent pool instead of leaving them to the GC.
+                while (!mBufferedEvents.isEmpty()) {
+                    mBufferedEvents.remove().recycle();
+                }
             }
         } else {
             addTouchEvent(event);
@@ -198,7 +291,7 @@ public class HumanInteractionClassifier extends Classifier {
                 FalsingLog.i(" addTouchEvent", sb.toString());
             }
             mHistoryEvaluator.addGesture(evaluation);
-            setType(Classifier.GENERIC);
+            mCurrentType = Classifier.GENERIC;
         }
 
         mClassifierData.cleanUp(event);
@@ -206,18 +299,32 @@ public class HumanInteractionClassifier extends Classifier {
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        for (Classifier c : mStrokeClassifiers) {
-            c.onSensorChanged(event);
-        }
+        synchronized (mLock) {
+            for (Classifier c : mStrokeClassifiers) {
+                c.onSensorChanged(event);
+            }
 
-        for (Classifier c : mGestureClassifiers) {
-            c.onSensorChanged(event);
+            for (Classifier c : mGestureClassifiers) {
+                c.onSensorChanged(event);
+            }
         }
     }
 
     public boolean isFalseTouch() {
         if (mEnableClassifier) {
-            float evaluation = mHistoryEvaluator.getEvaluation();
+            float evaluation;
+            synchronized (mLock) {
+                if (mAsyncGesture && !awaitClassificationLocked()) {
+                    // The worker did not finish in time, so we can't tell. Err on the side of
+                    // treating it as a false touch; the user can still retry or use the bouncer.
+                    if (FalsingLog.ENABLED) {
+                        FalsingLog.w("isFalseTouch", "classification timed out after "
+                                + ASYNC_TIMEOUT_MS + "ms, result=1");
+                    }
+                    return true;
+                }
+                evaluation = mHistoryEvaluator.getEvaluation();
+            }
             boolean result = evaluation >= 5.0f;
             if (FalsingLog.ENABLED) {
                 FalsingLog.i("isFalseTouch", new StringBuilder()
@@ -229,6 +336,29 @@ public class HumanInteractionClassifier extends Classifier {
         return false;
     }
 
+    /**
+     * Waits until the worker has classified all touch events posted so far.
+     *
+     * @return false if it didn't within {@link #ASYNC_TIMEOUT_MS}
+     */
+    private boolean awaitClassificationLocked() {
+        final long target = mPostedEvents;
+        final long start = SystemClock.elapsedRealtime();
+        long remaining = ASYNC_TIMEOUT_MS;
+        while (mProcessedEvents < target && remaining > 0) {
+            try {
+                mLock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = ASYNC_TIMEOUT_MS - (SystemClock.elapsedRealtime() - start);
+        }
+        boolean done = mProcessedEvents >= target;
+        FalsingLog.addWaitTime(SystemClock.elapsedRealtime() - start, !done);
+        return done;
+    }
+
     public boolean isEnabled() {
         return mEnableClassifier;
     }
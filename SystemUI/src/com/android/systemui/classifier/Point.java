@@ -38,7 +38,7 @@ public class Point {
     }
 
     public float dist(Point a) {
-        return (float) Math.hypot(a.x - x, a.y - y);
+        return dist(x, y, a.x, a.y);
     }
 
     /**
@@ -46,7 +46,7 @@ public class Point {
      * vector from point x to point y
      */
     public float crossProduct(Point a, Point b) {
-        return (a.x - x) * (b.y - y) - (a.y - y) * (b.x - x);
+        return crossProduct(x, y, a.x, a.y, b.x, b.y);
     }
 
     /**
@@ -54,7 +54,7 @@ public class Point {
      * vector from point x to point y
      */
     public float dotProduct(Point a, Point b) {
-        return (a.x - x) * (b.x - x) + (a.y - y) * (b.y - y);
+        return dotProduct(x, y, a.x, a.y, b.x, b.y);
     }
 
     /**
@@ -64,15 +64,40 @@ public class Point {
      * @return the angle in radians
      */
     public float getAngle(Point a, Point b) {
-        float dist1 = dist(a);
-        float dist2 = dist(b);
+        return getAngle(x, y, a.x, a.y, b.x, b.y);
+    }
+
+    // The static variants below work on plain coordinates, so that the classifiers can evaluate
+    // strokes straight from the sample buffers of {@link Stroke} without allocating Points.
+
+    public static float dist(float x1, float y1, float x2, float y2) {
+        return (float) Math.hypot(x2 - x1, y2 - y1);
+    }
+
+    public static float crossProduct(float x, float y, float ax, float ay, float bx, float by) {
+        return (ax - x) * (by - y) - (ay - y) * (bx - x);
+    }
+
+    public static float dotProduct(float x, float y, float ax, float ay, float bx, float by) {
+        return (ax - x) * (bx - x) + (ay - y) * (by - y);
+    }
+
+    /**
+     * Calculates the angle in radians created by points (a, (x, y), b). If any two of these
+     * points are the same, the method will return 0.0f
+     *
+     * @return the angle in radians
+     */
+    public static float getAngle(float x, float y, float ax, float ay, float bx, float by) {
+        float dist1 = dist(x, y, ax, ay);
+        float dist2 = dist(x, y, bx, by);
 
         if (dist1 == 0.0f || dist2 == 0.0f) {
             return 0.0f;
         }
 
-        float crossProduct = crossProduct(a, b);
-        float dotProduct = dotProduct(a, b);
+        float crossProduct = crossProduct(x, y, ax, ay, bx, by);
+        float dotProduct = dotProduct(x, y, ax, ay, bx, by);
         float cos = Math.min(1.0f, Math.max(-1.0f, dotProduct / dist1 / dist2));
         float angle = (float) Math.acos(cos);
         if (crossProduct < 0.0) {
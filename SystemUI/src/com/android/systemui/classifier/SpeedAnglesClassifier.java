@@ -16,12 +16,9 @@
 
 package com.android.systemui.classifier;
 
+import android.util.SparseArray;
 import android.view.MotionEvent;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-
 /**
  * A classifier which for each point from a stroke, it creates a point on plane with coordinates
  * (timeOffsetNano, distanceCoveredUpToThisPoint) (scaled by DURATION_SCALE and LENGTH_SCALE)
@@ -34,7 +31,7 @@ import java.util.List;
  * should be in this interval.
  */
 public class SpeedAnglesClassifier extends StrokeClassifier {
-    private HashMap<Stroke, Data> mStrokeMap = new HashMap<>();
+    private SparseArray<Data> mStrokeMap = new SparseArray<>();
 
     public SpeedAnglesClassifier(ClassifierData classifierData) {
         mClassifierData = classifierData;
@@ -49,28 +46,29 @@ public class SpeedAnglesClassifier extends StrokeClassifier {
     public void onTouchEvent(MotionEvent event) {
         int action = event.getActionMasked();
 
-        if (action == MotionEvent.ACTION_DOWN) {
-            mStrokeMap.clear();
-        }
-
         for (int i = 0; i < event.getPointerCount(); i++) {
             Stroke stroke = mClassifierData.getStroke(event.getPointerId(i));
 
-            if (mStrokeMap.get(stroke) == null) {
-                mStrokeMap.put(stroke, new Data());
+            Data data = mStrokeMap.get(stroke.getPointerId());
+            if (data == null) {
+                data = new Data();
+                mStrokeMap.put(stroke.getPointerId(), data);
+            } else if (stroke.getCount() == 1) {
+                // A new stroke for this pointer id; reuse the data of the previous one.
+                data.reset();
             }
 
             if (action != MotionEvent.ACTION_UP && action != MotionEvent.ACTION_CANCEL
                     && !(action == MotionEvent.ACTION_POINTER_UP && i == event.getActionIndex())) {
-                mStrokeMap.get(stroke).addPoint(
-                        stroke.getPoints().get(stroke.getPoints().size() - 1));
+                data.addPoint(stroke.getLastX(), stroke.getLastY(),
+                        stroke.getLastTimeOffsetNano());
             }
         }
     }
 
     @Override
     public float getFalseTouchEvaluation(int type, Stroke stroke) {
-        Data data = mStrokeMap.get(stroke);
+        Data data = mStrokeMap.get(stroke.getPointerId());
         return SpeedVarianceEvaluator.evaluate(data.getAnglesVariance())
                 + SpeedAnglesPercentageEvaluator.evaluate(data.getAnglesPercentage());
     }
@@ -80,8 +78,12 @@ public class SpeedAnglesClassifier extends StrokeClassifier {
         private final float LENGTH_SCALE = 1.0f;
         private final float ANGLE_DEVIATION = (float) Math.PI / 10.0f;
 
-        private List<Point> mLastThreePoints = new ArrayList<>();
-        private Point mPreviousPoint;
+        private final float[] mLastThreeXs = new float[3];
+        private final float[] mLastThreeYs = new float[3];
+        private int mLastThreeCount;
+        private boolean mHasPreviousPoint;
+        private float mPreviousX;
+        private float mPreviousY;
         private float mPreviousAngle;
         private float mSumSquares;
         private float mSum;
@@ -91,7 +93,12 @@ public class SpeedAnglesClassifier extends StrokeClassifier {
         private float mAcceleratingAngles;
 
         public Data() {
-            mPreviousPoint = null;
+            reset();
+        }
+
+        public void reset() {
+            mLastThreeCount = 0;
+            mHasPreviousPoint = false;
             mPreviousAngle = (float) Math.PI;
             mSumSquares = 0.0f;
             mSum = 0.0f;
@@ -100,25 +107,36 @@ public class SpeedAnglesClassifier extends StrokeClassifier {
             mAnglesCount = mAcceleratingAngles = 0.0f;
         }
 
-        public void addPoint(Point point) {
-            if (mPreviousPoint != null) {
-                mDist += mPreviousPoint.dist(point);
+        public void addPoint(float x, float y, long timeOffsetNano) {
+            if (mHasPreviousPoint) {
+                mDist += Point.dist(mPreviousX, mPreviousY, x, y);
             }
 
-            mPreviousPoint = point;
-            Point speedPoint = new Point((float) point.timeOffsetNano / DURATION_SCALE,
-                    mDist / LENGTH_SCALE);
+            mHasPreviousPoint = true;
+            mPreviousX = x;
+            mPreviousY = y;
+            float speedX = (float) timeOffsetNano / DURATION_SCALE;
+            float speedY = mDist / LENGTH_SCALE;
 
             // Checking if the added point is different than the previously added point
             // Repetitions are being ignored so that proper angles are calculated.
-            if (mLastThreePoints.isEmpty()
-                    || !mLastThreePoints.get(mLastThreePoints.size() - 1).equals(speedPoint)) {
-                mLastThreePoints.add(speedPoint);
-                if (mLastThreePoints.size() == 4) {
-                    mLastThreePoints.remove(0);
-
-                    float angle = mLastThreePoints.get(1).getAngle(mLastThreePoints.get(0),
-                            mLastThreePoints.get(2));
+            int last = mLastThreeCount - 1;
+            if (mLastThreeCount == 0
+                    || mLastThreeXs[last] != speedX || mLastThreeYs[last] != speedY) {
+                if (mLastThreeCount < 3) {
+                    mLastThreeXs[mLastThreeCount] = speedX;
+                    mLastThreeYs[mLastThreeCount] = speedY;
+                    mLastThreeCount++;
+                } else {
+                    mLastThreeXs[0] = mLastThreeXs[1];
+                    mLastThreeYs[0] = mLastThreeYs[1];
+                    mLastThreeXs[1] = mLastThreeXs[2];
+                    mLastThreeYs[1] = mLastThreeYs[2];
+                    mLastThreeXs[2] = speedX;
+                    mLastThreeYs[2] = speedY;
+
+                    float angle = Point.getAngle(mLastThreeXs[1], mLastThreeYs[1],
+                            mLastThreeXs[0], mLastThreeYs[0], mLastThreeXs[2], mLastThreeYs[2]);
 
                     mAnglesCount++;
                     if (angle >= (float) Math.PI - ANGLE_DEVIATION) {
@@ -145,4 +163,4 @@ public class SpeedAnglesClassifier extends StrokeClassifier {
             return (mAcceleratingAngles) / mAnglesCount;
         }
     }
-}
\ No newline at end of file
+}
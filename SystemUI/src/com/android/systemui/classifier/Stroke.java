@@ -16,16 +16,29 @@
 
 package com.android.systemui.classifier;
 
-import java.util.ArrayList;
-
 /**
  * Contains data about a stroke (a single trace, all the events from a given id from the
  * DOWN/POINTER_DOWN event till the UP/POINTER_UP/CANCEL event.)
+ *
+ * Only the first point and the last {@link #HISTORY_SIZE} points are kept, in primitive ring
+ * buffers; the classifiers accumulate everything else incrementally as points are added.
+ * Strokes are reused by {@link ClassifierData} through {@link #reset}, so adding points does not
+ * allocate.
  */
 public class Stroke {
+    /** Number of most recent points which can be read back. Must be a power of two. */
+    public static final int HISTORY_SIZE = 8;
+    private static final int HISTORY_MASK = HISTORY_SIZE - 1;
+
     private final float NANOS_TO_SECONDS = 1e9f;
 
-    private ArrayList<Point> mPoints = new ArrayList<>();
+    private final float[] mXs = new float[HISTORY_SIZE];
+    private final float[] mYs = new float[HISTORY_SIZE];
+    private final long[] mTimeOffsetsNano = new long[HISTORY_SIZE];
+    private int mCount;
+    private float mFirstX;
+    private float mFirstY;
+    private int mPointerId;
     private long mStartTimeNano;
     private long mEndTimeNano;
     private float mLength;
@@ -36,17 +49,42 @@ public class Stroke {
         mStartTimeNano = mEndTimeNano = eventTimeNano;
     }
 
+    /**
+     * Clears the stroke so it can be reused for a new trace.
+     */
+    public void reset(int pointerId, long eventTimeNano) {
+        mPointerId = pointerId;
+        mStartTimeNano = mEndTimeNano = eventTimeNano;
+        mCount = 0;
+        mLength = 0;
+    }
+
     public void addPoint(float x, float y, long eventTimeNano) {
         mEndTimeNano = eventTimeNano;
-        Point point = new Point(x / mDpi, y / mDpi, eventTimeNano - mStartTimeNano);
-        if (!mPoints.isEmpty()) {
-            mLength += mPoints.get(mPoints.size() - 1).dist(point);
+        x /= mDpi;
+        y /= mDpi;
+        if (mCount == 0) {
+            mFirstX = x;
+            mFirstY = y;
+        } else {
+            mLength += Point.dist(getLastX(), getLastY(), x, y);
         }
-        mPoints.add(point);
+        int slot = mCount & HISTORY_MASK;
+        mXs[slot] = x;
+        mYs[slot] = y;
+        mTimeOffsetsNano[slot] = eventTimeNano - mStartTimeNano;
+        mCount++;
+    }
+
+    /**
+     * @return the id from MotionEvent of the pointer which made this stroke
+     */
+    public int getPointerId() {
+        return mPointerId;
     }
 
     public int getCount() {
-        return mPoints.size();
+        return mCount;
     }
 
     public float getTotalLength() {
@@ -54,7 +92,7 @@ public class Stroke {
     }
 
     public float getEndPointLength() {
-        return mPoints.get(0).dist(mPoints.get(mPoints.size() - 1));
+        return Point.dist(mFirstX, mFirstY, getLastX(), getLastY());
     }
 
     public long getDurationNanos() {
@@ -65,7 +103,55 @@ public class Stroke {
         return (float) getDurationNanos() / NANOS_TO_SECONDS;
     }
 
-    public ArrayList<Point> getPoints() {
-        return mPoints;
+    public float getFirstX() {
+        return mFirstX;
+    }
+
+    public float getFirstY() {
+        return mFirstY;
+    }
+
+    public float getLastX() {
+        return getX(mCount - 1);
+    }
+
+    public float getLastY() {
+        return getY(mCount - 1);
+    }
+
+    public long getLastTimeOffsetNano() {
+        return getTimeOffsetNano(mCount - 1);
+    }
+
+    /**
+     * @param index the index of the point in the stroke; only the last {@link #HISTORY_SIZE}
+     *              points are available
+     * @return the x coordinate of the point, in inches
+     */
+    public float getX(int index) {
+        return mXs[slot(index)];
+    }
+
+    /**
+     * @see #getX(int)
+     */
+    public float getY(int index) {
+        return mYs[slot(index)];
+    }
+
+    /**
+     * @see #getX(int)
+     * @return the time of the point relative to the start of the stroke
+     */
+    public long getTimeOffsetNano(int index) {
+        return mTimeOffsetsNano[slot(index)];
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= mCount || index < mCount - HISTORY_SIZE) {
+            throw new IndexOutOfBoundsException("index " + index + " of " + mCount
+                    + " points is not in the history");
+        }
+        return index & HISTORY_MASK;
     }
 }
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.systemui.plugins;
+
+import android.annotation.Nullable;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ResolveInfo;
+import android.content.pm.Signature;
+import android.os.Build;
+import android.os.UserManager;
+import android.provider.Settings;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.HexDump;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent index of the plugins found for each action, so SysUI doesn't have to ask the
+ * package manager to resolve every plugin action each time it starts.
+ *
+ * <p>Each plugin is recorded with the version code and signing certificates of its package and
+ * with the outcome of its {@link VersionInfo} check. The index is dropped on system and SysUI
+ * updates, packages which changed since it was last used are resolved again, and while SysUI runs
+ * it is kept up to date from the package broadcasts received by {@link PluginManagerImpl}.
+ */
+class PluginIndex {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "PluginIndex";
+
+    private static final String PREFS = "plugin_index";
+
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String BOOT_COUNT = "boot_count";
+    private static final String SEQUENCE = "sequence";
+    private static final String ACTION_PREFIX = "action:";
+    private static final String STALE_PREFIX = "stale:";
+    // Plugins which aren't direct boot aware can't be resolved until the user unlocks, so what is
+    // found before is indexed separately.
+    private static final String LOCKED_SUFFIX = "#locked";
+
+    static final int STATUS_UNCHECKED = 0;
+    static final int STATUS_VALID = 1;
+    static final int STATUS_TOO_OLD = 2;
+    static final int STATUS_TOO_NEW = 3;
+
+    private final Context mContext;
+    private final PackageManager mPm;
+    private final SharedPreferences mPrefs;
+    private final UserManager mUserManager;
+    private final ArrayMap<String, ActionIndex> mActions = new ArrayMap<>();
+    // Packages whose version and signatures were looked up since SysUI started.
+    private final ArrayMap<String, PackageIdentity> mPackages = new ArrayMap<>();
+    private boolean mLoaded;
+    private String mFingerprint;
+
+    PluginIndex(Context context) {
+        this(context, context.getPackageManager(), context.getSharedPreferences(PREFS, 0));
+    }
+
+    @VisibleForTesting
+    PluginIndex(Context context, PackageManager pm, SharedPreferences prefs) {
+        mContext = context;
+        mPm = pm;
+        mPrefs = prefs;
+        mUserManager = context.getSystemService(UserManager.class);
+    }
+
+    /**
+     * @param pkg the only package to look at, or {@code null} for all of them
+     * @return the plugins for {@code action}, resolved through the package manager only if they
+     *         aren't indexed yet, {@code pkg} is given, or the packages they are in changed
+     */
+    synchronized List<Entry> query(String action, @Nullable String pkg) {
+        ensureLoaded();
+        final String key = getKey(action);
+        ActionIndex index = mActions.get(key);
+        boolean changed = true;
+        if (index == null) {
+            index = new ActionIndex();
+            mActions.put(key, index);
+            resolve(action, null, index);
+        } else if (pkg != null) {
+            resolve(action, pkg, index);
+        } else {
+            for (int i = 0; i < index.mEntries.size(); i++) {
+                Entry entry = index.mEntries.get(i);
+                PackageIdentity identity = getPackageIdentity(entry.getPackageName());
+                if (identity == null || !identity.matches(entry)) {
+                    index.mStalePackages.add(entry.getPackageName());
+                }
+            }
+            changed = !index.mStalePackages.isEmpty();
+            ArrayList<String> stale = new ArrayList<>(index.mStalePackages);
+            for (int i = 0; i < stale.size(); i++) {
+                resolve(action, stale.get(i), index);
+            }
+        }
+        if (changed) {
+            save(key, index);
+        } else if (DEBUG) {
+            Log.d(TAG, "Served " + action + " from index");
+        }
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < index.mEntries.size(); i++) {
+            Entry entry = index.mEntries.get(i);
+            if (pkg == null || pkg.equals(entry.getPackageName())) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Records the outcome of the {@link VersionInfo} check of a plugin.
+     */
+    synchronized void setStatus(String action, ComponentName component, int status) {
+        final String key = getKey(action);
+        ActionIndex index = mActions.get(key);
+        if (index == null) return;
+        for (int i = 0; i < index.mEntries.size(); i++) {
+            Entry entry = index.mEntries.get(i);
+            if (entry.mComponent.equals(component) && entry.mStatus != status) {
+                index.mEntries.set(i, new Entry(component, entry.mVersionCode, entry.mDigest,
+                        status));
+                save(key, index);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Makes every action resolve {@code pkg} again, as it may have added, removed or changed
+     * plugins.
+     */
+    synchronized void onPackageChanged(String pkg) {
+        // Changes before the index is loaded are picked up through getChangedPackages.
+        if (!mLoaded) return;
+        markStale(pkg);
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (int i = 0; i < mActions.size(); i++) {
+            editor.putStringSet(STALE_PREFIX + mActions.keyAt(i),
+                    new ArraySet<>(mActions.valueAt(i).mStalePackages));
+        }
+        editor.apply();
+    }
+
+    /**
+     * Drops a plugin which is being disabled, SysUI is likely about to crash so this is written
+     * out right away.
+     */
+    synchronized void onComponentDisabled(ComponentName component) {
+        ensureLoaded();
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (int i = 0; i < mActions.size(); i++) {
+            ActionIndex index = mActions.valueAt(i);
+            for (int j = index.mEntries.size() - 1; j >= 0; j--) {
+                if (index.mEntries.get(j).mComponent.equals(component)) {
+                    index.mEntries.remove(j);
+                    editor.putStringSet(ACTION_PREFIX + mActions.keyAt(i), index.getEntrySet());
+                }
+            }
+        }
+        editor.commit();
+    }
+
+    /**
+     * Forgets everything, for when package changes can no longer be followed.
+     */
+    synchronized void clear() {
+        mActions.clear();
+        mPackages.clear();
+        mPrefs.edit().clear().putString(FINGERPRINT, getFingerprint()).apply();
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) return;
+        mLoaded = true;
+        if (!getFingerprint().equals(mPrefs.getString(FINGERPRINT, null))) {
+            // Plugin interfaces may have changed with the update, so check everything again.
+            mPrefs.edit().clear().putString(FINGERPRINT, getFingerprint()).apply();
+        } else {
+            for (Map.Entry<String, ?> pref : mPrefs.getAll().entrySet()) {
+                if (!pref.getKey().startsWith(ACTION_PREFIX)) continue;
+                String key = pref.getKey().substring(ACTION_PREFIX.length());
+                ActionIndex index = ActionIndex.parse((Set<String>) pref.getValue(),
+                        mPrefs.getStringSet(STALE_PREFIX + key, null));
+                if (index != null) {
+                    mActions.put(key, index);
+                }
+            }
+        }
+        // The sequence number of changed packages restarts on every boot.
+        int bootCount = Settings.Global.getInt(mContext.getContentResolver(),
+                Settings.Global.BOOT_COUNT, 0);
+        int sequence = bootCount == mPrefs.getInt(BOOT_COUNT, -1)
+                ? mPrefs.getInt(SEQUENCE, 0) : 0;
+        ChangedPackages changedPackages = mPm.getChangedPackages(sequence);
+        if (changedPackages != null) {
+            for (String pkg : changedPackages.getPackageNames()) {
+                markStale(pkg);
+            }
+            sequence = changedPackages.getSequenceNumber();
+        }
+        SharedPreferences.Editor editor = mPrefs.edit()
+                .putInt(BOOT_COUNT, bootCount)
+                .putInt(SEQUENCE, sequence);
+        for (int i = 0; i < mActions.size(); i++) {
+            editor.putStringSet(STALE_PREFIX + mActions.keyAt(i),
+                    new ArraySet<>(mActions.valueAt(i).mStalePackages));
+        }
+        editor.apply();
+        if (DEBUG) Log.d(TAG, "Loaded " + mActions.size() + " actions");
+    }
+
+    private void markStale(String pkg) {
+        mPackages.remove(pkg);
+        for (int i = 0; i < mActions.size(); i++) {
+            mActions.valueAt(i).mStalePackages.add(pkg);
+        }
+    }
+
+    private void resolve(String action, @Nullable String pkg, ActionIndex index) {
+        // This isn't actually a service and shouldn't ever be started, but is
+        // a convenient PM based way to manage our plugins.
+        Intent intent = new Intent(action);
+        if (pkg != null) {
+            intent.setPackage(pkg);
+        }
+        List<ResolveInfo> result = mPm.queryIntentServices(intent, 0);
+        ArrayList<Entry> previous = new ArrayList<>(index.mEntries);
+        if (pkg != null) {
+            index.removePackage(pkg);
+            index.mStalePackages.remove(pkg);
+        } else {
+            index.mEntries.clear();
+            index.mStalePackages.clear();
+        }
+        for (ResolveInfo info : result) {
+            ComponentName component = new ComponentName(info.serviceInfo.packageName,
+                    info.serviceInfo.name);
+            PackageIdentity identity = getPackageIdentity(component.getPackageName());
+            int versionCode = identity != null ? identity.mVersionCode : -1;
+            String digest = identity != null ? identity.mDigest : "";
+            int status = STATUS_UNCHECKED;
+            for (int i = 0; i < previous.size(); i++) {
+                Entry old = previous.get(i);
+                if (old.mComponent.equals(component) && identity != null
+                        && identity.matches(old)) {
+                    status = old.mStatus;
+                }
+            }
+            index.mEntries.add(new Entry(component, versionCode, digest, status));
+        }
+        if (DEBUG) Log.d(TAG, "Resolved " + result.size() + " plugins for " + action);
+    }
+
+    private PackageIdentity getPackageIdentity(String pkg) {
+        PackageIdentity identity = mPackages.get(pkg);
+        if (identity == null) {
+            try {
+                PackageInfo info = mPm.getPackageInfo(pkg, PackageManager.GET_SIGNATURES);
+                if (info == null) return null;
+                identity = new PackageIdentity(info.versionCode, digest(info.signatures));
+                mPackages.put(pkg, identity);
+            } catch (NameNotFoundException e) {
+                return null;
+            }
+        }
+        return identity;
+    }
+
+    /**
+     * @return what the index is valid for: the system build and the installed version of SysUI,
+     *         which the {@link VersionInfo} of the plugins is checked against
+     */
+    private String getFingerprint() {
+        if (mFingerprint == null) {
+            String fingerprint = Build.FINGERPRINT;
+            try {
+                PackageInfo info = mPm.getPackageInfo(mContext.getPackageName(), 0);
+                if (info != null) {
+                    // Updates of SysUI which keep the version code still change the update time.
+                    fingerprint += "/" + info.versionCode + "/" + info.lastUpdateTime;
+                }
+            } catch (NameNotFoundException e) {
+                Log.w(TAG, "Can't find own package", e);
+            }
+            mFingerprint = fingerprint;
+        }
+        return mFingerprint;
+    }
+
+    private String getKey(String action) {
+        return mUserManager == null || mUserManager.isUserUnlocked()
+                ? action : action + LOCKED_SUFFIX;
+    }
+
+    private void save(String key, ActionIndex index) {
+        mPrefs.edit()
+                .putStringSet(ACTION_PREFIX + key, index.getEntrySet())
+                .putStringSet(STALE_PREFIX + key, new ArraySet<>(index.mStalePackages))
+                .apply();
+    }
+
+    private static String digest(Signature[] signatures) {
+        if (signatures == null) return "";
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Signature signature : signatures) {
+                digest.update(signature.toByteArray());
+            }
+            return HexDump.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "Can't digest signatures", e);
+            return "";
+        }
+    }
+
+    static class Entry {
+        private static final String SEPARATOR = ";";
+
+        private final ComponentName mComponent;
+        private final int mVersionCode;
+        private final String mDigest;
+        private final int mStatus;
+
+        Entry(ComponentName component, int versionCode, String digest, int status) {
+            mComponent = component;
+            mVersionCode = versionCode;
+            mDigest = digest;
+            mStatus = status;
+        }
+
+        ComponentName getComponent() {
+            return mComponent;
+        }
+
+        String getPackageName() {
+            return mComponent.getPackageName();
+        }
+
+        int getStatus() {
+            return mStatus;
+        }
+
+        private String flatten() {
+            return TextUtils.join(SEPARATOR, new Object[] {mComponent.getPackageName(),
+                    mComponent.getClassName(), mVersionCode, mDigest, mStatus});
+        }
+
+        private static Entry unflatten(String str) {
+            String[] parts = str.split(SEPARATOR, -1);
+            if (parts.length != 5) return null;
+            try {
+                return new Entry(new ComponentName(parts[0], parts[1]),
+                        Integer.parseInt(parts[2]), parts[3], Integer.parseInt(parts[4]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class ActionIndex {
+        private final ArrayList<Entry> mEntries = new ArrayList<>();
+        private final ArraySet<String> mStalePackages = new ArraySet<>();
+
+        private void removePackage(String pkg) {
+            for (int i = mEntries.size() - 1; i >= 0; i--) {
+                if (mEntries.get(i).getPackageName().equals(pkg)) {
+                    mEntries.remove(i);
+                }
+            }
+        }
+
+        private Set<String> getEntrySet() {
+            ArraySet<String> set = new ArraySet<>();
+            for (int i = 0; i < mEntries.size(); i++) {
+                set.add(mEntries.get(i).flatten());
+            }
+            return set;
+        }
+
+        private static ActionIndex parse(Set<String> entries, @Nullable Set<String> stale) {
+            ActionIndex index = new ActionIndex();
+            for (String str : entries) {
+                Entry entry = Entry.unflatten(str);
+                if (entry == null) {
+                    // Written by something else, resolve the action again.
+                    Log.w(TAG, "Invalid index entry " + str);
+                    return null;
+                }
+                index.mEntries.add(entry);
+            }
+            if (stale != null) {
+                index.mStalePackages.addAll(stale);
+            }
+            return index;
+        }
+    }
+
+    private static class PackageIdentity {
+        private final int mVersionCode;
+        private final String mDigest;
+
+        private PackageIdentity(int versionCode, String digest) {
+            mVersionCode = versionCode;
+            mDigest = digest;
+        }
+
+        private boolean matches(Entry entry) {
+            return mVersionCode == entry.mVersionCode && mDigest.equals(entry.mDigest);
+        }
+    }
+}
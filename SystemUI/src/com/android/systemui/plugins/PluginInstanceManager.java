@@ -152,8 +152,12 @@ public class PluginInstanceManager<T extends Plugin> {
         // plugin, if the plugin causing a crash cannot be identified, they are all disabled
         // assuming one of them must be bad.
         Log.w(TAG, "Disabling plugin " + info.mPackage + "/" + info.mClass);
-        mPm.setComponentEnabledSetting(
-                new ComponentName(info.mPackage, info.mClass),
+        ComponentName component = new ComponentName(info.mPackage, info.mClass);
+        PluginIndex index = mManager.getPluginIndex();
+        if (index != null) {
+            index.onComponentDisabled(component);
+        }
+        mPm.setComponentEnabledSetting(component,
                 PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
                 PackageManager.DONT_KILL_APP);
     }
@@ -261,6 +265,24 @@ public class PluginInstanceManager<T extends Plugin> {
         }
 
         private void handleQueryPlugins(String pkgName) {
+            PluginIndex index = mManager.getPluginIndex();
+            List<PluginIndex.Entry> result = index != null ? index.query(mAction, pkgName)
+                    : queryPlugins(pkgName);
+            if (DEBUG) Log.d(TAG, "Found " + result.size() + " plugins");
+            if (result.size() > 1 && !mAllowMultiple) {
+                // TODO: Show warning.
+                Log.w(TAG, "Multiple plugins found for " + mAction);
+                return;
+            }
+            for (PluginIndex.Entry entry : result) {
+                PluginInfo<T> t = handleLoadPlugin(entry.getComponent(), entry.getStatus());
+                if (t == null) continue;
+                mMainHandler.obtainMessage(mMainHandler.PLUGIN_CONNECTED, t).sendToTarget();
+                mPlugins.add(t);
+            }
+        }
+
+        private List<PluginIndex.Entry> queryPlugins(String pkgName) {
             // This isn't actually a service and shouldn't ever be started, but is
             // a convenient PM based way to manage our plugins.
             Intent intent = new Intent(mAction);
@@ -269,23 +291,17 @@ public class PluginInstanceManager<T extends Plugin> {
             }
             List<ResolveInfo> result =
                     mPm.queryIntentServices(intent, 0);
-            if (DEBUG) Log.d(TAG, "Found " + result.size() + " plugins");
-            if (result.size() > 1 && !mAllowMultiple) {
-                // TODO: Show warning.
-                Log.w(TAG, "Multiple plugins found for " + mAction);
-                return;
-            }
+            ArrayList<PluginIndex.Entry> entries = new ArrayList<>();
             for (ResolveInfo info : result) {
                 ComponentName name = new ComponentName(info.serviceInfo.packageName,
                         info.serviceInfo.name);
-                PluginInfo<T> t = handleLoadPlugin(name);
-                if (t == null) continue;
-                mMainHandler.obtainMessage(mMainHandler.PLUGIN_CONNECTED, t).sendToTarget();
-                mPlugins.add(t);
+                entries.add(new PluginIndex.Entry(name, -1 /* versionCode */, "" /* digest */,
+                        PluginIndex.STATUS_UNCHECKED));
             }
+            return entries;
         }
 
-        protected PluginInfo<T> handleLoadPlugin(ComponentName component) {
+        protected PluginInfo<T> handleLoadPlugin(ComponentName component, int indexStatus) {
             // This was already checked, but do it again here to make extra extra sure, we don't
             // use these on production builds.
             if (!isDebuggable) {
@@ -293,6 +309,14 @@ public class PluginInstanceManager<T extends Plugin> {
                 Log.d(TAG, "Somehow hit second debuggable check");
                 return null;
             }
+            if (indexStatus == PluginIndex.STATUS_TOO_OLD
+                    || indexStatus == PluginIndex.STATUS_TOO_NEW) {
+                // This build of the plugin already failed the version check, don't load it.
+                notifyInvalidVersion(component, indexStatus == PluginIndex.STATUS_TOO_NEW,
+                        null /* message */);
+                Log.w(TAG, "Plugin has invalid interface version: " + component);
+                return null;
+            }
             String pkg = component.getPackageName();
             String cls = component.getClassName();
             try {
@@ -312,45 +336,15 @@ public class PluginInstanceManager<T extends Plugin> {
                 // legacy version check.
                 T plugin = (T) pluginClass.newInstance();
                 try {
-                    VersionInfo version = checkVersion(pluginClass, plugin, mVersion);
+                    VersionInfo version = checkVersion(pluginClass, plugin, mVersion,
+                            indexStatus == PluginIndex.STATUS_VALID);
+                    setStatus(component, PluginIndex.STATUS_VALID);
                     if (DEBUG) Log.d(TAG, "createPlugin");
                     return new PluginInfo(pkg, cls, plugin, pluginContext, version);
                 } catch (InvalidVersionException e) {
-                    final int icon = mContext.getResources().getIdentifier("tuner", "drawable",
-                            mContext.getPackageName());
-                    final int color = Resources.getSystem().getIdentifier(
-                            "system_notification_accent_color", "color", "android");
-                    final Notification.Builder nb = new Notification.Builder(mContext,
-                            PluginManager.NOTIFICATION_CHANNEL_ID)
-                                    .setStyle(new Notification.BigTextStyle())
-                                    .setSmallIcon(icon)
-                                    .setWhen(0)
-                                    .setShowWhen(false)
-                                    .setVisibility(Notification.VISIBILITY_PUBLIC)
-                                    .setColor(mContext.getColor(color));
-                    String label = cls;
-                    try {
-                        label = mPm.getServiceInfo(component, 0).loadLabel(mPm).toString();
-                    } catch (NameNotFoundException e2) {
-                    }
-                    if (!e.isTooNew()) {
-                        // Localization not required as this will never ever appear in a user build.
-                        nb.setContentTitle("Plugin \"" + label + "\" is too old")
-                                .setContentText("Contact plugin developer to get an updated"
-                                        + " version.\n" + e.getMessage());
-                    } else {
-                        // Localization not required as this will never ever appear in a user build.
-                        nb.setContentTitle("Plugin \"" + label + "\" is too new")
-                                .setContentText("Check to see if an OTA is available.\n"
-                                        + e.getMessage());
-                    }
-                    Intent i = new Intent(PluginManagerImpl.DISABLE_PLUGIN).setData(
-                            Uri.parse("package://" + component.flattenToString()));
-                    PendingIntent pi = PendingIntent.getBroadcast(mContext, 0, i, 0);
-                    nb.addAction(new Action.Builder(null, "Disable plugin", pi).build());
-                    mContext.getSystemService(NotificationManager.class)
-                            .notifyAsUser(cls, SystemMessage.NOTE_PLUGIN, nb.build(),
-                                    UserHandle.ALL);
+                    setStatus(component, e.isTooNew() ? PluginIndex.STATUS_TOO_NEW
+                            : PluginIndex.STATUS_TOO_OLD);
+                    notifyInvalidVersion(component, e.isTooNew(), e.getMessage());
                     // TODO: Warn user.
                     Log.w(TAG, "Plugin has invalid interface version " + plugin.getVersion()
                             + ", expected " + mVersion);
@@ -362,14 +356,64 @@ public class PluginInstanceManager<T extends Plugin> {
             }
         }
 
-        private VersionInfo checkVersion(Class<?> pluginClass, T plugin, VersionInfo version)
-                throws InvalidVersionException {
+        private void setStatus(ComponentName component, int status) {
+            PluginIndex index = mManager.getPluginIndex();
+            if (index != null) {
+                index.setStatus(mAction, component, status);
+            }
+        }
+
+        private void notifyInvalidVersion(ComponentName component, boolean tooNew,
+                String message) {
+            final String cls = component.getClassName();
+            final int icon = mContext.getResources().getIdentifier("tuner", "drawable",
+                    mContext.getPackageName());
+            final int color = Resources.getSystem().getIdentifier(
+                    "system_notification_accent_color", "color", "android");
+            final Notification.Builder nb = new Notification.Builder(mContext,
+                    PluginManager.NOTIFICATION_CHANNEL_ID)
+                            .setStyle(new Notification.BigTextStyle())
+                            .setSmallIcon(icon)
+                            .setWhen(0)
+                            .setShowWhen(false)
+                            .setVisibility(Notification.VISIBILITY_PUBLIC)
+                            .setColor(mContext.getColor(color));
+            String label = cls;
+            try {
+                label = mPm.getServiceInfo(component, 0).loadLabel(mPm).toString();
+            } catch (NameNotFoundException e) {
+            }
+            // The details are only known when the check was just done, not when it is indexed.
+            final String details = message != null ? "\n" + message : "";
+            if (!tooNew) {
+                // Localization not required as this will never ever appear in a user build.
+                nb.setContentTitle("Plugin \"" + label + "\" is too old")
+                        .setContentText("Contact plugin developer to get an updated"
+                                + " version." + details);
+            } else {
+                // Localization not required as this will never ever appear in a user build.
+                nb.setContentTitle("Plugin \"" + label + "\" is too new")
+                        .setContentText("Check to see if an OTA is available." + details);
+            }
+            Intent i = new Intent(PluginManagerImpl.DISABLE_PLUGIN).setData(
+                    Uri.parse("package://" + component.flattenToString()));
+            PendingIntent pi = PendingIntent.getBroadcast(mContext, 0, i, 0);
+            nb.addAction(new Action.Builder(null, "Disable plugin", pi).build());
+            mContext.getSystemService(NotificationManager.class)
+                    .notifyAsUser(cls, SystemMessage.NOTE_PLUGIN, nb.build(),
+                            UserHandle.ALL);
+        }
+
+        private VersionInfo checkVersion(Class<?> pluginClass, T plugin, VersionInfo version,
+                boolean versionChecked) throws InvalidVersionException {
             VersionInfo pv = new VersionInfo().addClass(pluginClass);
             if (pv.hasVersionInfo()) {
-                version.checkVersion(pv);
+                if (!versionChecked) {
+                    version.checkVersion(pv);
+                }
             } else {
                 int fallbackVersion = plugin.getVersion();
-                if (fallbackVersion != version.getDefaultVersion()) {
+                if (!versionChecked && fallbackVersion != version.getDefaultVersion()) {
                     throw new InvalidVersionException("Invalid legacy version", false);
                 }
                 return null;
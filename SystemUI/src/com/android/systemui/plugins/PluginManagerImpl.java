@@ -70,6 +70,7 @@ public class PluginManagerImpl extends BroadcastReceiver implements PluginManage
     private final PluginInstanceManagerFactory mFactory;
     private final boolean isDebuggable;
     private final PluginPrefs mPluginPrefs;
+    private final PluginIndex mPluginIndex;
     private ClassLoaderFilter mParentClassLoader;
     private boolean mListening;
     private boolean mHasOneShot;
@@ -89,6 +90,8 @@ public class PluginManagerImpl extends BroadcastReceiver implements PluginManage
         mLooper = Dependency.get(Dependency.BG_LOOPER);
         isDebuggable = debuggable;
         mPluginPrefs = new PluginPrefs(mContext);
+        // Plugins are never loaded on production builds, so they don't need an index.
+        mPluginIndex = isDebuggable ? new PluginIndex(mContext) : null;
 
         PluginExceptionHandler uncaughtExceptionHandler = new PluginExceptionHandler(
                 defaultHandler);
@@ -194,6 +197,10 @@ public class PluginManagerImpl extends BroadcastReceiver implements PluginManage
         if (!mListening || mHasOneShot) return;
         mListening = false;
         mContext.unregisterReceiver(this);
+        // Packages changing from now on would go unnoticed, so don't trust the index anymore.
+        if (mPluginIndex != null) {
+            mPluginIndex.clear();
+        }
     }
 
     @Override
@@ -243,6 +250,9 @@ public class PluginManagerImpl extends BroadcastReceiver implements PluginManage
                 mContext.getSystemService(NotificationManager.class).notifyAsUser(pkg,
                         SystemMessage.NOTE_PLUGIN, nb.build(), UserHandle.ALL);
             }
+            if (mPluginIndex != null) {
+                mPluginIndex.onPackageChanged(pkg);
+            }
             if (clearClassLoader(pkg)) {
                 Toast.makeText(mContext, "Reloading " + pkg, Toast.LENGTH_LONG).show();
             }
@@ -258,6 +268,13 @@ public class PluginManagerImpl extends BroadcastReceiver implements PluginManage
         }
     }
 
+    /**
+     * @return the index of the plugins found so far, or {@code null} if plugins are disabled
+     */
+    PluginIndex getPluginIndex() {
+        return mPluginIndex;
+    }
+
     public ClassLoader getClassLoader(String sourceDir, String pkg) {
         if (mClassLoaders.containsKey(pkg)) {
             return mClassLoaders.get(pkg);
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.systemui.qs;
+
+import android.content.Context;
+import android.metrics.LogMaker;
+import android.util.Log;
+import android.view.View;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.R;
+import com.android.systemui.plugins.qs.DetailAdapter;
+import com.android.systemui.plugins.qs.QSIconView;
+import com.android.systemui.plugins.qs.QSTile;
+import com.android.systemui.qs.tileimpl.QSTileImpl;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Stands in for a tile which is not on the first page of quick settings, so that the tile, its
+ * handler and the controllers it listens to are only created once it is needed.
+ *
+ * <p>The tile is created when something starts listening to it, which the
+ * {@link PagedTileLayout} does for the pages which are about to become visible, or when it is
+ * interacted with. Callbacks registered before are handed over to it.
+ */
+class LazyTile implements QSTile {
+    private static final String TAG = "LazyTile";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private final QSTileHost mHost;
+    private final ArrayList<Callback> mCallbacks = new ArrayList<>();
+    private final ArrayList<WeakReference<LazyIconView>> mIconViews = new ArrayList<>();
+    private final State mPlaceholderState = new State();
+    private String mTileSpec;
+    private QSTile mTile;
+    private boolean mDestroyed;
+
+    LazyTile(QSTileHost host, String tileSpec) {
+        mHost = host;
+        mTileSpec = tileSpec;
+    }
+
+    boolean isMaterialized() {
+        return mTile != null;
+    }
+
+    /**
+     * @return the tile this stands in for, or {@code null} if it couldn't be created or turned
+     *         out to be unavailable, in which case the host drops this tile
+     */
+    @VisibleForTesting
+    QSTile materialize() {
+        if (mTile != null || mDestroyed) {
+            return mTile;
+        }
+        QSTile tile = null;
+        try {
+            tile = mHost.createTile(mTileSpec);
+        } catch (Throwable t) {
+            Log.w(TAG, "Error creating tile for spec: " + mTileSpec, t);
+        }
+        if (tile == null || !tile.isAvailable()) {
+            if (tile != null) {
+                tile.destroy();
+            }
+            mDestroyed = true;
+            mHost.onLazyTileUnavailable(this);
+            return null;
+        }
+        if (DEBUG) Log.d(TAG, "Materialized tile: " + mTileSpec);
+        tile.setTileSpec(mTileSpec);
+        mTile = tile;
+        for (int i = 0; i < mCallbacks.size(); i++) {
+            tile.addCallback(mCallbacks.get(i));
+        }
+        mCallbacks.clear();
+        for (int i = 0; i < mIconViews.size(); i++) {
+            LazyIconView iconView = mIconViews.get(i).get();
+            if (iconView != null) {
+                iconView.setDelegate(tile.createTileView(iconView.getContext()));
+            }
+        }
+        mIconViews.clear();
+        return tile;
+    }
+
+    @Override
+    public DetailAdapter getDetailAdapter() {
+        QSTile tile = materialize();
+        return tile != null ? tile.getDetailAdapter() : null;
+    }
+
+    @Override
+    public String getTileSpec() {
+        return mTileSpec;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        // Assume it is until the tile is created, it removes itself otherwise.
+        return mTile == null || mTile.isAvailable();
+    }
+
+    @Override
+    public void setTileSpec(String tileSpec) {
+        mTileSpec = tileSpec;
+        if (mTile != null) {
+            mTile.setTileSpec(tileSpec);
+        }
+    }
+
+    @Override
+    public void clearState() {
+        if (mTile != null) {
+            mTile.clearState();
+        }
+    }
+
+    @Override
+    public void refreshState() {
+        // Listening to the tile refreshes it once it is created.
+        if (mTile != null) {
+            mTile.refreshState();
+        }
+    }
+
+    @Override
+    public void addCallback(Callback callback) {
+        if (mTile != null) {
+            mTile.addCallback(callback);
+        } else {
+            mCallbacks.add(callback);
+        }
+    }
+
+    @Override
+    public void removeCallback(Callback callback) {
+        if (mTile != null) {
+            mTile.removeCallback(callback);
+        } else {
+            mCallbacks.remove(callback);
+        }
+    }
+
+    @Override
+    public void removeCallbacks() {
+        if (mTile != null) {
+            mTile.removeCallbacks();
+        } else {
+            mCallbacks.clear();
+        }
+    }
+
+    @Override
+    public QSIconView createTileView(Context context) {
+        if (mTile != null) {
+            return mTile.createTileView(context);
+        }
+        LazyIconView iconView = new LazyIconView(context);
+        mIconViews.add(new WeakReference<>(iconView));
+        return iconView;
+    }
+
+    @Override
+    public void click() {
+        QSTile tile = materialize();
+        if (tile != null) {
+            tile.click();
+        }
+    }
+
+    @Override
+    public void secondaryClick() {
+        QSTile tile = materialize();
+        if (tile != null) {
+            tile.secondaryClick();
+        }
+    }
+
+    @Override
+    public void longClick() {
+        QSTile tile = materialize();
+        if (tile != null) {
+            tile.longClick();
+        }
+    }
+
+    @Override
+    public void userSwitch(int currentUser) {
+        // A tile created later is created for the current user already.
+        if (mTile != null) {
+            mTile.userSwitch(currentUser);
+        }
+    }
+
+    @Override
+    public int getMetricsCategory() {
+        QSTile tile = materialize();
+        return tile != null ? tile.getMetricsCategory() : 0;
+    }
+
+    @Override
+    public void setListening(Object client, boolean listening) {
+        QSTile tile = listening ? materialize() : mTile;
+        if (tile != null) {
+            tile.setListening(client, listening);
+        }
+    }
+
+    @Override
+    public void setDetailListening(boolean show) {
+        QSTile tile = show ? materialize() : mTile;
+        if (tile != null) {
+            tile.setDetailListening(show);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        mDestroyed = true;
+        mCallbacks.clear();
+        mIconViews.clear();
+        if (mTile != null) {
+            mTile.destroy();
+        }
+    }
+
+    @Override
+    public CharSequence getTileLabel() {
+        QSTile tile = materialize();
+        return tile != null ? tile.getTileLabel() : null;
+    }
+
+    @Override
+    public State getState() {
+        return mTile != null ? mTile.getState() : mPlaceholderState;
+    }
+
+    @Override
+    public LogMaker populate(LogMaker logMaker) {
+        return mTile != null ? mTile.populate(logMaker) : logMaker;
+    }
+
+    void dump(PrintWriter pw) {
+        if (mTile instanceof QSTileImpl) {
+            ((QSTileImpl) mTile).dump(pw);
+        } else if (mTile == null) {
+            pw.print("    "); pw.print(mTileSpec); pw.println(" not created");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LazyTile(" + (mTile != null ? mTile : mTileSpec) + ")";
+    }
+
+    /**
+     * Icon of a tile view created before the tile, shows the icon view of the tile once it is.
+     */
+    private static class LazyIconView extends QSIconView {
+        private final int mIconSizePx;
+        private final int mTilePaddingBelowIconPx;
+        private QSIconView mDelegate;
+        private boolean mAnimationDisabled;
+
+        LazyIconView(Context context) {
+            super(context);
+            mIconSizePx = context.getResources().getDimensionPixelSize(R.dimen.qs_tile_icon_size);
+            mTilePaddingBelowIconPx = context.getResources().getDimensionPixelSize(
+                    R.dimen.qs_tile_padding_below_icon);
+        }
+
+        void setDelegate(QSIconView delegate) {
+            mDelegate = delegate;
+            if (mAnimationDisabled) {
+                delegate.disableAnimation();
+            }
+            addView(delegate);
+        }
+
+        @Override
+        public void setIcon(State state) {
+            if (mDelegate != null) {
+                mDelegate.setIcon(state);
+            }
+        }
+
+        @Override
+        public void disableAnimation() {
+            mAnimationDisabled = true;
+            if (mDelegate != null) {
+                mDelegate.disableAnimation();
+            }
+        }
+
+        @Override
+        public View getIconView() {
+            return mDelegate != null ? mDelegate.getIconView() : this;
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            if (mDelegate == null) {
+                // Take the space of a regular icon so the page doesn't jump when it's created.
+                setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec),
+                        mIconSizePx + mTilePaddingBelowIconPx);
+                return;
+            }
+            mDelegate.measure(widthMeasureSpec, heightMeasureSpec);
+            setMeasuredDimension(mDelegate.getMeasuredWidth(), mDelegate.getMeasuredHeight());
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            if (mDelegate != null) {
+                mDelegate.layout(0, 0, mDelegate.getMeasuredWidth(),
+                        mDelegate.getMeasuredHeight());
+            }
+        }
+    }
+}
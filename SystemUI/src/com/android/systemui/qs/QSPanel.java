@@ -537,6 +537,10 @@ public class QSPanel extends LinearLayout implements Tunable, Callback, Brightne
     private void logTiles() {
         for (int i = 0; i < mRecords.size(); i++) {
             QSTile tile = mRecords.get(i).tile;
+            if (tile instanceof LazyTile && !((LazyTile) tile).isMaterialized()) {
+                // Never shown, so don't create it just to log it.
+                continue;
+            }
             mMetricsLogger.write(tile.populate(new LogMaker(tile.getMetricsCategory())
                     .setType(MetricsEvent.TYPE_OPEN)));
         }
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.os.Handler;
+import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
@@ -39,6 +40,7 @@ import com.android.systemui.qs.external.CustomTile;
 import com.android.systemui.qs.external.TileLifecycleManager;
 import com.android.systemui.qs.external.TileServices;
 import com.android.systemui.qs.tileimpl.QSFactoryImpl;
+import com.android.systemui.qs.tileimpl.QSTileImpl;
 import com.android.systemui.statusbar.phone.AutoTileManager;
 import com.android.systemui.statusbar.phone.StatusBar;
 import com.android.systemui.statusbar.phone.StatusBarIconController;
@@ -50,6 +52,8 @@ import com.mediatek.systemui.ext.IQuickSettingsPlugin;
 import com.mediatek.systemui.ext.OpSystemUICustomizationFactoryBase;
 /// @}
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -63,6 +67,10 @@ public class QSTileHost implements QSHost, Tunable, PluginListener<QSFactory> {
 
     public static final String TILES_SETTING = Secure.QS_TILES;
 
+    // Only create the tiles of the first page at startup, see LazyTile.
+    private static final boolean LAZY_TILES =
+            SystemProperties.getBoolean("persist.sysui.qs.lazy_tiles", true);
+
     private final Context mContext;
     private final StatusBar mStatusBar;
     private final LinkedHashMap<String, QSTile> mTiles = new LinkedHashMap<>();
@@ -198,6 +206,7 @@ public class QSTileHost implements QSHost, Tunable, PluginListener<QSFactory> {
                     tile.getValue().destroy();
                 });
         final LinkedHashMap<String, QSTile> newTiles = new LinkedHashMap<>();
+        final int eagerTileCount = getEagerTileCount();
         for (String tileSpec : tileSpecs) {
             QSTile tile = mTiles.get(tileSpec);
             if (tile != null && (!(tile instanceof CustomTile)
@@ -215,7 +224,12 @@ public class QSTileHost implements QSHost, Tunable, PluginListener<QSFactory> {
             } else {
                 if (DEBUG) Log.d(TAG, "Creating tile: " + tileSpec);
                 try {
-                    tile = createTile(tileSpec);
+                    if (LAZY_TILES && newTiles.size() >= eagerTileCount
+                            && !tileSpec.startsWith(CustomTile.PREFIX)) {
+                        tile = new LazyTile(this, tileSpec);
+                    } else {
+                        tile = createTile(tileSpec);
+                    }
                     if (tile != null) {
                         if (tile.isAvailable()) {
                             tile.setTileSpec(tileSpec);
@@ -294,6 +308,34 @@ public class QSTileHost implements QSHost, Tunable, PluginListener<QSFactory> {
                 TextUtils.join(",", newTiles), ActivityManager.getCurrentUser());
     }
 
+    /**
+     * @return how many tiles have to be created right away, the ones shown in quick quick
+     *         settings and on the first page of quick settings in either orientation
+     */
+    private int getEagerTileCount() {
+        final Resources res = mContext.getResources();
+        final int columns = Math.max(1, res.getInteger(R.integer.quick_settings_num_columns));
+        final int rows = Math.max(res.getInteger(R.integer.quick_settings_num_rows_portrait),
+                res.getInteger(R.integer.quick_settings_num_rows));
+        return Math.max(QuickQSPanel.getNumQuickTiles(mContext), columns * rows);
+    }
+
+    /**
+     * Drops a lazily created tile which turned out to be unavailable.
+     */
+    void onLazyTileUnavailable(LazyTile tile) {
+        // This happens while the tile layout sets its pages listening, don't change the tiles
+        // underneath it.
+        Dependency.get(Dependency.MAIN_HANDLER).post(() -> {
+            if (mTiles.get(tile.getTileSpec()) != tile) return;
+            if (DEBUG) Log.d(TAG, "Removing unavailable tile: " + tile.getTileSpec());
+            mTiles.remove(tile.getTileSpec());
+            for (int i = 0; i < mCallbacks.size(); i++) {
+                mCallbacks.get(i).onTilesChanged();
+            }
+        });
+    }
+
     public QSTile createTile(String tileSpec) {
         for (int i = 0; i < mQsFactories.size(); i++) {
             QSTile t = mQsFactories.get(i).createTile(tileSpec);
@@ -320,6 +362,19 @@ public class QSTileHost implements QSHost, Tunable, PluginListener<QSFactory> {
         throw new RuntimeException("Default factory didn't create view for " + tile.getTileSpec());
     }
 
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("QSTileHost:");
+        pw.print("  mTileSpecs="); pw.println(mTileSpecs);
+        pw.println("  Tile refreshes:");
+        for (QSTile tile : mTiles.values()) {
+            if (tile instanceof LazyTile) {
+                ((LazyTile) tile).dump(pw);
+            } else if (tile instanceof QSTileImpl) {
+                ((QSTileImpl) tile).dump(pw);
+            }
+        }
+    }
+
     protected List<String> loadTileSpecs(Context context, String tileList) {
         final Resources res = context.getResources();
         String defaultTileList = res.getString(R.string.quick_settings_tiles_default);
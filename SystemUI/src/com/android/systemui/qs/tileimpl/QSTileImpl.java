@@ -36,6 +36,7 @@ import android.text.format.DateUtils;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
+import android.view.Choreographer;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.logging.MetricsLogger;
@@ -51,7 +52,9 @@ import com.android.systemui.qs.PagedTileLayout.TilePage;
 import com.android.systemui.qs.QSHost;
 import com.mediatek.systemui.statusbar.util.FeatureOptions;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base quick-settings tile, extend this to create a new tile.
@@ -67,6 +70,9 @@ public abstract class QSTileImpl<TState extends State> implements QSTile {
 
     private static final long DEFAULT_STALE_TIMEOUT = 10 * DateUtils.MINUTE_IN_MILLIS;
 
+    // Stands in for a null arg of a queued refresh, so that it can be found in the queue.
+    private static final Object REFRESH_NO_ARG = new Object();
+
     protected final QSHost mHost;
     protected final Context mContext;
     // @NonFinalForTesting
@@ -85,6 +91,31 @@ public abstract class QSTileImpl<TState extends State> implements QSTile {
     private EnforcedAdmin mEnforcedAdmin;
     private boolean mShowingDetail;
 
+    // Refresh and publish counters, requests can come from any thread.
+    private final AtomicInteger mRefreshRequests = new AtomicInteger();
+    private final AtomicInteger mCoalescedRefreshes = new AtomicInteger();
+    private int mRefreshes;
+    private int mPublishes;
+
+    // Used when the tile publishes its state at most once per frame, see
+    // shouldCoalesceStatePublishes.
+    private TState mPublishedState;
+    private Choreographer mChoreographer;
+    private boolean mPublishScheduled;
+    private final Choreographer.FrameCallback mPublishCallback = frameTimeNanos -> {
+        mPublishScheduled = false;
+        try {
+            // The state may have changed back in the meantime.
+            if (mState.copyTo(mPublishedState)) {
+                handleStateChanged();
+            }
+        } catch (Throwable t) {
+            final String error = "Error in handleStateChanged";
+            Log.w(TAG, error, t);
+            mHost.warn(error, t);
+        }
+    };
+
     public abstract TState newTileState();
 
     abstract protected void handleClick();
@@ -222,7 +253,23 @@ public abstract class QSTileImpl<TState extends State> implements QSTile {
     }
 
     protected final void refreshState(Object arg) {
-        mHandler.obtainMessage(H.REFRESH_STATE, arg).sendToTarget();
+        final Object token = arg != null ? arg : REFRESH_NO_ARG;
+        mRefreshRequests.incrementAndGet();
+        if (mHandler.hasMessages(H.REFRESH_STATE, token)) {
+            // The queued refresh would see the same arg, move it behind whatever was queued since
+            // instead of refreshing twice.
+            mHandler.removeMessages(H.REFRESH_STATE, token);
+            mCoalescedRefreshes.incrementAndGet();
+        }
+        mHandler.obtainMessage(H.REFRESH_STATE, token).sendToTarget();
+    }
+
+    /**
+     * Whether state changes are published to the callbacks at most once per frame. Meant for
+     * tiles backed by controllers which report changes many times per second.
+     */
+    protected boolean shouldCoalesceStatePublishes() {
+        return false;
     }
 
     public void clearState() {
@@ -286,17 +333,34 @@ public abstract class QSTileImpl<TState extends State> implements QSTile {
     }
 
     protected void handleRefreshState(Object arg) {
+        mRefreshes++;
         handleUpdateState(mTmpState, arg);
         final boolean changed = mTmpState.copyTo(mState);
         if (changed) {
-            handleStateChanged();
+            if (shouldCoalesceStatePublishes()) {
+                schedulePublish();
+            } else {
+                handleStateChanged();
+            }
         }
         mHandler.removeMessages(H.STALE);
         mHandler.sendEmptyMessageDelayed(H.STALE, getStaleTimeout());
         setListening(mStaleListener, false);
     }
 
+    private void schedulePublish() {
+        if (mPublishScheduled) return;
+        if (mChoreographer == null) {
+            // Created on the tile looper, so that the frame callback runs on it as well.
+            mChoreographer = Choreographer.getInstance();
+            mPublishedState = newTileState();
+        }
+        mPublishScheduled = true;
+        mChoreographer.postFrameCallback(mPublishCallback);
+    }
+
     private void handleStateChanged() {
+        mPublishes++;
         boolean delayAnnouncement = shouldAnnouncementBeDelayed();
         if (mCallbacks.size() != 0) {
             /// M: [ALPS02724123]copy value for fixing racing condition @{
@@ -359,6 +423,18 @@ public abstract class QSTileImpl<TState extends State> implements QSTile {
             handleSetListening(false);
         }
         mCallbacks.clear();
+        if (mPublishScheduled) {
+            mChoreographer.removeFrameCallback(mPublishCallback);
+            mPublishScheduled = false;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.print("    "); pw.print(mTileSpec);
+        pw.print(" requested="); pw.print(mRefreshRequests.get());
+        pw.print(" coalesced="); pw.print(mCoalescedRefreshes.get());
+        pw.print(" refreshed="); pw.print(mRefreshes);
+        pw.print(" published="); pw.println(mPublishes);
     }
 
     protected void checkIfRestrictionEnforcedByAdminOnly(State state, String userRestriction) {
@@ -444,7 +520,7 @@ public abstract class QSTileImpl<TState extends State> implements QSTile {
                     handleLongClick();
                 } else if (msg.what == REFRESH_STATE) {
                     name = "handleRefreshState";
-                    handleRefreshState(msg.obj);
+                    handleRefreshState(msg.obj != REFRESH_NO_ARG ? msg.obj : null);
                 } else if (msg.what == SHOW_DETAIL) {
                     name = "handleShowDetail";
                     handleShowDetail(msg.arg1 != 0);
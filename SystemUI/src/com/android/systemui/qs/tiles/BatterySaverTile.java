@@ -49,6 +49,12 @@ public class BatterySaverTile extends QSTileImpl<BooleanState> implements
         return new BooleanState();
     }
 
+    @Override
+    protected boolean shouldCoalesceStatePublishes() {
+        // The battery level changes with every battery broadcast.
+        return true;
+    }
+
     @Override
     public int getMetricsCategory() {
         return MetricsEvent.QS_BATTERY_TILE;
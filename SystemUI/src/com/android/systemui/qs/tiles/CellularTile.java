@@ -270,6 +270,12 @@ public class CellularTile extends QSTileImpl<SignalState> {
         }
     }
 
+    @Override
+    protected boolean shouldCoalesceStatePublishes() {
+        // Signal level and data activity change many times per second.
+        return true;
+    }
+
     @Override
     public int getMetricsCategory() {
         return MetricsEvent.QS_CELLULAR;
@@ -196,6 +196,12 @@ public class WifiTile extends QSTileImpl<SignalState> {
         state.expandedAccessibilityClassName = Switch.class.getName();
     }
 
+    @Override
+    protected boolean shouldCoalesceStatePublishes() {
+        // Signal level and data activity change many times per second.
+        return true;
+    }
+
     @Override
     public int getMetricsCategory() {
         return MetricsEvent.QS_WIFI;
@@ -54,6 +54,8 @@ import android.os.Environment;
 import android.os.PowerManager;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.provider.MediaStore;
 import android.util.DisplayMetrics;
@@ -75,12 +77,18 @@ import com.android.systemui.R;
 import com.android.systemui.SystemUI;
 import com.android.systemui.util.NotificationChannels;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * POD used in the AsyncTask which saves an image in the background.
@@ -89,11 +97,12 @@ class SaveImageInBackgroundData {
     Context context;
     Bitmap image;
     Uri imageUri;
-    Runnable finisher;
     int iconSize;
     int previewWidth;
     int previewheight;
     int errorMsgResId;
+    ScreenshotBurst burst;
+    ScreenshotBitmapPool bitmapPool;
 
     void clearImage() {
         image = null;
@@ -105,6 +114,41 @@ class SaveImageInBackgroundData {
     }
 }
 
+/**
+ * Screenshots which are taken while earlier ones are still being saved. They share a single
+ * notification, which is finalized once the last one is saved. Only accessed on the main thread.
+ */
+class ScreenshotBurst {
+    int captured;
+    int saved;
+    int failed;
+
+    /**
+     * Counts a screenshot which was captured and waits to be saved.
+     */
+    void onCaptured() {
+        captured++;
+    }
+
+    /**
+     * Counts a screenshot whose save succeeded or failed.
+     *
+     * @return whether no screenshot of the burst is left to be saved
+     */
+    boolean onSaveFinished(boolean success) {
+        if (success) {
+            saved++;
+        } else {
+            failed++;
+        }
+        return pending() == 0;
+    }
+
+    int pending() {
+        return captured - saved - failed;
+    }
+}
+
 /**
  * An AsyncTask that saves an image to the media store in the background.
  */
@@ -112,9 +156,21 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
     private static final String TAG = "SaveImageInBackgroundTask";
 
     private static final String SCREENSHOTS_DIR_NAME = "Screenshots";
-    private static final String SCREENSHOT_FILE_NAME_TEMPLATE = "Screenshot_%s.png";
+    private static final String SCREENSHOT_FILE_NAME_TEMPLATE = "Screenshot_%s.%s";
     private static final String SCREENSHOT_SHARE_SUBJECT_TEMPLATE = "Screenshot (%s)";
 
+    /** One of "png" (default), "jpeg" or "webp". */
+    private static final String FORMAT_PROPERTY = "persist.sysui.screenshot.format";
+    /** Quality hint for the lossy formats, 0-100. PNG ignores it. */
+    private static final String QUALITY_PROPERTY = "persist.sysui.screenshot.quality";
+
+    /**
+     * Encodes the screenshot to disk while the preview and notification bitmaps are created, so
+     * that the full size image doesn't have to wait for them.
+     */
+    private static final ExecutorService ENCODER = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "ScreenshotEncoder"));
+
     private final SaveImageInBackgroundData mParams;
     private final NotificationManager mNotificationManager;
     private final Notification.Builder mNotificationBuilder, mPublicNotificationBuilder;
@@ -125,6 +181,14 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
     private final BigPictureStyle mNotificationStyle;
     private final int mImageWidth;
     private final int mImageHeight;
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+    private final String mMimeType;
+    private final Future<?> mEncodeFuture;
+
+    // Per stage timings, in milliseconds
+    private final long mPreviewMillis;
+    private volatile long mEncodeMillis;
 
     // WORKAROUND: We want the same notification across screenshots that we update so that we don't
     // spam a user's notification drawer.  However, we only show the ticker for the saving state
@@ -140,13 +204,34 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
         // Prepare all the output metadata
         mParams = data;
         mImageTime = System.currentTimeMillis();
+        String extension;
+        String format = SystemProperties.get(FORMAT_PROPERTY, "png");
+        if ("jpeg".equals(format)) {
+            mFormat = Bitmap.CompressFormat.JPEG;
+            mMimeType = "image/jpeg";
+            extension = "jpg";
+        } else if ("webp".equals(format)) {
+            mFormat = Bitmap.CompressFormat.WEBP;
+            mMimeType = "image/webp";
+            extension = "webp";
+        } else {
+            mFormat = Bitmap.CompressFormat.PNG;
+            mMimeType = "image/png";
+            extension = "png";
+        }
+        mQuality = Math.max(0, Math.min(100, SystemProperties.getInt(QUALITY_PROPERTY, 100)));
         String imageDate = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(mImageTime));
-        mImageFileName = String.format(SCREENSHOT_FILE_NAME_TEMPLATE, imageDate);
+        mImageFileName = String.format(SCREENSHOT_FILE_NAME_TEMPLATE, imageDate, extension);
 
         mScreenshotDir = new File(Environment.getExternalStoragePublicDirectory(
                 Environment.DIRECTORY_PICTURES), SCREENSHOTS_DIR_NAME);
         mImageFilePath = new File(mScreenshotDir, mImageFileName).getAbsolutePath();
 
+        // Start writing the image right away, the bitmaps below only read from it
+        final Bitmap image = data.image;
+        mEncodeFuture = ENCODER.submit(() -> encodeImage(image));
+        final long previewStart = SystemClock.uptimeMillis();
+
         // Create the large notification icon
         mImageWidth = data.image.getWidth();
         mImageHeight = data.image.getHeight();
@@ -179,6 +264,7 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
         c.drawBitmap(data.image, matrix, paint);
         c.drawColor(overlayColor);
         c.setBitmap(null);
+        mPreviewMillis = SystemClock.uptimeMillis() - previewStart;
 
         // Show the intermediate notification
         mTickerAddSpace = !mTickerAddSpace;
@@ -232,12 +318,25 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
         mNotificationStyle.bigLargeIcon((Bitmap) null);
     }
 
-    @Override
-    protected Void doInBackground(Void... params) {
-        if (isCancelled()) {
-            return null;
+    /**
+     * Writes the screenshot to its file. Runs on the encoder thread.
+     */
+    private Void encodeImage(Bitmap image) throws IOException {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+        final long start = SystemClock.uptimeMillis();
+        // Create screenshot directory if it doesn't exist
+        mScreenshotDir.mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(mImageFilePath))) {
+            if (!image.compress(mFormat, mQuality, out)) {
+                throw new IOException("unable to encode screenshot as " + mFormat);
+            }
         }
+        mEncodeMillis = SystemClock.uptimeMillis() - start;
+        return null;
+    }
 
+    @Override
+    protected Void doInBackground(Void... params) {
         // By default, AsyncTask sets the worker thread to have background thread priority, so bump
         // it back up so that we save a little quicker.
         Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
@@ -247,18 +346,19 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
         Resources r = context.getResources();
 
         try {
-            // Create screenshot directory if it doesn't exist
-            mScreenshotDir.mkdirs();
-
             // media provider uses seconds for DATE_MODIFIED and DATE_ADDED, but milliseconds
             // for DATE_TAKEN
             long dateSeconds = mImageTime / 1000;
 
-            // Save
-            OutputStream out = new FileOutputStream(mImageFilePath);
-            image.compress(Bitmap.CompressFormat.PNG, 100, out);
-            out.flush();
-            out.close();
+            // Wait for the encoder to finish writing the file
+            final long waitStart = SystemClock.uptimeMillis();
+            try {
+                mEncodeFuture.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            final long waitMillis = SystemClock.uptimeMillis() - waitStart;
+            final long insertStart = SystemClock.uptimeMillis();
 
             // Save the screenshot to the MediaStore
             ContentValues values = new ContentValues();
@@ -269,17 +369,20 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
             values.put(MediaStore.Images.ImageColumns.DATE_TAKEN, mImageTime);
             values.put(MediaStore.Images.ImageColumns.DATE_ADDED, dateSeconds);
             values.put(MediaStore.Images.ImageColumns.DATE_MODIFIED, dateSeconds);
-            values.put(MediaStore.Images.ImageColumns.MIME_TYPE, "image/png");
+            values.put(MediaStore.Images.ImageColumns.MIME_TYPE, mMimeType);
             values.put(MediaStore.Images.ImageColumns.WIDTH, mImageWidth);
             values.put(MediaStore.Images.ImageColumns.HEIGHT, mImageHeight);
             values.put(MediaStore.Images.ImageColumns.SIZE, new File(mImageFilePath).length());
             Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+            Slog.d(TAG, "saved " + mImageFileName + ": preview=" + mPreviewMillis
+                    + "ms encode=" + mEncodeMillis + "ms waitForEncode=" + waitMillis
+                    + "ms insert=" + (SystemClock.uptimeMillis() - insertStart) + "ms");
 
             // Create a share intent
             String subjectDate = DateFormat.getDateTimeInstance().format(new Date(mImageTime));
             String subject = String.format(SCREENSHOT_SHARE_SUBJECT_TEMPLATE, subjectDate);
             Intent sharingIntent = new Intent(Intent.ACTION_SEND);
-            sharingIntent.setType("image/png");
+            sharingIntent.setType(mMimeType);
             sharingIntent.putExtra(Intent.EXTRA_STREAM, uri);
             sharingIntent.putExtra(Intent.EXTRA_SUBJECT, subject);
 
@@ -317,9 +420,9 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
             mParams.errorMsgResId = R.string.screenshot_failed_to_save_text;
         }
 
-        // Recycle the bitmap data
+        // Hand the bitmap data to the next screenshot of the burst
         if (image != null) {
-            image.recycle();
+            mParams.bitmapPool.release(image);
         }
 
         return null;
@@ -327,6 +430,10 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
 
     @Override
     protected void onPostExecute(Void params) {
+        final ScreenshotBurst burst = mParams.burst;
+        if (burst.onSaveFinished(mParams.errorMsgResId == 0)) {
+            mParams.bitmapPool.clear();
+        }
         if (mParams.errorMsgResId != 0) {
             // Show a message that we've failed to save the image to disk
             GlobalScreenshot.notifyScreenshotError(mParams.context, mNotificationManager,
@@ -335,10 +442,19 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
             // Show the final notification to indicate screenshot saved
             Context context = mParams.context;
             Resources r = context.getResources();
+            if (burst.pending() > 0) {
+                // Keep showing the saving notification of the next screenshot of the burst
+                mParams.clearContext();
+                return;
+            }
+            String savedText = burst.saved > 1
+                    ? r.getQuantityString(R.plurals.screenshot_burst_saved_text, burst.saved,
+                            burst.saved)
+                    : r.getString(R.string.screenshot_saved_text);
 
             // Create the intent to show the screenshot in gallery
             Intent launchIntent = new Intent(Intent.ACTION_VIEW);
-            launchIntent.setDataAndType(mParams.imageUri, "image/png");
+            launchIntent.setDataAndType(mParams.imageUri, mMimeType);
             launchIntent.setFlags(
                     Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
@@ -347,7 +463,7 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
             // Update the text and the icon for the existing notification
             mPublicNotificationBuilder
                     .setContentTitle(r.getString(R.string.screenshot_saved_title))
-                    .setContentText(r.getString(R.string.screenshot_saved_text))
+                    .setContentText(savedText)
                     .setContentIntent(PendingIntent.getActivity(mParams.context, 0, launchIntent, 0))
                     .setWhen(now)
                     .setAutoCancel(true)
@@ -355,7 +471,7 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
                             com.android.internal.R.color.system_notification_accent_color));
             mNotificationBuilder
                 .setContentTitle(r.getString(R.string.screenshot_saved_title))
-                .setContentText(r.getString(R.string.screenshot_saved_text))
+                .setContentText(savedText)
                 .setContentIntent(PendingIntent.getActivity(mParams.context, 0, launchIntent, 0))
                 .setWhen(now)
                 .setAutoCancel(true)
@@ -367,22 +483,8 @@ class SaveImageInBackgroundTask extends AsyncTask<Void, Void, Void> {
             mNotificationManager.notify(SystemMessage.NOTE_GLOBAL_SCREENSHOT,
                     mNotificationBuilder.build());
         }
-        mParams.finisher.run();
         mParams.clearContext();
     }
-
-    @Override
-    protected void onCancelled(Void params) {
-        // If we are cancelled while the task is running in the background, we may get null params.
-        // The finisher is expected to always be called back, so just use the baked-in params from
-        // the ctor in any case.
-        mParams.finisher.run();
-        mParams.clearImage();
-        mParams.clearContext();
-
-        // Cancel the posted notification
-        mNotificationManager.cancel(SystemMessage.NOTE_GLOBAL_SCREENSHOT);
-    }
 }
 
 /**
@@ -422,6 +524,8 @@ class GlobalScreenshot {
     private static final float SCREENSHOT_DROP_OUT_MIN_SCALE = SCREENSHOT_SCALE * 0.45f;
     private static final float SCREENSHOT_FAST_DROP_OUT_MIN_SCALE = SCREENSHOT_SCALE * 0.6f;
     private static final float SCREENSHOT_DROP_OUT_MIN_SCALE_OFFSET = 0f;
+    /** Screenshots of a burst which may wait to be saved before new ones are refused. */
+    private static final int MAX_PENDING_SAVES = 4;
     private final int mPreviewWidth;
     private final int mPreviewHeight;
 
@@ -446,7 +550,8 @@ class GlobalScreenshot {
     private float mBgPadding;
     private float mBgPaddingScale;
 
-    private AsyncTask<Void, Void, Void> mSaveInBgTask;
+    private final ScreenshotBitmapPool mBitmapPool = new ScreenshotBitmapPool(2);
+    private ScreenshotBurst mBurst;
 
     private MediaActionSound mCameraSound;
 
@@ -521,27 +626,42 @@ class GlobalScreenshot {
         mCameraSound.load(MediaActionSound.SHUTTER_CLICK);
     }
 
+    /**
+     * Adds a captured screenshot to the current burst, or starts a new one.
+     *
+     * @return the burst the screenshot is saved with
+     */
+    private ScreenshotBurst queueScreenshot() {
+        // Screenshots taken while earlier ones are still being saved are queued behind them
+        // instead of cancelling them, and share their notification.
+        if (mBurst == null || mBurst.pending() == 0) {
+            mBurst = new ScreenshotBurst();
+        }
+        mBurst.onCaptured();
+        return mBurst;
+    }
+
     /**
      * Creates a new worker thread and saves the screenshot to the media store.
      */
-    private void saveScreenshotInWorkerThread(Runnable finisher) {
+    private void saveScreenshotInWorkerThread(ScreenshotBurst burst, Bitmap image) {
         SaveImageInBackgroundData data = new SaveImageInBackgroundData();
         data.context = mContext;
-        data.image = mScreenBitmap;
+        data.image = image;
         data.iconSize = mNotificationIconSize;
-        data.finisher = finisher;
         data.previewWidth = mPreviewWidth;
         data.previewheight = mPreviewHeight;
-        if (mSaveInBgTask != null) {
-            mSaveInBgTask.cancel(false);
-        }
         /// M: Bug fix ALPS02570218, avoid the null pointer before saving image.
         if (data.image == null) {
             Slog.d("saveScreenshotInWorkerThread", "The image is null before saving it!");
+            if (burst.onSaveFinished(false)) {
+                mBitmapPool.clear();
+            }
             return;
         }
-        mSaveInBgTask = new SaveImageInBackgroundTask(mContext, data, mNotificationManager)
-                .execute();
+        data.burst = burst;
+        data.bitmapPool = mBitmapPool;
+        new SaveImageInBackgroundTask(mContext, data, mNotificationManager).execute();
     }
 
     /**
@@ -564,6 +684,16 @@ class GlobalScreenshot {
      */
     void takeScreenshot(Runnable finisher, boolean statusBarVisible, boolean navBarVisible,
             int x, int y, int width, int height) {
+        if (mBurst != null && mBurst.pending() >= MAX_PENDING_SAVES) {
+            // Back-pressure: don't hold on to more full size bitmaps than we can save.
+            Slog.w("GlobalScreenshot", "Skipping screenshot, " + mBurst.pending()
+                    + " screenshots are still being saved");
+            Toast.makeText(mContext, R.string.screenshot_burst_queue_full,
+                    Toast.LENGTH_SHORT).show();
+            finisher.run();
+            return;
+        }
+
         // We need to orient the screenshot correctly (and the Surface api seems to take screenshots
         // only in the natural orientation of the device :!)
         mDisplay.getRealMetrics(mDisplayMetrics);
@@ -590,9 +720,9 @@ class GlobalScreenshot {
 
         if (requiresRotation) {
             // Rotate the screenshot to the current orientation
-            Bitmap ss = Bitmap.createBitmap(mDisplayMetrics.widthPixels,
-                    mDisplayMetrics.heightPixels, Bitmap.Config.ARGB_8888,
-                    mScreenBitmap.hasAlpha(), mScreenBitmap.getColorSpace());
+            Bitmap ss = mBitmapPool.obtain(mDisplayMetrics.widthPixels,
+                    mDisplayMetrics.heightPixels, mScreenBitmap.hasAlpha(),
+                    mScreenBitmap.getColorSpace());
             Canvas c = new Canvas(ss);
             c.translate(ss.getWidth() / 2, ss.getHeight() / 2);
             c.rotate(degrees);
@@ -600,14 +730,18 @@ class GlobalScreenshot {
             c.drawBitmap(mScreenBitmap, 0, 0, null);
             c.setBitmap(null);
             // Recycle the previous bitmap
-            mScreenBitmap.recycle();
+            mBitmapPool.release(mScreenBitmap);
             mScreenBitmap = ss;
         }
 
         if (width != mDisplayMetrics.widthPixels || height != mDisplayMetrics.heightPixels) {
             // Crop the screenshot to selected region
-            Bitmap cropped = Bitmap.createBitmap(mScreenBitmap, x, y, width, height);
-            mScreenBitmap.recycle();
+            Bitmap cropped = mBitmapPool.obtain(width, height, mScreenBitmap.hasAlpha(),
+                    mScreenBitmap.getColorSpace());
+            Canvas c = new Canvas(cropped);
+            c.drawBitmap(mScreenBitmap, -x, -y, null);
+            c.setBitmap(null);
+            mBitmapPool.release(mScreenBitmap);
             mScreenBitmap = cropped;
         }
 
@@ -616,8 +750,12 @@ class GlobalScreenshot {
         mScreenBitmap.prepareToDraw();
 
         // Start the post-screenshot animation
-        startAnimation(finisher, mDisplayMetrics.widthPixels, mDisplayMetrics.heightPixels,
-                statusBarVisible, navBarVisible);
+        startAnimation(queueScreenshot(), mDisplayMetrics.widthPixels,
+                mDisplayMetrics.heightPixels, statusBarVisible, navBarVisible);
+
+        // The capture is queued for saving, so the next screenshot of a burst can be taken while
+        // this one is still animating and saving.
+        finisher.run();
     }
 
     void takeScreenshot(Runnable finisher, boolean statusBarVisible, boolean navBarVisible) {
@@ -689,8 +827,8 @@ class GlobalScreenshot {
     /**
      * Starts the animation after taking the screenshot
      */
-    private void startAnimation(final Runnable finisher, int w, int h, boolean statusBarVisible,
-            boolean navBarVisible) {
+    private void startAnimation(final ScreenshotBurst burst, int w, int h,
+            boolean statusBarVisible, boolean navBarVisible) {
         // If power save is on, show a toast so there is some visual indication that a screenshot
         // has been taken.
         PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
@@ -698,11 +836,8 @@ class GlobalScreenshot {
             Toast.makeText(mContext, R.string.screenshot_saved_title, Toast.LENGTH_SHORT).show();
         }
 
-        // Add the view for the animation
-        mScreenshotView.setImageBitmap(mScreenBitmap);
-        mScreenshotLayout.requestFocus();
-
-        // Setup the animation with the screenshot just taken
+        // Finish the animation of the previous screenshot of a burst first, it hands its bitmap
+        // over to be saved and clears the view.
         if (mScreenshotAnimation != null) {
             if (mScreenshotAnimation.isStarted()) {
                 mScreenshotAnimation.end();
@@ -710,6 +845,12 @@ class GlobalScreenshot {
             mScreenshotAnimation.removeAllListeners();
         }
 
+        // Add the view for the animation
+        final Bitmap screenshot = mScreenBitmap;
+        mScreenshotView.setImageBitmap(screenshot);
+        mScreenshotLayout.requestFocus();
+
+        // Setup the animation with the screenshot just taken
         mWindowManager.addView(mScreenshotLayout, mWindowLayoutParams);
         ValueAnimator screenshotDropInAnim = createScreenshotDropInAnimation();
         ValueAnimator screenshotFadeOutAnim = createScreenshotDropOutAnimation(w, h,
@@ -720,11 +861,13 @@ class GlobalScreenshot {
             @Override
             public void onAnimationEnd(Animator animation) {
                 // Save the screenshot once we have a bit of time now
-                saveScreenshotInWorkerThread(finisher);
+                saveScreenshotInWorkerThread(burst, screenshot);
                 mWindowManager.removeView(mScreenshotLayout);
 
                 // Clear any references to the bitmap
-                mScreenBitmap = null;
+                if (mScreenBitmap == screenshot) {
+                    mScreenBitmap = null;
+                }
                 mScreenshotView.setImageBitmap(null);
             }
         });
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.systemui.screenshot;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.ColorSpace;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the full size bitmaps of saved screenshots around so that the next screenshot of a burst
+ * can be rotated or cropped into one of them instead of allocating a new one. Bitmaps are
+ * released from the save thread and obtained on the main thread.
+ */
+class ScreenshotBitmapPool {
+    private final int mMaxSize;
+    private final ArrayList<Bitmap> mBitmaps = new ArrayList<>();
+
+    ScreenshotBitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return a mutable, transparent ARGB_8888 bitmap of the given size
+     */
+    synchronized Bitmap obtain(int width, int height, boolean hasAlpha, ColorSpace colorSpace) {
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && colorSpace.equals(bitmap.getColorSpace())) {
+                mBitmaps.remove(i);
+                bitmap.eraseColor(Color.TRANSPARENT);
+                bitmap.setHasAlpha(hasAlpha);
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888, hasAlpha, colorSpace);
+    }
+
+    /**
+     * Returns a bitmap which is no longer used to the pool, or recycles it if it can't be reused.
+     */
+    synchronized void release(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        if (mBitmaps.size() < mMaxSize && bitmap.isMutable()
+                && bitmap.getConfig() == Bitmap.Config.ARGB_8888
+                && bitmap.getColorSpace() != null) {
+            mBitmaps.add(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < mBitmaps.size(); i++) {
+            mBitmaps.get(i).recycle();
+        }
+        mBitmaps.clear();
+    }
+}
@@ -32,6 +32,7 @@ import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.service.notification.StatusBarNotification;
 import android.util.AttributeSet;
 import android.util.FloatProperty;
@@ -251,6 +252,12 @@ public class ExpandableNotificationRow extends ActivatableNotificationView
     private boolean mShowAmbient;
     private boolean mIsLastChild;
     private Runnable mOnDismissRunnable;
+    private final Runnable mRecycleContentViews = () -> {
+        // Still detached once the removal settled, i.e. not shown in a disappear animation.
+        if (mRemoved && !isAttachedToWindow()) {
+            NotificationInflater.recycleContentViews(this);
+        }
+    };
     private boolean mIsLowPriority;
     private boolean mIsColorized;
     private boolean mUseIncreasedCollapsedHeight;
@@ -828,6 +835,13 @@ public class ExpandableNotificationRow extends ActivatableNotificationView
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         Dependency.get(PluginManager.class).removePluginListener(this);
+        if (mRemoved) {
+            // A removed row is detached from the stack and possibly reattached to its overlay
+            // for the disappear animation right away, so check again later.
+            Handler handler = Dependency.get(Dependency.MAIN_HANDLER);
+            handler.removeCallbacks(mRecycleContentViews);
+            handler.post(mRecycleContentViews);
+        }
     }
 
     @Override
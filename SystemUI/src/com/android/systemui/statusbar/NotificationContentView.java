@@ -464,6 +464,34 @@ public class NotificationContentView extends FrameLayout {
                 mContainingNotification);
     }
 
+    /**
+     * Detaches the content views of a removed notification such that they can be recycled. The
+     * views are reset to their untransformed, visible state first.
+     */
+    public void removeContentViews() {
+        mContractedChild = removeContentView(mContractedChild, mContractedWrapper);
+        mExpandedChild = removeContentView(mExpandedChild, mExpandedWrapper);
+        mHeadsUpChild = removeContentView(mHeadsUpChild, mHeadsUpWrapper);
+        mAmbientChild = removeContentView(mAmbientChild, mAmbientWrapper);
+        mContractedWrapper = null;
+        mExpandedWrapper = null;
+        mHeadsUpWrapper = null;
+        mAmbientWrapper = null;
+        mExpandedRemoteInput = null;
+        mHeadsUpRemoteInput = null;
+    }
+
+    private View removeContentView(View child, NotificationViewWrapper wrapper) {
+        if (child != null) {
+            if (wrapper != null) {
+                wrapper.setVisible(true);
+            }
+            child.animate().cancel();
+            removeView(child);
+        }
+        return null;
+    }
+
     @Override
     protected void onVisibilityChanged(View changedView, int visibility) {
         super.onVisibilityChanged(changedView, visibility);
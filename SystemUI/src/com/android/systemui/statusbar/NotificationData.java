@@ -90,6 +90,10 @@ public class NotificationData {
         private int mCachedContrastColorIsFor = COLOR_INVALID;
         private InflationTask mRunningTask = null;
         private Throwable mDebugThrowable;
+        // Sort key and filter verdict, cached by NotificationData.
+        private int mRank = 0;
+        private int mImportance = NotificationManager.IMPORTANCE_DEFAULT;
+        private boolean mShown;
 
         public Entry(StatusBarNotification n) {
             this.key = n.getKey();
@@ -273,14 +277,23 @@ public class NotificationData {
     private RankingMap mRankingMap;
     private final Ranking mTmpRanking = new Ranking();
 
+    /**
+     * filterAndSort() inserts at most this many newly shown entries one by one; with more it
+     * sorts the whole list.
+     */
+    private static final int MAX_INCREMENTAL_INSERTS = 8;
+    private final ArrayList<Entry> mPendingInserts = new ArrayList<>();
+    // How filterAndSort() calls updated the list; add() and remove() update it themselves and
+    // aren't counted, the filterAndSort() that follows them is.
+    private int mFullSorts;
+    private int mIncrementalUpdates;
+    private int mUnchangedSorts;
+
     public void setHeadsUpManager(HeadsUpManager headsUpManager) {
         mHeadsUpManager = headsUpManager;
     }
 
     private final Comparator<Entry> mRankingComparator = new Comparator<Entry>() {
-        private final Ranking mRankingA = new Ranking();
-        private final Ranking mRankingB = new Ranking();
-
         @Override
         public int compare(Entry a, Entry b) {
             final StatusBarNotification na = a.notification;
@@ -291,13 +304,11 @@ public class NotificationData {
             int bRank = 0;
 
             if (mRankingMap != null) {
-                // RankingMap as received from NoMan
-                getRanking(a.key, mRankingA);
-                getRanking(b.key, mRankingB);
-                aImportance = mRankingA.getImportance();
-                bImportance = mRankingB.getImportance();
-                aRank = mRankingA.getRank();
-                bRank = mRankingB.getRank();
+                // RankingMap as received from NoMan, cached in the entries by updateEntryRanking()
+                aImportance = a.mImportance;
+                bImportance = b.mImportance;
+                aRank = a.mRank;
+                bRank = b.mRank;
             }
 
             String mediaNotification = mEnvironment.getCurrentMediaNotificationKey();
@@ -356,12 +367,23 @@ public class NotificationData {
     }
 
     public void add(Entry entry) {
+        Entry replaced;
         synchronized (mEntries) {
-            mEntries.put(entry.notification.getKey(), entry);
+            replaced = mEntries.put(entry.notification.getKey(), entry);
+            // The ranking map didn't change, so only the new entry needs to pick it up.
+            if (mRankingMap != null) {
+                updateEntryRanking(entry);
+            }
         }
         mGroupManager.onEntryAdded(entry);
 
-        updateRankingAndSort(mRankingMap);
+        if (replaced != null && replaced.mShown) {
+            replaced.mShown = false;
+            mSortedAndFiltered.remove(replaced);
+        }
+        if (!shouldFilterOut(entry.notification)) {
+            insertSorted(entry);
+        }
     }
 
     public Entry remove(String key, RankingMap ranking) {
@@ -370,6 +392,10 @@ public class NotificationData {
             removed = mEntries.remove(key);
         }
         if (removed == null) return null;
+        if (removed.mShown) {
+            removed.mShown = false;
+            mSortedAndFiltered.remove(removed);
+        }
         mGroupManager.onEntryRemoved(removed);
         updateRankingAndSort(ranking);
         return removed;
@@ -451,24 +477,32 @@ public class NotificationData {
             synchronized (mEntries) {
                 final int N = mEntries.size();
                 for (int i = 0; i < N; i++) {
-                    Entry entry = mEntries.valueAt(i);
-                    if (!getRanking(entry.key, mTmpRanking)) {
-                        continue;
-                    }
-                    final StatusBarNotification oldSbn = entry.notification.cloneLight();
-                    final String overrideGroupKey = getOverrideGroupKey(entry.key);
-                    if (!Objects.equals(oldSbn.getOverrideGroupKey(), overrideGroupKey)) {
-                        entry.notification.setOverrideGroupKey(overrideGroupKey);
-                        mGroupManager.onEntryUpdated(entry, oldSbn);
-                    }
-                    entry.channel = getChannel(entry.key);
-                    entry.snoozeCriteria = getSnoozeCriteria(entry.key);
+                    updateEntryRanking(mEntries.valueAt(i));
                 }
             }
         }
         filterAndSort();
     }
 
+    private void updateEntryRanking(Entry entry) {
+        final boolean ranked = getRanking(entry.key, mTmpRanking);
+        // Cache the sort key, so that sorting doesn't have to look it up in the ranking map
+        // for every comparison.
+        entry.mRank = mTmpRanking.getRank();
+        entry.mImportance = mTmpRanking.getImportance();
+        if (!ranked) {
+            return;
+        }
+        final StatusBarNotification oldSbn = entry.notification.cloneLight();
+        final String overrideGroupKey = getOverrideGroupKey(entry.key);
+        if (!Objects.equals(oldSbn.getOverrideGroupKey(), overrideGroupKey)) {
+            entry.notification.setOverrideGroupKey(overrideGroupKey);
+            mGroupManager.onEntryUpdated(entry, oldSbn);
+        }
+        entry.channel = getChannel(entry.key);
+        entry.snoozeCriteria = getSnoozeCriteria(entry.key);
+    }
+
     /**
      * Get the ranking from the current ranking map.
      *
@@ -484,24 +518,89 @@ public class NotificationData {
 
     // TODO: This should not be public. Instead the Environment should notify this class when
     // anything changed, and this class should call back the UI so it updates itself.
+    //
+    // The filter verdicts are re-evaluated on every call, since the environment doesn't tell us
+    // when it changes. The list is only sorted again if the entries that stay shown are no
+    // longer in order, e.g. because the ranking or the heads up state changed; newly shown
+    // entries are otherwise inserted with a binary search.
     public void filterAndSort() {
-        mSortedAndFiltered.clear();
-
+        int hidden = 0;
+        mPendingInserts.clear();
         synchronized (mEntries) {
             final int N = mEntries.size();
             for (int i = 0; i < N; i++) {
                 Entry entry = mEntries.valueAt(i);
                 StatusBarNotification sbn = entry.notification;
 
-                if (shouldFilterOut(sbn)) {
-                    continue;
+                boolean show = !shouldFilterOut(sbn);
+                if (show && !entry.mShown) {
+                    mPendingInserts.add(entry);
+                } else if (!show && entry.mShown) {
+                    entry.mShown = false;
+                    hidden++;
                 }
+            }
+        }
 
-                mSortedAndFiltered.add(entry);
+        if (hidden > 0) {
+            for (int i = mSortedAndFiltered.size() - 1; i >= 0; i--) {
+                if (!mSortedAndFiltered.get(i).mShown) {
+                    mSortedAndFiltered.remove(i);
+                }
             }
         }
 
-        Collections.sort(mSortedAndFiltered, mRankingComparator);
+        if (!isSorted() || mPendingInserts.size() > MAX_INCREMENTAL_INSERTS) {
+            for (int i = 0; i < mPendingInserts.size(); i++) {
+                mPendingInserts.get(i).mShown = true;
+            }
+            mSortedAndFiltered.addAll(mPendingInserts);
+            Collections.sort(mSortedAndFiltered, mRankingComparator);
+            mFullSorts++;
+        } else if (hidden > 0 || !mPendingInserts.isEmpty()) {
+            for (int i = 0; i < mPendingInserts.size(); i++) {
+                insertSorted(mPendingInserts.get(i));
+            }
+            mIncrementalUpdates++;
+        } else {
+            mUnchangedSorts++;
+        }
+        mPendingInserts.clear();
+    }
+
+    private boolean isSorted() {
+        final int N = mSortedAndFiltered.size();
+        for (int i = 1; i < N; i++) {
+            if (mRankingComparator.compare(mSortedAndFiltered.get(i - 1),
+                    mSortedAndFiltered.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insertSorted(Entry entry) {
+        int index = Collections.binarySearch(mSortedAndFiltered, entry, mRankingComparator);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        mSortedAndFiltered.add(index, entry);
+        entry.mShown = true;
+    }
+
+    @VisibleForTesting
+    int getFullSortCount() {
+        return mFullSorts;
+    }
+
+    @VisibleForTesting
+    int getIncrementalUpdateCount() {
+        return mIncrementalUpdates;
+    }
+
+    @VisibleForTesting
+    int getUnchangedSortCount() {
+        return mUnchangedSorts;
     }
 
     /**
@@ -567,6 +666,9 @@ public class NotificationData {
     public void dump(PrintWriter pw, String indent) {
         int N = mSortedAndFiltered.size();
         pw.print(indent);
+        pw.println("sorting: full=" + mFullSorts + " incremental=" + mIncrementalUpdates
+                + " unchanged=" + mUnchangedSorts);
+        pw.print(indent);
         pw.println("active notifications: " + N);
         int active;
         for (active = 0; active < N; active++) {
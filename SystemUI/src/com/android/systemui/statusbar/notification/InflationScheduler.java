@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Schedules the background part of notification inflations.
+ *
+ * <p>At most one inflation per notification key is pending: when a newer inflation for the same
+ * key arrives, the one it superseded (and therefore aborted) is replaced in place, keeping its
+ * position in the queue so that frequently updated notifications are not starved. Pending
+ * inflations run by priority, then in order of submission.
+ */
+class InflationScheduler {
+    /** Heads up rows and rows which have never been inflated. */
+    static final int PRIORITY_HIGH = 0;
+    static final int PRIORITY_DEFAULT = 1;
+    /** Hidden rows and children of collapsed groups. */
+    static final int PRIORITY_LOW = 2;
+    private static final int PRIORITY_COUNT = 3;
+
+    private final Object mLock = new Object();
+    private final Executor mExecutor;
+    private final int mMaxRunning;
+
+    @GuardedBy("mLock")
+    private final PriorityQueue<Pending> mQueue = new PriorityQueue<>(16, (a, b) -> {
+        if (a.priority != b.priority) {
+            return a.priority - b.priority;
+        }
+        return Long.compare(a.sequence, b.sequence);
+    });
+    @GuardedBy("mLock")
+    private final HashMap<String, Pending> mPendingByKey = new HashMap<>();
+    @GuardedBy("mLock")
+    private long mNextSequence;
+    @GuardedBy("mLock")
+    private int mRunning;
+
+    // Metrics, guarded by mLock
+    private int mSubmitted;
+    private int mCoalesced;
+    private int mDropped;
+    private int mMaxDepth;
+    private final int[] mStarted = new int[PRIORITY_COUNT];
+    private final long[] mTotalWaitMillis = new long[PRIORITY_COUNT];
+    private final long[] mMaxWaitMillis = new long[PRIORITY_COUNT];
+
+    private static class Pending {
+        final String key;
+        final long sequence;
+        final long enqueueTime;
+        int priority;
+        Runnable runnable;
+
+        Pending(String key, int priority, Runnable runnable, long sequence, long enqueueTime) {
+            this.key = key;
+            this.priority = priority;
+            this.runnable = runnable;
+            this.sequence = sequence;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    /**
+     * @param executor   runs the inflations
+     * @param maxRunning how many inflations may run at the same time
+     */
+    InflationScheduler(Executor executor, int maxRunning) {
+        mExecutor = executor;
+        mMaxRunning = maxRunning;
+    }
+
+    /**
+     * @return an executor which schedules the runnable it is given for the notification with
+     *         the given key, e.g. for {@link android.os.AsyncTask#executeOnExecutor}
+     */
+    Executor forKey(String key, int priority) {
+        return runnable -> enqueue(key, priority, runnable);
+    }
+
+    @VisibleForTesting
+    void enqueue(String key, int priority, Runnable runnable) {
+        synchronized (mLock) {
+            mSubmitted++;
+            Pending pending = mPendingByKey.get(key);
+            if (pending != null && isCancelled(pending.runnable)) {
+                // The pending inflation was aborted by the one superseding it, which inflates
+                // its views as well. Take over its place in the queue.
+                mQueue.remove(pending);
+                pending.runnable = runnable;
+                pending.priority = Math.min(pending.priority, priority);
+                mCoalesced++;
+            } else {
+                pending = new Pending(key, priority, runnable, mNextSequence++,
+                        SystemClock.uptimeMillis());
+                mPendingByKey.put(key, pending);
+            }
+            mQueue.add(pending);
+            mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+            scheduleNextLocked();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleNextLocked() {
+        while (mRunning < mMaxRunning && !mQueue.isEmpty()) {
+            final Pending next = mQueue.poll();
+            mPendingByKey.remove(next.key, next);
+            if (isCancelled(next.runnable)) {
+                mDropped++;
+                continue;
+            }
+            long waited = SystemClock.uptimeMillis() - next.enqueueTime;
+            mStarted[next.priority]++;
+            mTotalWaitMillis[next.priority] += waited;
+            mMaxWaitMillis[next.priority] = Math.max(mMaxWaitMillis[next.priority], waited);
+            mRunning++;
+            mExecutor.execute(() -> {
+                try {
+                    next.runnable.run();
+                } finally {
+                    synchronized (mLock) {
+                        mRunning--;
+                        scheduleNextLocked();
+                    }
+                }
+            });
+        }
+    }
+
+    private static boolean isCancelled(Runnable runnable) {
+        return runnable instanceof Future && ((Future<?>) runnable).isCancelled();
+    }
+
+    @VisibleForTesting
+    int getQueueDepth() {
+        synchronized (mLock) {
+            return mQueue.size();
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("  InflationScheduler:");
+            pw.print("    queueDepth="); pw.print(mQueue.size());
+            pw.print(" maxQueueDepth="); pw.print(mMaxDepth);
+            pw.print(" running="); pw.println(mRunning);
+            pw.print("    submitted="); pw.print(mSubmitted);
+            pw.print(" coalesced="); pw.print(mCoalesced);
+            pw.print(" droppedAborted="); pw.println(mDropped);
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                pw.print("    priority"); pw.print(i);
+                pw.print(": started="); pw.print(mStarted[i]);
+                pw.print(" avgWaitMs="); pw.print(mStarted[i] == 0
+                        ? 0 : mTotalWaitMillis[i] / mStarted[i]);
+                pw.print(" maxWaitMs="); pw.println(mMaxWaitMillis[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import android.annotation.Nullable;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Icon;
+import android.util.LruCache;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Caches the colors {@link MediaNotificationProcessor} extracts from the artwork of a media
+ * notification, together with the colorized artwork. Media apps repost their notification for
+ * every progress or playback state change while the artwork stays the same, so the artwork is
+ * keyed by its content rather than by the notification.
+ */
+class MediaArtworkCache implements ComponentCallbacks2 {
+    private static final int DEFAULT_MAX_SIZE_KB = 4 * 1024;
+
+    private static MediaArtworkCache sInstance;
+
+    private final int mMaxSizeKb;
+    private final LruCache<Key, Result> mCache;
+
+    static final class Key {
+        private final long mContentHash;
+        private final int mWidth;
+        private final int mHeight;
+        private final boolean mColorized;
+        private final int mDefaultBackgroundColor;
+        private final boolean mIsRtl;
+
+        private Key(long contentHash, int width, int height, boolean colorized,
+                int defaultBackgroundColor, boolean isRtl) {
+            mContentHash = contentHash;
+            mWidth = width;
+            mHeight = height;
+            mColorized = colorized;
+            mDefaultBackgroundColor = defaultBackgroundColor;
+            mIsRtl = isRtl;
+        }
+
+        /**
+         * @param colorized whether the colors are extracted from the artwork
+         * @param defaultBackgroundColor the background color to colorize with if they are not
+         * @return the key for the given artwork, or {@code null} if its content can't be read
+         */
+        @Nullable
+        static Key create(Icon icon, boolean colorized, int defaultBackgroundColor,
+                boolean isRtl) {
+            if (icon.getType() != Icon.TYPE_BITMAP
+                    && icon.getType() != Icon.TYPE_ADAPTIVE_BITMAP) {
+                return null;
+            }
+            Bitmap bitmap = icon.getBitmap();
+            if (bitmap == null || bitmap.isRecycled()
+                    || bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+                return null;
+            }
+            return new Key(hashPixels(bitmap), bitmap.getWidth(), bitmap.getHeight(),
+                    colorized, colorized ? 0 : defaultBackgroundColor, isRtl);
+        }
+
+        /**
+         * 64 bit FNV-1a hash of the pixels, which is much cheaper than building a palette.
+         */
+        private static long hashPixels(Bitmap bitmap) {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] row = new int[width];
+            long hash = 0xcbf29ce484222325L;
+            for (int y = 0; y < height; y++) {
+                bitmap.getPixels(row, 0, width, 0, y, width, 1);
+                for (int x = 0; x < width; x++) {
+                    hash ^= row[x];
+                    hash *= 0x100000001b3L;
+                }
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mContentHash == other.mContentHash
+                    && mWidth == other.mWidth
+                    && mHeight == other.mHeight
+                    && mColorized == other.mColorized
+                    && mDefaultBackgroundColor == other.mDefaultBackgroundColor
+                    && mIsRtl == other.mIsRtl;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(mContentHash);
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + mDefaultBackgroundColor;
+            result = 31 * result + (mColorized ? 1 : 0);
+            return 31 * result + (mIsRtl ? 1 : 0);
+        }
+    }
+
+    static final class Result {
+        final int backgroundColor;
+        final int foregroundColor;
+        final Bitmap colorizedArtwork;
+
+        Result(int backgroundColor, int foregroundColor, Bitmap colorizedArtwork) {
+            this.backgroundColor = backgroundColor;
+            this.foregroundColor = foregroundColor;
+            this.colorizedArtwork = colorizedArtwork;
+        }
+    }
+
+    /**
+     * @return the cache shared by all media notifications, which is trimmed when the process is
+     *         asked to release memory
+     */
+    static synchronized MediaArtworkCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MediaArtworkCache();
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    MediaArtworkCache() {
+        this(DEFAULT_MAX_SIZE_KB);
+    }
+
+    @VisibleForTesting
+    MediaArtworkCache(int maxSizeKb) {
+        mMaxSizeKb = maxSizeKb;
+        mCache = new LruCache<Key, Result>(maxSizeKb) {
+            @Override
+            protected int sizeOf(Key key, Result result) {
+                return Math.max(1, result.colorizedArtwork.getAllocationByteCount() / 1024);
+            }
+        };
+    }
+
+    @Nullable
+    Result get(@Nullable Key key) {
+        return key != null ? mCache.get(key) : null;
+    }
+
+    void put(@Nullable Key key, Result result) {
+        if (key != null && result.colorizedArtwork != null) {
+            mCache.put(key, result);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN:
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                mCache.trimToSize(mMaxSizeKb / 2);
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+                mCache.trimToSize(mMaxSizeKb / 4);
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                mCache.evictAll();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
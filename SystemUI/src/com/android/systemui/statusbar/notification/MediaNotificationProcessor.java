@@ -67,6 +67,7 @@ public class MediaNotificationProcessor {
     private static final float WHITE_MIN_LIGHTNESS = 0.90f;
     private static final int RESIZE_BITMAP_AREA = 150 * 150;
     private final ImageGradientColorizer mColorizer;
+    private final MediaArtworkCache mArtworkCache;
     private final Context mContext;
     private float[] mFilteredBackgroundHsl = null;
     private Palette.Filter mBlackWhiteFilter = (rgb, hsl) -> !isWhiteOrBlack(hsl);
@@ -79,15 +80,23 @@ public class MediaNotificationProcessor {
     private boolean mIsLowPriority;
 
     public MediaNotificationProcessor(Context context, Context packageContext) {
-        this(context, packageContext, new ImageGradientColorizer());
+        this(context, packageContext, new ImageGradientColorizer(),
+                MediaArtworkCache.getInstance(context));
     }
 
     @VisibleForTesting
     MediaNotificationProcessor(Context context, Context packageContext,
             ImageGradientColorizer colorizer) {
+        this(context, packageContext, colorizer, new MediaArtworkCache());
+    }
+
+    @VisibleForTesting
+    MediaNotificationProcessor(Context context, Context packageContext,
+            ImageGradientColorizer colorizer, MediaArtworkCache artworkCache) {
         mContext = context;
         mPackageContext = packageContext;
         mColorizer = colorizer;
+        mArtworkCache = artworkCache;
     }
 
     /**
@@ -99,63 +108,80 @@ public class MediaNotificationProcessor {
      */
     public void processNotification(Notification notification, Notification.Builder builder) {
         Icon largeIcon = notification.getLargeIcon();
-        Bitmap bitmap = null;
-        Drawable drawable = null;
         if (largeIcon != null) {
             // We're transforming the builder, let's make sure all baked in RemoteViews are
             // rebuilt!
             builder.setRebuildStyledRemoteViews(true);
-            drawable = largeIcon.loadDrawable(mPackageContext);
-            int backgroundColor = 0;
-            if (notification.isColorizedMedia()) {
-                int width = drawable.getIntrinsicWidth();
-                int height = drawable.getIntrinsicHeight();
-                int area = width * height;
-                if (area > RESIZE_BITMAP_AREA) {
-                    double factor = Math.sqrt((float) RESIZE_BITMAP_AREA / area);
-                    width = (int) (factor * width);
-                    height = (int) (factor * height);
-                }
-                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                Canvas canvas = new Canvas(bitmap);
-                drawable.setBounds(0, 0, width, height);
-                drawable.draw(canvas);
-
-                // for the background we only take the left side of the image to ensure
-                // a smooth transition
-                Palette.Builder paletteBuilder = Palette.from(bitmap)
-                        .setRegion(0, 0, bitmap.getWidth() / 2, bitmap.getHeight())
-                        .clearFilters() // we want all colors, red / white / black ones too!
-                        .resizeBitmapArea(RESIZE_BITMAP_AREA);
-                Palette palette = paletteBuilder.generate();
-                backgroundColor = findBackgroundColorAndFilter(palette);
-                // we want most of the full region again, slightly shifted to the right
-                float textColorStartWidthFraction = 0.4f;
-                paletteBuilder.setRegion((int) (bitmap.getWidth() * textColorStartWidthFraction), 0,
-                        bitmap.getWidth(),
-                        bitmap.getHeight());
-                if (mFilteredBackgroundHsl != null) {
-                    paletteBuilder.addFilter((rgb, hsl) -> {
-                        // at least 10 degrees hue difference
-                        float diff = Math.abs(hsl[0] - mFilteredBackgroundHsl[0]);
-                        return diff > 10 && diff < 350;
-                    });
-                }
-                paletteBuilder.addFilter(mBlackWhiteFilter);
-                palette = paletteBuilder.generate();
-                int foregroundColor = selectForegroundColor(backgroundColor, palette);
-                builder.setColorPalette(backgroundColor, foregroundColor);
-            } else {
+            boolean colorized = notification.isColorizedMedia();
+            int defaultBackgroundColor = 0;
+            if (!colorized) {
                 int id = mIsLowPriority
                         ? R.color.notification_material_background_low_priority_color
                         : R.color.notification_material_background_color;
-                backgroundColor = mContext.getColor(id);
+                defaultBackgroundColor = mContext.getColor(id);
+            }
+            boolean isRtl = mContext.getResources().getConfiguration().getLayoutDirection()
+                    == LayoutDirection.RTL;
+            // Apps repost the same artwork on every progress update, only process it once.
+            MediaArtworkCache.Key key = MediaArtworkCache.Key.create(largeIcon, colorized,
+                    defaultBackgroundColor, isRtl);
+            MediaArtworkCache.Result result = mArtworkCache.get(key);
+            if (result == null) {
+                result = processArtwork(largeIcon.loadDrawable(mPackageContext), colorized,
+                        defaultBackgroundColor, isRtl);
+                mArtworkCache.put(key, result);
+            }
+            if (colorized) {
+                builder.setColorPalette(result.backgroundColor, result.foregroundColor);
+            }
+            builder.setLargeIcon(Icon.createWithBitmap(result.colorizedArtwork));
+        }
+    }
+
+    private MediaArtworkCache.Result processArtwork(Drawable drawable, boolean colorized,
+            int defaultBackgroundColor, boolean isRtl) {
+        int backgroundColor = defaultBackgroundColor;
+        int foregroundColor = 0;
+        if (colorized) {
+            int width = drawable.getIntrinsicWidth();
+            int height = drawable.getIntrinsicHeight();
+            int area = width * height;
+            if (area > RESIZE_BITMAP_AREA) {
+                double factor = Math.sqrt((float) RESIZE_BITMAP_AREA / area);
+                width = (int) (factor * width);
+                height = (int) (factor * height);
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            drawable.setBounds(0, 0, width, height);
+            drawable.draw(canvas);
+
+            // for the background we only take the left side of the image to ensure
+            // a smooth transition
+            Palette.Builder paletteBuilder = Palette.from(bitmap)
+                    .setRegion(0, 0, bitmap.getWidth() / 2, bitmap.getHeight())
+                    .clearFilters() // we want all colors, red / white / black ones too!
+                    .resizeBitmapArea(RESIZE_BITMAP_AREA);
+            Palette palette = paletteBuilder.generate();
+            backgroundColor = findBackgroundColorAndFilter(palette);
+            // we want most of the full region again, slightly shifted to the right
+            float textColorStartWidthFraction = 0.4f;
+            paletteBuilder.setRegion((int) (bitmap.getWidth() * textColorStartWidthFraction), 0,
+                    bitmap.getWidth(),
+                    bitmap.getHeight());
+            if (mFilteredBackgroundHsl != null) {
+                paletteBuilder.addFilter((rgb, hsl) -> {
+                    // at least 10 degrees hue difference
+                    float diff = Math.abs(hsl[0] - mFilteredBackgroundHsl[0]);
+                    return diff > 10 && diff < 350;
+                });
             }
-            Bitmap colorized = mColorizer.colorize(drawable, backgroundColor,
-                    mContext.getResources().getConfiguration().getLayoutDirection() ==
-                            LayoutDirection.RTL);
-            builder.setLargeIcon(Icon.createWithBitmap(colorized));
+            paletteBuilder.addFilter(mBlackWhiteFilter);
+            palette = paletteBuilder.generate();
+            foregroundColor = selectForegroundColor(backgroundColor, palette);
         }
+        Bitmap colorizedArtwork = mColorizer.colorize(drawable, backgroundColor, isRtl);
+        return new MediaArtworkCache.Result(backgroundColor, foregroundColor, colorizedArtwork);
     }
 
     private int selectForegroundColor(int backgroundColor, Palette palette) {
@@ -35,6 +35,7 @@ import com.android.systemui.statusbar.NotificationData;
 import com.android.systemui.statusbar.phone.StatusBar;
 import com.android.systemui.util.Assert;
 
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -58,6 +59,13 @@ public class NotificationInflater {
     private static final int FLAG_REINFLATE_PUBLIC_VIEW = 1<<3;
     private static final int FLAG_REINFLATE_AMBIENT_VIEW = 1<<4;
     private static final InflationExecutor EXECUTOR = new InflationExecutor();
+    /**
+     * Runs the background part of the inflations one at a time, like the serial AsyncTask
+     * executor did, but coalesced per key and by priority.
+     */
+    private static final InflationScheduler SCHEDULER = new InflationScheduler(EXECUTOR, 1);
+    /** Content views of removed notifications, reused for new ones with the same template. */
+    private static final NotificationViewPool VIEW_POOL = new NotificationViewPool();
 
     private final ExpandableNotificationRow mRow;
     private boolean mIsLowPriority;
@@ -139,7 +147,61 @@ public class NotificationInflater {
         StatusBarNotification sbn = mRow.getEntry().notification;
         new AsyncInflationTask(sbn, reInflateFlags, mRow, mIsLowPriority,
                 mIsChildInGroup, mUsesIncreasedHeight, mUsesIncreasedHeadsUpHeight, mRedactAmbient,
-                mCallback, mRemoteViewClickHandler).execute();
+                mCallback, mRemoteViewClickHandler)
+                .executeOnExecutor(SCHEDULER.forKey(sbn.getKey(), getInflationPriority()));
+    }
+
+    private int getInflationPriority() {
+        if (mRow.isHeadsUp() || mRow.getPrivateLayout().getContractedChild() == null) {
+            return InflationScheduler.PRIORITY_HIGH;
+        }
+        ExpandableNotificationRow parent = mRow.getNotificationParent();
+        if (mRow.getVisibility() != View.VISIBLE
+                || (parent != null && !parent.areChildrenExpanded())) {
+            return InflationScheduler.PRIORITY_LOW;
+        }
+        return InflationScheduler.PRIORITY_DEFAULT;
+    }
+
+    public static void dump(PrintWriter pw) {
+        pw.println(TAG + ":");
+        SCHEDULER.dump(pw);
+        VIEW_POOL.dump(pw);
+    }
+
+    /**
+     * Hands the content views of a removed row, which is no longer attached, over to the pool
+     * such that new notifications using the same templates can reapply onto them.
+     */
+    public static void recycleContentViews(ExpandableNotificationRow row) {
+        Assert.isMainThread();
+        NotificationData.Entry entry = row.getEntry();
+        if (entry == null || !row.isRemoved() || row.isAttachedToWindow()
+                || entry.getRunningTask() != null || row.isDark()) {
+            // Views which are still shown, about to be updated or tinted for the ambient display
+            // can't be reused.
+            return;
+        }
+        NotificationContentView privateLayout = row.getPrivateLayout();
+        NotificationContentView publicLayout = row.getPublicLayout();
+        View contractedChild = privateLayout.getContractedChild();
+        View expandedChild = privateLayout.getExpandedChild();
+        View headsUpChild = privateLayout.getHeadsUpChild();
+        View publicChild = publicLayout.getContractedChild();
+        View ambientChild = privateLayout.getAmbientChild() != null
+                ? privateLayout.getAmbientChild() : publicLayout.getAmbientChild();
+        privateLayout.removeContentViews();
+        publicLayout.removeContentViews();
+        VIEW_POOL.release(entry.cachedContentView, contractedChild);
+        VIEW_POOL.release(entry.cachedBigContentView, expandedChild);
+        VIEW_POOL.release(entry.cachedHeadsUpContentView, headsUpChild);
+        VIEW_POOL.release(entry.cachedPublicContentView, publicChild);
+        VIEW_POOL.release(entry.cachedAmbientContentView, ambientChild);
+        entry.cachedContentView = null;
+        entry.cachedBigContentView = null;
+        entry.cachedHeadsUpContentView = null;
+        entry.cachedPublicContentView = null;
+        entry.cachedAmbientContentView = null;
     }
 
     @VisibleForTesting
@@ -328,6 +390,8 @@ public class NotificationInflater {
             final HashMap<Integer, CancellationSignal> runningInflations,
             ApplyCallback applyCallback) {
         RemoteViews newContentView = applyCallback.getRemoteView();
+        // A new view can be recycled from a removed notification using the same template.
+        final View recycledView = isNewView ? VIEW_POOL.obtain(newContentView) : null;
         RemoteViews.OnViewAppliedListener listener
                 = new RemoteViews.OnViewAppliedListener() {
 
@@ -371,7 +435,14 @@ public class NotificationInflater {
             }
         };
         CancellationSignal cancellationSignal;
-        if (isNewView) {
+        if (recycledView != null) {
+            cancellationSignal = newContentView.reapplyAsync(
+                    result.packageContext,
+                    recycledView,
+                    EXECUTOR,
+                    listener,
+                    remoteViewClickHandler);
+        } else if (isNewView) {
             cancellationSignal = newContentView.applyAsync(
                     result.packageContext,
                     parentLayout,
@@ -522,6 +593,14 @@ public class NotificationInflater {
         inflateNotificationViews();
     }
 
+    /**
+     * Drops the pooled content views, which were inflated for the old configuration. Called once
+     * per density or font scale change, before the rows reinflate.
+     */
+    public static void clearViewPool() {
+        VIEW_POOL.clear();
+    }
+
     private static boolean canReapplyAmbient(ExpandableNotificationRow row, boolean redactAmbient) {
         NotificationContentView ambientView = redactAmbient ? row.getPublicLayout()
                 : row.getPrivateLayout();            ;
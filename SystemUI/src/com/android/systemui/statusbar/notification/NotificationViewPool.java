@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import android.annotation.Nullable;
+import android.util.SparseArray;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.statusbar.policy.RemoteInputView;
+import com.android.systemui.util.Assert;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Keeps the content views of removed notifications around, keyed by the layout id of the
+ * {@link RemoteViews} they were inflated from, so that a new notification using the same template
+ * can reapply its {@link RemoteViews} onto one of them instead of inflating it from scratch.
+ *
+ * <p>A view is only handed out for {@link RemoteViews} which could have been reapplied onto it
+ * during a regular update, see {@link NotificationInflater#canReapplyRemoteView}.
+ */
+class NotificationViewPool {
+    private static final int DEFAULT_MAX_PER_LAYOUT = 3;
+    private static final int DEFAULT_MAX_SIZE = 16;
+
+    private final int mMaxPerLayout;
+    private final int mMaxSize;
+    private final SparseArray<ArrayList<PooledView>> mPool = new SparseArray<>();
+    private int mSize;
+
+    // Metrics
+    private int mRecycled;
+    private int mRejected;
+    private int mHits;
+    private int mMisses;
+
+    private static class PooledView {
+        final RemoteViews remoteViews;
+        final View view;
+
+        PooledView(RemoteViews remoteViews, View view) {
+            this.remoteViews = remoteViews;
+            this.view = view;
+        }
+    }
+
+    NotificationViewPool() {
+        this(DEFAULT_MAX_PER_LAYOUT, DEFAULT_MAX_SIZE);
+    }
+
+    @VisibleForTesting
+    NotificationViewPool(int maxPerLayout, int maxSize) {
+        mMaxPerLayout = maxPerLayout;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Offers a view which was detached from a removed notification to the pool.
+     *
+     * @param remoteViews the remote views which were last applied to {@code view}
+     * @return whether the view was kept
+     */
+    boolean release(@Nullable RemoteViews remoteViews, @Nullable View view) {
+        Assert.isMainThread();
+        if (remoteViews == null || view == null || view.getParent() != null
+                || remoteViews.getPackage() == null || remoteViews.isReapplyDisallowed()
+                || view.findViewWithTag(RemoteInputView.VIEW_TAG) != null) {
+            // Remote inputs are bound to the notification they were created for.
+            mRejected++;
+            return false;
+        }
+        int layoutId = remoteViews.getLayoutId();
+        ArrayList<PooledView> views = mPool.get(layoutId);
+        if (views == null) {
+            views = new ArrayList<>(mMaxPerLayout);
+            mPool.put(layoutId, views);
+        }
+        if (views.size() >= mMaxPerLayout || mSize >= mMaxSize) {
+            mRejected++;
+            return false;
+        }
+        view.animate().cancel();
+        view.setAlpha(1.0f);
+        view.setTranslationX(0);
+        view.setTranslationY(0);
+        view.setVisibility(View.VISIBLE);
+        views.add(new PooledView(remoteViews, view));
+        mSize++;
+        mRecycled++;
+        return true;
+    }
+
+    /**
+     * @return a pooled view which {@code remoteViews} can be reapplied onto, or {@code null} if
+     *         it has to be inflated
+     */
+    @Nullable
+    View obtain(RemoteViews remoteViews) {
+        Assert.isMainThread();
+        ArrayList<PooledView> views = mPool.get(remoteViews.getLayoutId());
+        if (views != null) {
+            for (int i = views.size() - 1; i >= 0; i--) {
+                PooledView pooled = views.get(i);
+                if (NotificationInflater.canReapplyRemoteView(remoteViews, pooled.remoteViews)) {
+                    views.remove(i);
+                    mSize--;
+                    mHits++;
+                    return pooled.view;
+                }
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    void clear() {
+        Assert.isMainThread();
+        mPool.clear();
+        mSize = 0;
+    }
+
+    @VisibleForTesting
+    int size() {
+        return mSize;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("  NotificationViewPool:");
+        pw.print("    size="); pw.print(mSize);
+        pw.print(" layouts="); pw.println(mPool.size());
+        pw.print("    recycled="); pw.print(mRecycled);
+        pw.print(" rejected="); pw.print(mRejected);
+        pw.print(" hits="); pw.print(mHits);
+        pw.print(" misses="); pw.println(mMisses);
+    }
+}
@@ -220,6 +220,7 @@ import com.android.systemui.statusbar.SignalClusterView;
 import com.android.systemui.statusbar.StatusBarState;
 import com.android.systemui.statusbar.notification.AboveShelfObserver;
 import com.android.systemui.statusbar.notification.InflationException;
+import com.android.systemui.statusbar.notification.NotificationInflater;
 import com.android.systemui.statusbar.notification.RowInflaterTask;
 import com.android.systemui.statusbar.notification.VisualStabilityManager;
 import com.android.systemui.statusbar.phone.UnlockMethodCache.OnUnlockMethodChangedListener;
@@ -1324,6 +1325,7 @@ public class StatusBar extends SystemUI implements DemoMode,
     }
 
     public void onDensityOrFontScaleChanged() {
+        NotificationInflater.clearViewPool();
         // start old BaseStatusBar.onDensityOrFontScaleChanged().
         if (!KeyguardUpdateMonitor.getInstance(mContext).isSwitchingUser()) {
             updateNotificationsOnDensityOrFontScaleChanged();
@@ -3667,6 +3669,10 @@ public class StatusBar extends SystemUI implements DemoMode,
             mScrimController.dump(pw);
         }
 
+        if (mQSPanel != null && mQSPanel.getHost() != null) {
+            mQSPanel.getHost().dump(fd, pw, args);
+        }
+
         if (DUMPTRUCK) {
             synchronized (mNotificationData) {
                 mNotificationData.dump(pw, "  ");
@@ -3703,6 +3709,7 @@ public class StatusBar extends SystemUI implements DemoMode,
         } else {
             pw.println("  mGroupManager: null");
         }
+        NotificationInflater.dump(pw);
 
         if (mLightBarController != null) {
             mLightBarController.dump(fd, pw, args);
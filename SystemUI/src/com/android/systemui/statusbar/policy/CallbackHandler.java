@@ -19,7 +19,9 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.telephony.SubscriptionInfo;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.systemui.statusbar.policy.NetworkController.EmergencyListener;
@@ -28,13 +30,18 @@ import com.android.systemui.statusbar.policy.NetworkController.SignalCallback;
 
 import com.mediatek.systemui.statusbar.util.FeatureOptions;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 
 /**
  * Implements network listeners and forwards the calls along onto other listeners but on
  * the current or specified Looper.
+ *
+ * <p>Wifi and mobile indicators are coalesced: while an update is still queued, a newer one for
+ * the same indicator replaces it, and updates equal to the last forwarded one are dropped.
  */
 public class CallbackHandler extends Handler implements EmergencyListener, SignalCallback {
 
@@ -51,11 +58,26 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
     private static final int MSG_MOBILE_DATA_ENABLED_CHANGED = 5;
     private static final int MSG_ADD_REMOVE_EMERGENCY        = 6;
     private static final int MSG_ADD_REMOVE_SIGNAL           = 7;
+    private static final int MSG_WIFI_INDICATORS_CHANGED     = 8;
+    private static final int MSG_MOBILE_INDICATORS_CHANGED   = 9;
 
     // All the callbacks.
     private final ArrayList<EmergencyListener> mEmergencyListeners = new ArrayList<>();
     private final ArrayList<SignalCallback> mSignalCallbacks = new ArrayList<>();
 
+    // Indicators which are waiting for their message to be handled, guarded by mPendingLock.
+    // The mobile ones are keyed by subId; the array is the obj of the queued message.
+    private final Object mPendingLock = new Object();
+    private WifiIndicators mPendingWifi;
+    private SparseArray<MobileIndicators> mPendingMobile;
+    private int mCoalescedCount;
+
+    // Last indicators forwarded to the callbacks, only accessed on the looper thread.
+    private WifiIndicators mLastWifi;
+    private final SparseArray<MobileIndicators> mLastMobile = new SparseArray<>();
+    private int mUnchangedCount;
+    private int mForwardedCount;
+
     public CallbackHandler() {
         super(Looper.getMainLooper());
     }
@@ -79,6 +101,8 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
                     Log.d(TAG, "handleMessage(MSG_SUBS_CHANGED), mSignalCallbacks = "
                         + mSignalCallbacks);
                 }
+                // The callbacks rebuild their mobile icons for the new subscriptions.
+                mLastMobile.clear();
                 for (SignalCallback signalCluster : mSignalCallbacks) {
                     signalCluster.setSubs((List<SubscriptionInfo>) msg.obj);
                 }
@@ -121,6 +145,61 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
                     mSignalCallbacks.remove((SignalCallback) msg.obj);
                 }
                 break;
+            case MSG_WIFI_INDICATORS_CHANGED:
+                handleWifiIndicatorsChanged();
+                break;
+            case MSG_MOBILE_INDICATORS_CHANGED:
+                handleMobileIndicatorsChanged((SparseArray<MobileIndicators>) msg.obj);
+                break;
+        }
+    }
+
+    private void handleWifiIndicatorsChanged() {
+        final WifiIndicators indicators;
+        synchronized (mPendingLock) {
+            indicators = mPendingWifi;
+            mPendingWifi = null;
+        }
+        if (indicators == null) {
+            return;
+        }
+        if (indicators.equals(mLastWifi)) {
+            mUnchangedCount++;
+            return;
+        }
+        mLastWifi = indicators;
+        mForwardedCount++;
+        for (SignalCallback callback : mSignalCallbacks) {
+            callback.setWifiIndicators(indicators.enabled, indicators.statusIcon,
+                    indicators.qsIcon, indicators.activityIn, indicators.activityOut,
+                    indicators.description, indicators.isTransient);
+        }
+    }
+
+    private void handleMobileIndicatorsChanged(SparseArray<MobileIndicators> batch) {
+        synchronized (mPendingLock) {
+            // Later updates have to go into a new batch from now on.
+            if (mPendingMobile == batch) {
+                mPendingMobile = null;
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            final MobileIndicators indicators = batch.valueAt(i);
+            if (indicators.equals(mLastMobile.get(indicators.subId))) {
+                mUnchangedCount++;
+                continue;
+            }
+            mLastMobile.put(indicators.subId, indicators);
+            mForwardedCount++;
+            for (SignalCallback signalCluster : mSignalCallbacks) {
+                ///M: Support[Network Type and volte on StatusBar].
+                /// add more parameter networkIcon and volte.
+                signalCluster.setMobileDataIndicators(indicators.statusIcon, indicators.qsIcon,
+                        indicators.statusType, indicators.networkIcon, indicators.volteType,
+                        indicators.qsType, indicators.activityIn, indicators.activityOut,
+                        indicators.typeContentDescription, indicators.description,
+                        indicators.isWide, indicators.subId, indicators.roaming);
+            }
         }
     }
 
@@ -128,15 +207,16 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
     public void setWifiIndicators(final boolean enabled, final IconState statusIcon,
             final IconState qsIcon, final boolean activityIn, final boolean activityOut,
             final String description, boolean isTransient) {
-        post(new Runnable() {
-            @Override
-            public void run() {
-                for (SignalCallback callback : mSignalCallbacks) {
-                    callback.setWifiIndicators(enabled, statusIcon, qsIcon, activityIn, activityOut,
-                            description, isTransient);
-                }
+        final WifiIndicators indicators = new WifiIndicators(enabled, statusIcon, qsIcon,
+                activityIn, activityOut, description, isTransient);
+        synchronized (mPendingLock) {
+            if (mPendingWifi != null) {
+                mCoalescedCount++;
+            } else {
+                sendEmptyMessage(MSG_WIFI_INDICATORS_CHANGED);
             }
-        });
+            mPendingWifi = indicators;
+        }
     }
     /// M: Modify to support [Network Type and volte on Statusbar], change the implement methods,
     /// add more parameter for network type and volte.
@@ -146,18 +226,18 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
             final int qsType,final boolean activityIn,
             final boolean activityOut, final String typeContentDescription,
             final String description, final boolean isWide, final int subId, boolean roaming) {
-        post(new Runnable() {
-            @Override
-            public void run() {
-                for (SignalCallback signalCluster : mSignalCallbacks) {
-                    ///M: Support[Network Type and volte on StatusBar].
-                    /// add more parameter networkIcon and volte.
-                    signalCluster.setMobileDataIndicators(statusIcon, qsIcon, statusType,
-                            networkIcon, volteType, qsType, activityIn, activityOut,
-                            typeContentDescription, description, isWide, subId, roaming);
-                }
+        final MobileIndicators indicators = new MobileIndicators(statusIcon, qsIcon, statusType,
+                networkIcon, volteType, qsType, activityIn, activityOut, typeContentDescription,
+                description, isWide, subId, roaming);
+        synchronized (mPendingLock) {
+            if (mPendingMobile == null) {
+                mPendingMobile = new SparseArray<>();
+                obtainMessage(MSG_MOBILE_INDICATORS_CHANGED, mPendingMobile).sendToTarget();
+            } else if (mPendingMobile.get(subId) != null) {
+                mCoalescedCount++;
             }
-        });
+            mPendingMobile.put(subId, indicators);
+        }
     }
 
     @Override
@@ -165,7 +245,11 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
         if (DEBUG) {
             Log.d(TAG, "setSubs, subs = " + subs);
         }
-        obtainMessage(MSG_SUBS_CHANGED, subs).sendToTarget();
+        synchronized (mPendingLock) {
+            // Don't let updates made for the new subscriptions overtake them.
+            mPendingMobile = null;
+            obtainMessage(MSG_SUBS_CHANGED, subs).sendToTarget();
+        }
     }
 
     @Override
@@ -209,4 +293,119 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
         return mSignalCallbacks.size();
     }
 
+    public void dump(PrintWriter pw) {
+        pw.println("  - CallbackHandler ------");
+        synchronized (mPendingLock) {
+            pw.print("  coalesced="); pw.println(mCoalescedCount);
+        }
+        pw.print("  unchanged="); pw.println(mUnchangedCount);
+        pw.print("  forwarded="); pw.println(mForwardedCount);
+    }
+
+    private static final class WifiIndicators {
+        final boolean enabled;
+        final IconState statusIcon;
+        final IconState qsIcon;
+        final boolean activityIn;
+        final boolean activityOut;
+        final String description;
+        final boolean isTransient;
+
+        WifiIndicators(boolean enabled, IconState statusIcon, IconState qsIcon,
+                boolean activityIn, boolean activityOut, String description,
+                boolean isTransient) {
+            this.enabled = enabled;
+            this.statusIcon = statusIcon;
+            this.qsIcon = qsIcon;
+            this.activityIn = activityIn;
+            this.activityOut = activityOut;
+            this.description = description;
+            this.isTransient = isTransient;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof WifiIndicators)) {
+                return false;
+            }
+            WifiIndicators other = (WifiIndicators) o;
+            return enabled == other.enabled
+                    && activityIn == other.activityIn
+                    && activityOut == other.activityOut
+                    && isTransient == other.isTransient
+                    && Objects.equals(statusIcon, other.statusIcon)
+                    && Objects.equals(qsIcon, other.qsIcon)
+                    && TextUtils.equals(description, other.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(enabled, statusIcon, qsIcon, activityIn, activityOut,
+                    description, isTransient);
+        }
+    }
+
+    private static final class MobileIndicators {
+        final IconState statusIcon;
+        final IconState qsIcon;
+        final int statusType;
+        final int networkIcon;
+        final int volteType;
+        final int qsType;
+        final boolean activityIn;
+        final boolean activityOut;
+        final String typeContentDescription;
+        final String description;
+        final boolean isWide;
+        final int subId;
+        final boolean roaming;
+
+        MobileIndicators(IconState statusIcon, IconState qsIcon, int statusType,
+                int networkIcon, int volteType, int qsType, boolean activityIn,
+                boolean activityOut, String typeContentDescription, String description,
+                boolean isWide, int subId, boolean roaming) {
+            this.statusIcon = statusIcon;
+            this.qsIcon = qsIcon;
+            this.statusType = statusType;
+            this.networkIcon = networkIcon;
+            this.volteType = volteType;
+            this.qsType = qsType;
+            this.activityIn = activityIn;
+            this.activityOut = activityOut;
+            this.typeContentDescription = typeContentDescription;
+            this.description = description;
+            this.isWide = isWide;
+            this.subId = subId;
+            this.roaming = roaming;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MobileIndicators)) {
+                return false;
+            }
+            MobileIndicators other = (MobileIndicators) o;
+            return statusType == other.statusType
+                    && networkIcon == other.networkIcon
+                    && volteType == other.volteType
+                    && qsType == other.qsType
+                    && activityIn == other.activityIn
+                    && activityOut == other.activityOut
+                    && isWide == other.isWide
+                    && subId == other.subId
+                    && roaming == other.roaming
+                    && Objects.equals(statusIcon, other.statusIcon)
+                    && Objects.equals(qsIcon, other.qsIcon)
+                    && TextUtils.equals(typeContentDescription, other.typeContentDescription)
+                    && TextUtils.equals(description, other.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(statusIcon, qsIcon, statusType, networkIcon, volteType, qsType,
+                    activityIn, activityOut, typeContentDescription, description, isWide, subId,
+                    roaming);
+        }
+    }
+
 }
@@ -26,6 +26,7 @@ import com.android.systemui.DemoMode;
 import com.android.systemui.statusbar.policy.NetworkController.SignalCallback;
 
 import java.util.List;
+import java.util.Objects;
 
 public interface NetworkController extends CallbackController<SignalCallback>, DemoMode {
 
@@ -86,6 +87,24 @@ public interface NetworkController extends CallbackController<SignalCallback>, D
                 Context context) {
             this(visible, icon, context.getString(contentDescription));
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof IconState)) {
+                return false;
+            }
+            IconState other = (IconState) o;
+            return visible == other.visible && icon == other.icon
+                    && Objects.equals(contentDescription, other.contentDescription);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(visible, icon, contentDescription);
+        }
     }
 
     /**
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.systemui.tuner;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * The secure settings of one user, read with a single query to the settings provider instead of
+ * one binder call per setting.
+ *
+ * <p>This doesn't observe anything itself, whoever loads it has to {@link #put} or
+ * {@link #invalidate} the settings which change afterwards.
+ */
+final class SecureSettingsSnapshot {
+    private static final String TAG = "SecureSettingsSnapshot";
+
+    private static final String[] PROJECTION = new String[] {
+            Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE };
+
+    // Settings.Secure reads these from other tables, so they can't be answered from this one.
+    private static ArraySet<String> sRedirectedKeys;
+
+    private final ArrayMap<String, String> mValues = new ArrayMap<>();
+    // Settings which changed since they were loaded and weren't put back.
+    private final ArraySet<String> mInvalidated = new ArraySet<>();
+    private int mUserId = UserHandle.USER_NULL;
+
+    /**
+     * @return whether the settings of {@code userId} could be loaded
+     */
+    synchronized boolean load(ContentResolver resolver, int userId) {
+        clear();
+        Uri uri = ContentProvider.maybeAddUserId(Settings.Secure.CONTENT_URI, userId);
+        try (Cursor cursor = resolver.query(uri, PROJECTION, null, null, null)) {
+            if (cursor == null) {
+                return false;
+            }
+            load(cursor, userId);
+            return true;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to load the secure settings of user " + userId, e);
+            return false;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void load(Cursor cursor, int userId) {
+        final int nameColumn = cursor.getColumnIndex(Settings.NameValueTable.NAME);
+        final int valueColumn = cursor.getColumnIndex(Settings.NameValueTable.VALUE);
+        while (cursor.moveToNext()) {
+            mValues.put(cursor.getString(nameColumn), cursor.getString(valueColumn));
+        }
+        mUserId = userId;
+    }
+
+    /**
+     * @return whether {@link #get} knows the current value of {@code key} for {@code userId}
+     */
+    synchronized boolean isCached(String key, int userId) {
+        return userId == mUserId && !mInvalidated.contains(key)
+                && !getRedirectedKeys().contains(key);
+    }
+
+    /**
+     * @return the value of {@code key}, {@code null} if it isn't set
+     */
+    synchronized String get(String key) {
+        return mValues.get(key);
+    }
+
+    synchronized void put(String key, String value) {
+        if (mUserId == UserHandle.USER_NULL) return;
+        mValues.put(key, value);
+        mInvalidated.remove(key);
+    }
+
+    synchronized void invalidate(String key) {
+        mInvalidated.add(key);
+    }
+
+    synchronized void clear() {
+        mValues.clear();
+        mInvalidated.clear();
+        mUserId = UserHandle.USER_NULL;
+    }
+
+    private static ArraySet<String> getRedirectedKeys() {
+        if (sRedirectedKeys == null) {
+            ArraySet<String> keys = new ArraySet<>();
+            Settings.Secure.getMovedToGlobalSettings(keys);
+            keys.add(Settings.Secure.LOCK_PATTERN_ENABLED);
+            keys.add(Settings.Secure.LOCK_PATTERN_VISIBLE);
+            keys.add(Settings.Secure.LOCK_PATTERN_TACTILE_FEEDBACK_ENABLED);
+            sRedirectedKeys = keys;
+        }
+        return sRedirectedKeys;
+    }
+}
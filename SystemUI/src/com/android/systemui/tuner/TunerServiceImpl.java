@@ -33,7 +33,6 @@ import android.os.Looper;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
-import android.provider.Settings.Secure;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
@@ -49,7 +48,6 @@ import com.android.systemui.statusbar.phone.StatusBarIconController;
 import com.android.systemui.statusbar.phone.SystemUIDialog;
 import com.android.systemui.util.leak.LeakDetector;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -61,10 +59,10 @@ public class TunerServiceImpl extends TunerService {
     private static final int CURRENT_TUNER_VERSION = 1;
 
     private final Observer mObserver = new Observer();
-    // Map of Uris we listen on to their settings keys.
-    private final ArrayMap<Uri, String> mListeningUris = new ArrayMap<>();
     // Map of settings keys to the listener.
-    private final HashMap<String, Set<Tunable>> mTunableLookup = new HashMap<>();
+    private final ArrayMap<String, ArraySet<Tunable>> mTunableLookup = new ArrayMap<>();
+    // Secure settings of the current user, kept up to date by mObserver.
+    private final SecureSettingsSnapshot mSnapshot = new SecureSettingsSnapshot();
     // Set of all tunables, used for leak detection.
     private final HashSet<Tunable> mTunables = LeakDetector.ENABLED ? new HashSet<>() : null;
     private final Context mContext;
@@ -72,6 +70,7 @@ public class TunerServiceImpl extends TunerService {
     private ContentResolver mContentResolver;
     private int mCurrentUser;
     private CurrentUserTracker mUserTracker;
+    private boolean mObserving;
 
     public TunerServiceImpl(Context context) {
         mContext = context;
@@ -89,8 +88,8 @@ public class TunerServiceImpl extends TunerService {
             @Override
             public void onUserSwitched(int newUserId) {
                 mCurrentUser = newUserId;
-                reloadAll();
                 reregisterAll();
+                reloadAll();
             }
         };
         mUserTracker.startTracking();
@@ -121,22 +120,35 @@ public class TunerServiceImpl extends TunerService {
 
     @Override
     public String getValue(String setting) {
+        if (mSnapshot.isCached(setting, mCurrentUser)) {
+            return mSnapshot.get(setting);
+        }
         return Settings.Secure.getStringForUser(mContentResolver, setting, mCurrentUser);
     }
 
     @Override
     public void setValue(String setting, String value) {
          Settings.Secure.putStringForUser(mContentResolver, setting, value, mCurrentUser);
+         // Read it back until the change is observed, the provider may not store it as given.
+         mSnapshot.invalidate(setting);
     }
 
     @Override
     public int getValue(String setting, int def) {
+        if (mSnapshot.isCached(setting, mCurrentUser)) {
+            String value = mSnapshot.get(setting);
+            try {
+                return value != null ? Integer.parseInt(value) : def;
+            } catch (NumberFormatException e) {
+                return def;
+            }
+        }
         return Settings.Secure.getIntForUser(mContentResolver, setting, def, mCurrentUser);
     }
 
     @Override
     public String getValue(String setting, String def) {
-        String ret = Secure.getStringForUser(mContentResolver, setting, mCurrentUser);
+        String ret = getValue(setting);
         if (ret == null) return def;
         return ret;
     }
@@ -144,6 +156,7 @@ public class TunerServiceImpl extends TunerService {
     @Override
     public void setValue(String setting, int value) {
          Settings.Secure.putIntForUser(mContentResolver, setting, value, mCurrentUser);
+         mSnapshot.invalidate(setting);
     }
 
     @Override
@@ -162,14 +175,12 @@ public class TunerServiceImpl extends TunerService {
             mTunables.add(tunable);
             Dependency.get(LeakDetector.class).trackCollection(mTunables, "TunerService.mTunables");
         }
-        Uri uri = Settings.Secure.getUriFor(key);
-        if (!mListeningUris.containsKey(uri)) {
-            mListeningUris.put(uri, key);
-            mContentResolver.registerContentObserver(uri, false, mObserver, mCurrentUser);
+        if (!mObserving) {
+            mObserving = true;
+            registerObserver();
         }
         // Send the first state.
-        String value = Settings.Secure.getStringForUser(mContentResolver, key, mCurrentUser);
-        tunable.onTuningChanged(key, value);
+        tunable.onTuningChanged(key, getValue(key));
     }
 
     @Override
@@ -183,32 +194,49 @@ public class TunerServiceImpl extends TunerService {
     }
 
     protected void reregisterAll() {
-        if (mListeningUris.size() == 0) {
+        if (!mObserving) {
             return;
         }
         mContentResolver.unregisterContentObserver(mObserver);
-        for (Uri uri : mListeningUris.keySet()) {
-            mContentResolver.registerContentObserver(uri, false, mObserver, mCurrentUser);
-        }
+        registerObserver();
+    }
+
+    /**
+     * Observes all secure settings of the current user with one observer and loads their values
+     * with one query, rather than registering for and reading every tuned setting on its own.
+     */
+    private void registerObserver() {
+        // Register first so no change between the query and the registration is missed.
+        mContentResolver.registerContentObserver(Settings.Secure.CONTENT_URI, true, mObserver,
+                mCurrentUser);
+        mSnapshot.load(mContentResolver, mCurrentUser);
     }
 
     private void reloadSetting(Uri uri) {
-        String key = mListeningUris.get(uri);
+        String key = uri.getLastPathSegment();
+        if (Settings.Secure.CONTENT_URI.equals(uri) || key == null) {
+            mSnapshot.load(mContentResolver, mCurrentUser);
+            reloadAll();
+            return;
+        }
         Set<Tunable> tunables = mTunableLookup.get(key);
         if (tunables == null) {
+            // Nobody is tuning it, read it again only if it is asked for.
+            mSnapshot.invalidate(key);
             return;
         }
         String value = Settings.Secure.getStringForUser(mContentResolver, key, mCurrentUser);
+        mSnapshot.put(key, value);
         for (Tunable tunable : tunables) {
             tunable.onTuningChanged(key, value);
         }
     }
 
     private void reloadAll() {
-        for (String key : mTunableLookup.keySet()) {
-            String value = Settings.Secure.getStringForUser(mContentResolver, key,
-                    mCurrentUser);
-            for (Tunable tunable : mTunableLookup.get(key)) {
+        for (int i = 0; i < mTunableLookup.size(); i++) {
+            String key = mTunableLookup.keyAt(i);
+            String value = getValue(key);
+            for (Tunable tunable : mTunableLookup.valueAt(i)) {
                 tunable.onTuningChanged(key, value);
             }
         }
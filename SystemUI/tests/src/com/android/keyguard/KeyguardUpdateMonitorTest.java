@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.keyguard;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Intent;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.support.test.filters.SmallTest;
+import android.telephony.ServiceState;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.testing.TestableLooper.RunWithLooper;
+
+import com.android.internal.telephony.PhoneConstants;
+import com.android.internal.telephony.TelephonyIntents;
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+@RunWithLooper
+public class KeyguardUpdateMonitorTest extends SysuiTestCase {
+
+    private TestableLooper mTestableLooper;
+    private KeyguardUpdateMonitor mKeyguardUpdateMonitor;
+    private KeyguardUpdateMonitorCallback mCallback;
+
+    @Before
+    public void setup() {
+        mTestableLooper = TestableLooper.get(this);
+        mKeyguardUpdateMonitor = new KeyguardUpdateMonitor(mContext);
+        mCallback = mock(KeyguardUpdateMonitorCallback.class);
+        mKeyguardUpdateMonitor.registerCallback(mCallback);
+        mTestableLooper.processAllMessages();
+        clearInvocations(mCallback);
+    }
+
+    @Test
+    public void testTimeUpdatesCoalesce() {
+        for (int i = 0; i < 3; i++) {
+            receive(new Intent(Intent.ACTION_TIME_TICK));
+        }
+        mTestableLooper.processAllMessages();
+
+        verify(mCallback, times(1)).onTimeChanged();
+    }
+
+    @Test
+    public void testBatteryUpdatesCoalesceToLatest() {
+        for (int level = 10; level <= 30; level += 10) {
+            receive(new Intent(Intent.ACTION_BATTERY_CHANGED)
+                    .putExtra(BatteryManager.EXTRA_LEVEL, level));
+        }
+        mTestableLooper.processAllMessages();
+
+        verify(mCallback, times(1)).onRefreshBatteryInfo(any());
+        verify(mCallback).onRefreshBatteryInfo(argThat(status -> status.level == 30));
+    }
+
+    @Test
+    public void testServiceStateUpdatesCoalesce() {
+        for (int subId = 1; subId <= 3; subId++) {
+            Bundle extras = new Bundle();
+            new ServiceState().fillInNotifierBundle(extras);
+            receive(new Intent(TelephonyIntents.ACTION_SERVICE_STATE_CHANGED)
+                    .putExtras(extras)
+                    .putExtra(PhoneConstants.SUBSCRIPTION_KEY, subId));
+        }
+        mTestableLooper.processAllMessages();
+
+        verify(mCallback, times(1)).onRefreshCarrierInfo();
+    }
+
+    private void receive(Intent intent) {
+        mKeyguardUpdateMonitor.mBroadcastReceiver.onReceive(mContext, intent);
+    }
+}
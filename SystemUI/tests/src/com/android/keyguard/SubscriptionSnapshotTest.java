@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.keyguard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.telephony.SubscriptionInfo;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SubscriptionSnapshotTest extends SysuiTestCase {
+
+    @Test
+    public void testUnchangedSubscriptionsKeepSnapshot() {
+        SubscriptionSnapshot snapshot = SubscriptionSnapshot.EMPTY.update(
+                Arrays.asList(subscription(1, 0, "Carrier"), subscription(2, 1, "Other")));
+
+        assertEquals(1, snapshot.getVersion());
+        assertSame(snapshot, snapshot.update(
+                Arrays.asList(subscription(1, 0, "Carrier"), subscription(2, 1, "Other"))));
+        assertSame(SubscriptionSnapshot.EMPTY, SubscriptionSnapshot.EMPTY.update(null));
+    }
+
+    @Test
+    public void testChangedSubscriptionIsReported() {
+        SubscriptionSnapshot first = SubscriptionSnapshot.EMPTY.update(
+                Arrays.asList(subscription(1, 0, "Carrier"), subscription(2, 1, "Other")));
+        SubscriptionSnapshot second = first.update(
+                Arrays.asList(subscription(1, 0, "Carrier"), subscription(2, 1, "Roaming")));
+
+        assertNotSame(first, second);
+        assertEquals(2, second.getVersion());
+        List<SubscriptionInfo> changed = second.getChangedSince(first);
+        assertEquals(1, changed.size());
+        assertEquals(2, changed.get(0).getSubscriptionId());
+        assertSame(changed.get(0), second.getForSlot(1));
+    }
+
+    @Test
+    public void testRemovedSubscriptionIsNotFound() {
+        SubscriptionSnapshot first = SubscriptionSnapshot.EMPTY.update(
+                Arrays.asList(subscription(1, 0, "Carrier"), subscription(2, 1, "Other")));
+        SubscriptionSnapshot second = first.update(Arrays.asList(subscription(1, 0, "Carrier")));
+
+        assertNull(second.getForSubId(2));
+        assertTrue(second.getChangedSince(first).isEmpty());
+        assertEquals(1, second.getSubscriptions().size());
+    }
+
+    private SubscriptionInfo subscription(int subId, int slotId, String carrierName) {
+        SubscriptionInfo info = mock(SubscriptionInfo.class);
+        when(info.getSubscriptionId()).thenReturn(subId);
+        when(info.getSimSlotIndex()).thenReturn(slotId);
+        when(info.getCarrierName()).thenReturn(carrierName);
+        return info;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Bitmap;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WallpaperDecoderTest extends SysuiTestCase {
+
+    @Test
+    public void testSampleSizeKeepsShortSideAboveTarget() {
+        // 12MP photo on a 720x1440 display.
+        assertEquals(2, WallpaperDecoder.getSampleSize(4000, 3000, 1440));
+        assertEquals(1, WallpaperDecoder.getSampleSize(2000, 1500, 1440));
+        assertEquals(4, WallpaperDecoder.getSampleSize(8000, 6000, 1440));
+    }
+
+    @Test
+    public void testSmallImageIsNotScaled() {
+        Bitmap bitmap = Bitmap.createBitmap(100, 50, Bitmap.Config.ARGB_8888);
+
+        assertSame(bitmap, WallpaperDecoder.scaleDown(bitmap, 1440));
+    }
+
+    @Test
+    public void testScaleDownToTarget() {
+        Bitmap bitmap = Bitmap.createBitmap(400, 200, Bitmap.Config.ARGB_8888);
+
+        Bitmap scaled = WallpaperDecoder.scaleDown(bitmap, 100);
+
+        assertEquals(200, scaled.getWidth());
+        assertEquals(100, scaled.getHeight());
+    }
+}
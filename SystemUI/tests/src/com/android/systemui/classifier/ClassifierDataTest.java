@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.systemui.classifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.os.Debug;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.MotionEvent;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ClassifierDataTest extends SysuiTestCase {
+    private static final String TAG = "ClassifierDataTest";
+
+    private static final float DPI = 100f;
+    private static final int POINTS = 40;
+    private static final int WARMUP_GESTURES = 20;
+    private static final int MEASURED_GESTURES = 200;
+
+    private ClassifierData mClassifierData;
+    private StrokeClassifier[] mStrokeClassifiers;
+    private final ArrayList<MotionEvent> mSwipe = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        mClassifierData = new ClassifierData(DPI);
+        mStrokeClassifiers = new StrokeClassifier[]{
+                new AnglesClassifier(mClassifierData),
+                new SpeedClassifier(mClassifierData),
+                new DurationCountClassifier(mClassifierData),
+                new EndPointRatioClassifier(mClassifierData),
+                new EndPointLengthClassifier(mClassifierData),
+                new AccelerationClassifier(mClassifierData),
+                new SpeedAnglesClassifier(mClassifierData),
+                new LengthCountClassifier(mClassifierData),
+                new DirectionClassifier(mClassifierData),
+        };
+
+        // A slightly curved upward swipe, one sample every 10ms.
+        for (int i = 0; i < POINTS; i++) {
+            int action = i == 0 ? MotionEvent.ACTION_DOWN
+                    : i == POINTS - 1 ? MotionEvent.ACTION_UP : MotionEvent.ACTION_MOVE;
+            float x = 500 + i * i * 0.2f;
+            float y = 1500 - i * 25;
+            mSwipe.add(MotionEvent.obtain(0, i * 10, action, x, y, 0));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (MotionEvent event : mSwipe) {
+            event.recycle();
+        }
+    }
+
+    @Test
+    public void testStrokeMetrics() {
+        for (int i = 0; i < POINTS - 1; i++) {
+            mClassifierData.update(mSwipe.get(i));
+            mClassifierData.cleanUp(mSwipe.get(i));
+        }
+        mClassifierData.update(mSwipe.get(POINTS - 1));
+
+        assertEquals(1, mClassifierData.getEndingStrokes().size());
+        Stroke stroke = mClassifierData.getEndingStrokes().get(0);
+        MotionEvent first = mSwipe.get(0);
+        MotionEvent last = mSwipe.get(POINTS - 1);
+        float length = 0;
+        for (int i = 1; i < POINTS; i++) {
+            length += (float) Math.hypot((mSwipe.get(i).getX() - mSwipe.get(i - 1).getX()) / DPI,
+                    (mSwipe.get(i).getY() - mSwipe.get(i - 1).getY()) / DPI);
+        }
+
+        assertEquals(POINTS, stroke.getCount());
+        assertEquals(first.getX() / DPI, stroke.getFirstX(), 1e-5f);
+        assertEquals(first.getY() / DPI, stroke.getFirstY(), 1e-5f);
+        assertEquals(last.getX() / DPI, stroke.getLastX(), 1e-5f);
+        assertEquals(last.getY() / DPI, stroke.getLastY(), 1e-5f);
+        assertEquals(length, stroke.getTotalLength(), 1e-3f);
+        assertEquals((POINTS - 1) * 10 * 1000000L, stroke.getDurationNanos());
+        int oldest = POINTS - Stroke.HISTORY_SIZE;
+        assertEquals(mSwipe.get(oldest).getX() / DPI, stroke.getX(oldest), 1e-5f);
+        assertEquals(oldest * 10 * 1000000L, stroke.getTimeOffsetNano(oldest));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testEvictedPointIsNotReadable() {
+        for (int i = 0; i < POINTS; i++) {
+            mClassifierData.update(mSwipe.get(i));
+        }
+        mClassifierData.getStroke(0).getX(POINTS - Stroke.HISTORY_SIZE - 1);
+    }
+
+    @Test
+    public void testStrokesAreReused() {
+        Stroke stroke = replayGesture();
+        assertSame(stroke, replayGesture());
+        assertEquals(POINTS, stroke.getCount());
+    }
+
+    @Test
+    public void testEvaluationIsStableAcrossReuse() {
+        float[] first = evaluate();
+        float[] second = evaluate();
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(mStrokeClassifiers[i].getTag(), first[i], second[i], 0f);
+        }
+    }
+
+    /**
+     * Microbenchmark of the stroke pipeline: per gesture latency, and allocations once strokes
+     * and classifier data have been pooled.
+     */
+    @Test
+    public void testClassificationLatencyAndAllocations() {
+        for (int i = 0; i < WARMUP_GESTURES; i++) {
+            evaluate();
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_GESTURES; i++) {
+                replayGesture();
+            }
+            long nanosPerGesture = (System.nanoTime() - start) / MEASURED_GESTURES;
+            int allocations = Debug.getThreadAllocCount();
+            Log.i(TAG, "classification: " + nanosPerGesture + "ns/gesture of " + POINTS
+                    + " points, " + allocations + " allocations in " + MEASURED_GESTURES
+                    + " gestures");
+            assertEquals(0, allocations);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private float[] evaluate() {
+        Stroke stroke = replayGesture();
+        float[] evaluations = new float[mStrokeClassifiers.length];
+        for (int i = 0; i < mStrokeClassifiers.length; i++) {
+            evaluations[i] = mStrokeClassifiers[i].getFalseTouchEvaluation(Classifier.UNLOCK,
+                    stroke);
+        }
+        return evaluations;
+    }
+
+    /**
+     * Feeds the swipe through the pipeline like HumanInteractionClassifier#addTouchEvent.
+     *
+     * @return the ending stroke, before it is handed back to the pool
+     */
+    private Stroke replayGesture() {
+        Stroke ending = null;
+        for (int i = 0; i < POINTS; i++) {
+            MotionEvent event = mSwipe.get(i);
+            mClassifierData.update(event);
+            for (StrokeClassifier c : mStrokeClassifiers) {
+                c.onTouchEvent(event);
+            }
+            if (i == POINTS - 1) {
+                ending = mClassifierData.getEndingStrokes().get(0);
+                for (StrokeClassifier c : mStrokeClassifiers) {
+                    c.getFalseTouchEvaluation(Classifier.UNLOCK, ending);
+                }
+            } else {
+                mClassifierData.cleanUp(event);
+            }
+        }
+        return ending;
+    }
+}
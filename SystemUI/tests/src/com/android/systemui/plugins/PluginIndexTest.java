@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.systemui.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.content.pm.Signature;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PluginIndexTest extends SysuiTestCase {
+
+    private static final String ACTION = "myAction";
+    private static final String PKG = "com.example.plugin";
+    private static final ComponentName COMPONENT = new ComponentName(PKG, "TestPlugin");
+
+    private PackageManager mMockPm;
+    private SharedPreferences mPrefs;
+
+    @Before
+    public void setup() throws Exception {
+        mMockPm = mock(PackageManager.class);
+        mPrefs = mContext.getSharedPreferences("plugin_index_test", Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+
+        ResolveInfo info = new ResolveInfo();
+        info.serviceInfo = new ServiceInfo();
+        info.serviceInfo.packageName = PKG;
+        info.serviceInfo.name = COMPONENT.getClassName();
+        when(mMockPm.queryIntentServices(any(), anyInt()))
+                .thenReturn(Collections.singletonList(info));
+        setPackageVersion(1);
+    }
+
+    @After
+    public void tearDown() {
+        mPrefs.edit().clear().commit();
+    }
+
+    @Test
+    public void testServedFromIndex() {
+        new PluginIndex(mContext, mMockPm, mPrefs).query(ACTION, null);
+
+        List<PluginIndex.Entry> entries = new PluginIndex(mContext, mMockPm, mPrefs)
+                .query(ACTION, null);
+
+        verify(mMockPm, times(1)).queryIntentServices(any(), anyInt());
+        assertEquals(1, entries.size());
+        assertEquals(COMPONENT, entries.get(0).getComponent());
+    }
+
+    @Test
+    public void testUpdatedPackageIsResolvedAgain() throws Exception {
+        PluginIndex index = new PluginIndex(mContext, mMockPm, mPrefs);
+        index.query(ACTION, null);
+        index.setStatus(ACTION, COMPONENT, PluginIndex.STATUS_TOO_OLD);
+        setPackageVersion(2);
+
+        List<PluginIndex.Entry> entries = new PluginIndex(mContext, mMockPm, mPrefs)
+                .query(ACTION, null);
+
+        verify(mMockPm).queryIntentServices(argThat(intent -> PKG.equals(intent.getPackage())),
+                anyInt());
+        assertEquals(1, entries.size());
+        assertEquals(PluginIndex.STATUS_UNCHECKED, entries.get(0).getStatus());
+    }
+
+    @Test
+    public void testVersionCheckIsKept() {
+        PluginIndex index = new PluginIndex(mContext, mMockPm, mPrefs);
+        index.query(ACTION, null);
+        index.setStatus(ACTION, COMPONENT, PluginIndex.STATUS_VALID);
+
+        List<PluginIndex.Entry> entries = new PluginIndex(mContext, mMockPm, mPrefs)
+                .query(ACTION, null);
+
+        assertEquals(PluginIndex.STATUS_VALID, entries.get(0).getStatus());
+    }
+
+    @Test
+    public void testSysUiUpdateDropsIndex() throws Exception {
+        setSysUiUpdateTime(1000);
+        PluginIndex index = new PluginIndex(mContext, mMockPm, mPrefs);
+        index.query(ACTION, null);
+        index.setStatus(ACTION, COMPONENT, PluginIndex.STATUS_VALID);
+        setSysUiUpdateTime(2000);
+
+        List<PluginIndex.Entry> entries = new PluginIndex(mContext, mMockPm, mPrefs)
+                .query(ACTION, null);
+
+        verify(mMockPm, times(2)).queryIntentServices(any(), anyInt());
+        assertEquals(PluginIndex.STATUS_UNCHECKED, entries.get(0).getStatus());
+    }
+
+    private void setSysUiUpdateTime(long lastUpdateTime) throws Exception {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = mContext.getPackageName();
+        packageInfo.lastUpdateTime = lastUpdateTime;
+        when(mMockPm.getPackageInfo(eq(mContext.getPackageName()), anyInt()))
+                .thenReturn(packageInfo);
+    }
+
+    private void setPackageVersion(int versionCode) throws Exception {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = PKG;
+        packageInfo.versionCode = versionCode;
+        packageInfo.signatures = new Signature[] { new Signature("0123456789abcdef") };
+        when(mMockPm.getPackageInfo(eq(PKG), anyInt())).thenReturn(packageInfo);
+    }
+}
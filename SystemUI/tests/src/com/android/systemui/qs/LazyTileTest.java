@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.systemui.qs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.plugins.qs.QSTile;
+import com.android.systemui.plugins.qs.QSTile.Callback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LazyTileTest extends SysuiTestCase {
+
+    private QSTileHost mHost;
+    private QSTile mTile;
+    private LazyTile mLazyTile;
+
+    @Before
+    public void setUp() {
+        mHost = mock(QSTileHost.class);
+        mTile = mock(QSTile.class);
+        when(mTile.isAvailable()).thenReturn(true);
+        when(mHost.createTile("wifi")).thenReturn(mTile);
+        mLazyTile = new LazyTile(mHost, "wifi");
+    }
+
+    @Test
+    public void testTileIsCreatedWhenListenedTo() {
+        Callback callback = mock(Callback.class);
+        Object client = new Object();
+        mLazyTile.addCallback(callback);
+        mLazyTile.refreshState();
+        mLazyTile.setListening(client, false);
+        verify(mHost, never()).createTile(anyString());
+        assertFalse(mLazyTile.isMaterialized());
+
+        mLazyTile.setListening(client, true);
+
+        assertTrue(mLazyTile.isMaterialized());
+        verify(mTile).setTileSpec("wifi");
+        verify(mTile).addCallback(callback);
+        verify(mTile).setListening(client, true);
+    }
+
+    @Test
+    public void testUnavailableTileIsDropped() {
+        when(mTile.isAvailable()).thenReturn(false);
+
+        mLazyTile.click();
+
+        assertNull(mLazyTile.materialize());
+        verify(mTile).destroy();
+        verify(mTile, never()).click();
+        verify(mHost).onLazyTileUnavailable(mLazyTile);
+    }
+}
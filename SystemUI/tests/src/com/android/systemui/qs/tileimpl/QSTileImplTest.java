@@ -29,6 +29,7 @@ import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -121,6 +122,22 @@ public class QSTileImplTest extends SysuiTestCase {
         verify(mTile).handleStale();
     }
 
+    @Test
+    public void testRefreshStateCoalesced() {
+        Object arg = new Object();
+        mTestableLooper.processAllMessages();
+        clearInvocations(mTile);
+
+        mTile.refreshState();
+        mTile.refreshState(arg);
+        mTile.refreshState();
+        mTile.refreshState(arg);
+        mTestableLooper.processAllMessages();
+
+        verify(mTile, times(1)).handleRefreshState(null);
+        verify(mTile, times(1)).handleRefreshState(arg);
+    }
+
     @Test
     public void testStaleListening() {
         mTile.handleStale();
@@ -16,8 +16,10 @@
 
 package com.android.systemui.statusbar;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -34,6 +36,8 @@ import android.support.test.annotation.UiThreadTest;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.android.systemui.ForegroundServiceController;
+import com.android.systemui.R;
 import com.android.systemui.SysuiTestCase;
 import com.android.systemui.statusbar.phone.NotificationGroupManager;
 
@@ -42,6 +46,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
+
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class NotificationDataTest extends SysuiTestCase {
@@ -117,6 +123,52 @@ public class NotificationDataTest extends SysuiTestCase {
         Assert.assertTrue(mRow.getEntry().channel != null);
     }
 
+    @Test
+    public void testAddAndFilterAndSortKeepRankingOrder() throws Exception {
+        mDependency.injectMockDependency(ForegroundServiceController.class);
+        NotificationData.Environment environment = mock(NotificationData.Environment.class);
+        when(environment.getGroupManager()).thenReturn(new NotificationGroupManager());
+        when(environment.isDeviceProvisioned()).thenReturn(true);
+        when(environment.isNotificationForCurrentProfiles(any())).thenReturn(true);
+        NotificationData notificationData = new TestableNotificationData(environment);
+        notificationData.updateRanking(mock(NotificationListenerService.RankingMap.class));
+        int fullSorts = notificationData.getFullSortCount();
+        int incrementalUpdates = notificationData.getIncrementalUpdateCount();
+        int unchangedSorts = notificationData.getUnchangedSortCount();
+
+        NotificationTestHelper helper = new NotificationTestHelper(getContext());
+        NotificationData.Entry older = helper.createRow(createNotification(1000)).getEntry();
+        NotificationData.Entry newer = helper.createRow(createNotification(2000)).getEntry();
+        NotificationData.Entry newest = helper.createRow(createNotification(3000)).getEntry();
+        notificationData.add(newer);
+        notificationData.add(older);
+        notificationData.add(newest);
+        notificationData.filterAndSort();
+
+        assertEquals(Arrays.asList(newest, newer, older),
+                notificationData.getActiveNotifications());
+        assertEquals(fullSorts, notificationData.getFullSortCount());
+        // add() already inserted the entries, so the one filterAndSort() is counted as unchanged.
+        assertEquals(incrementalUpdates, notificationData.getIncrementalUpdateCount());
+        assertEquals(unchangedSorts + 1, notificationData.getUnchangedSortCount());
+
+        // Reordering an entry falls back to a full sort.
+        older.notification.getNotification().when = 4000;
+        notificationData.filterAndSort();
+
+        assertEquals(Arrays.asList(older, newest, newer),
+                notificationData.getActiveNotifications());
+        assertEquals(fullSorts + 1, notificationData.getFullSortCount());
+    }
+
+    private Notification createNotification(long when) {
+        return new Notification.Builder(mContext, "test")
+                .setSmallIcon(R.drawable.ic_person)
+                .setContentTitle("Title")
+                .setWhen(when)
+                .build();
+    }
+
     private void initStatusBarNotification(boolean allowDuringSetup) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(Notification.EXTRA_ALLOW_DURING_SETUP, allowDuringSetup);
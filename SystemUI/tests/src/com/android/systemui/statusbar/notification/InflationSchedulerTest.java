@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import static org.junit.Assert.assertEquals;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class InflationSchedulerTest extends SysuiTestCase {
+
+    private final ArrayList<Runnable> mExecuted = new ArrayList<>();
+    private final List<String> mRan = new ArrayList<>();
+    private InflationScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new InflationScheduler(mExecuted::add, 1 /* maxRunning */);
+    }
+
+    @Test
+    public void testRunsByPriority() {
+        mScheduler.enqueue("blocker", InflationScheduler.PRIORITY_DEFAULT, task("blocker"));
+        mScheduler.enqueue("child", InflationScheduler.PRIORITY_LOW, task("child"));
+        mScheduler.enqueue("row", InflationScheduler.PRIORITY_DEFAULT, task("row"));
+        mScheduler.enqueue("headsUp", InflationScheduler.PRIORITY_HIGH, task("headsUp"));
+
+        runAll();
+
+        assertEquals(Arrays.asList("blocker", "headsUp", "row", "child"), mRan);
+    }
+
+    @Test
+    public void testAbortedInflationIsCoalesced() {
+        mScheduler.enqueue("blocker", InflationScheduler.PRIORITY_DEFAULT, task("blocker"));
+        FutureTask<Void> stale = new FutureTask<>(task("stale"), null);
+        mScheduler.enqueue("progress", InflationScheduler.PRIORITY_DEFAULT, stale);
+        mScheduler.enqueue("other", InflationScheduler.PRIORITY_DEFAULT, task("other"));
+        stale.cancel(false);
+        mScheduler.enqueue("progress", InflationScheduler.PRIORITY_DEFAULT, task("progress"));
+
+        assertEquals(2, mScheduler.getQueueDepth());
+        runAll();
+
+        // The update keeps the queue position of the inflation it superseded.
+        assertEquals(Arrays.asList("blocker", "progress", "other"), mRan);
+    }
+
+    @Test
+    public void testInflationWhichIsNotAbortedIsKept() {
+        mScheduler.enqueue("blocker", InflationScheduler.PRIORITY_DEFAULT, task("blocker"));
+        mScheduler.enqueue("key", InflationScheduler.PRIORITY_DEFAULT, task("first"));
+        mScheduler.enqueue("key", InflationScheduler.PRIORITY_DEFAULT, task("second"));
+
+        runAll();
+
+        assertEquals(Arrays.asList("blocker", "first", "second"), mRan);
+    }
+
+    private Runnable task(String name) {
+        return () -> mRan.add(name);
+    }
+
+    private void runAll() {
+        while (!mExecuted.isEmpty()) {
+            mExecuted.remove(0).run();
+        }
+    }
+}
@@ -21,11 +21,13 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
 import android.app.Notification;
 import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.SmallTest;
@@ -99,6 +101,34 @@ public class MediaNotificationProcessorTest extends SysuiTestCase {
         assertNotSame(contentView, remoteViews);
     }
 
+    @Test
+    public void testUnchangedArtworkIsProcessedOnce() {
+        mProcessor = new MediaNotificationProcessor(getContext(), getContext(), mColorizer,
+                new MediaArtworkCache());
+        Bitmap artwork = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        artwork.eraseColor(Color.RED);
+        processWithArtwork(artwork);
+        // Apps repost a copy of the same artwork.
+        processWithArtwork(artwork.copy(Bitmap.Config.ARGB_8888, false));
+        verify(mColorizer, times(1)).colorize(any(), anyInt(), anyBoolean());
+
+        Bitmap otherArtwork = artwork.copy(Bitmap.Config.ARGB_8888, true);
+        otherArtwork.setPixel(0, 0, Color.BLUE);
+        processWithArtwork(otherArtwork);
+        verify(mColorizer, times(2)).colorize(any(), anyInt(), anyBoolean());
+    }
+
+    private void processWithArtwork(Bitmap artwork) {
+        Notification.Builder builder = new Notification.Builder(getContext()).setSmallIcon(
+                R.drawable.ic_person)
+                .setContentTitle("Title")
+                .setStyle(new Notification.MediaStyle())
+                .setColorized(true)
+                .setLargeIcon(artwork)
+                .setContentText("Text");
+        mProcessor.processNotification(builder.build(), builder);
+    }
+
     public static class TestableColorizer extends ImageGradientColorizer {
         private final Bitmap mBitmap;
 
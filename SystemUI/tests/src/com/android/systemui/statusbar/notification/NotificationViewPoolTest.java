@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.RemoteViews;
+
+import com.android.systemui.R;
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class NotificationViewPoolTest extends SysuiTestCase {
+
+    private NotificationViewPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new NotificationViewPool(2 /* maxPerLayout */, 3 /* maxSize */);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testReleasedViewIsReusedForSameTemplate() {
+        View view = new View(mContext);
+        view.setAlpha(0.5f);
+        assertTrue(mPool.release(remoteViews(R.layout.custom_view_dark), view));
+
+        assertSame(view, mPool.obtain(remoteViews(R.layout.custom_view_dark)));
+        assertEquals(1.0f, view.getAlpha(), 0f);
+        assertEquals(0, mPool.size());
+    }
+
+    @Test
+    @UiThreadTest
+    public void testViewIsNotReusedForOtherTemplateOrPackage() {
+        mPool.release(remoteViews(R.layout.custom_view_dark), new View(mContext));
+
+        assertNull(mPool.obtain(remoteViews(R.layout.status_bar_notification_row)));
+        assertNull(mPool.obtain(new RemoteViews("com.example.other",
+                R.layout.custom_view_dark)));
+        assertEquals(1, mPool.size());
+    }
+
+    @Test
+    @UiThreadTest
+    public void testPoolIsBounded() {
+        assertTrue(mPool.release(remoteViews(R.layout.custom_view_dark), new View(mContext)));
+        assertTrue(mPool.release(remoteViews(R.layout.custom_view_dark), new View(mContext)));
+        assertFalse(mPool.release(remoteViews(R.layout.custom_view_dark), new View(mContext)));
+        assertTrue(mPool.release(remoteViews(R.layout.status_bar_notification_row),
+                new View(mContext)));
+        assertFalse(mPool.release(remoteViews(R.layout.status_bar_no_notifications),
+                new View(mContext)));
+        assertEquals(3, mPool.size());
+    }
+
+    @Test
+    @UiThreadTest
+    public void testAttachedViewIsRejected() {
+        View view = new View(mContext);
+        new FrameLayout(mContext).addView(view);
+
+        assertFalse(mPool.release(remoteViews(R.layout.custom_view_dark), view));
+        assertEquals(0, mPool.size());
+    }
+
+    private RemoteViews remoteViews(int layoutId) {
+        return new RemoteViews(mContext.getPackageName(), layoutId);
+    }
+}
@@ -27,6 +27,7 @@ import com.android.systemui.statusbar.policy.NetworkController.IconState;
 import com.android.systemui.statusbar.policy.NetworkController.SignalCallback;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Before;
 import org.junit.runner.RunWith;
 import org.junit.Test;
@@ -205,6 +206,61 @@ public class CallbackHandlerTest extends SysuiTestCase {
         assertEquals(state, iconArg.getValue());
     }
 
+    @Test
+    public void testSignalCallback_coalescesWifiIndicators() {
+        IconState status = new IconState(true, 0, "");
+        IconState qs = new IconState(true, 1, "");
+        CountDownLatch blocked = blockHandler();
+        mHandler.setWifiIndicators(true, status, qs, false, false, "First", false);
+        mHandler.setWifiIndicators(true, status, qs, true, false, "Second", false);
+        blocked.countDown();
+        blocked = blockHandler();
+        mHandler.setWifiIndicators(true, new IconState(true, 0, ""), qs, true, false, "Second",
+                false);
+        blocked.countDown();
+        waitForCallbacks();
+
+        ArgumentCaptor<String> descArg = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(mSignalCallback).setWifiIndicators(eq(true), eq(status), eq(qs), eq(true),
+                eq(false), descArg.capture(), eq(false));
+        assertEquals("Second", descArg.getValue());
+        Mockito.verifyNoMoreInteractions(mSignalCallback);
+    }
+
+    @Test
+    public void testSignalCallback_coalescesMobileIndicatorsPerSub() {
+        IconState status = new IconState(true, 0, "");
+        IconState qs = new IconState(true, 1, "");
+        CountDownLatch blocked = blockHandler();
+        mHandler.setMobileDataIndicators(status, qs, 0, 0, 0, 0, false, false, "", "First",
+                false, 1, false);
+        mHandler.setMobileDataIndicators(status, qs, 0, 0, 0, 0, false, false, "", "Sub 2",
+                false, 2, false);
+        mHandler.setMobileDataIndicators(status, qs, 0, 0, 0, 0, false, false, "", "Second",
+                false, 1, false);
+        blocked.countDown();
+        waitForCallbacks();
+
+        Mockito.verify(mSignalCallback).setMobileDataIndicators(eq(status), eq(qs), eq(0),
+                eq(0), eq(0), eq(0), eq(false), eq(false), eq(""), eq("Second"), eq(false),
+                eq(1), eq(false));
+        Mockito.verify(mSignalCallback).setMobileDataIndicators(eq(status), eq(qs), eq(0),
+                eq(0), eq(0), eq(0), eq(false), eq(false), eq(""), eq("Sub 2"), eq(false),
+                eq(2), eq(false));
+        Mockito.verifyNoMoreInteractions(mSignalCallback);
+    }
+
+    private CountDownLatch blockHandler() {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mHandler.post(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+            }
+        });
+        return latch;
+    }
+
     private void waitForCallbacks() {
         mHandlerThread.quitSafely();
         try {
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.systemui.tuner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.database.MatrixCursor;
+import android.provider.Settings;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SecureSettingsSnapshotTest extends SysuiTestCase {
+
+    private static final int USER = 10;
+
+    private SecureSettingsSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE });
+        cursor.addRow(new Object[] { "icon_blacklist", "rotate,headset" });
+        mSnapshot = new SecureSettingsSnapshot();
+        mSnapshot.load(cursor, USER);
+    }
+
+    @Test
+    public void testLoadedValues() {
+        assertTrue(mSnapshot.isCached("icon_blacklist", USER));
+        assertEquals("rotate,headset", mSnapshot.get("icon_blacklist"));
+        // Settings missing from the table aren't set.
+        assertTrue(mSnapshot.isCached("sysui_qs_tiles", USER));
+        assertNull(mSnapshot.get("sysui_qs_tiles"));
+        assertFalse(mSnapshot.isCached("icon_blacklist", USER + 1));
+    }
+
+    @Test
+    public void testInvalidateUntilPut() {
+        mSnapshot.invalidate("icon_blacklist");
+        assertFalse(mSnapshot.isCached("icon_blacklist", USER));
+
+        mSnapshot.put("icon_blacklist", "rotate");
+
+        assertTrue(mSnapshot.isCached("icon_blacklist", USER));
+        assertEquals("rotate", mSnapshot.get("icon_blacklist"));
+    }
+
+    @Test
+    public void testRedirectedSettingsAreNotCached() {
+        assertFalse(mSnapshot.isCached(Settings.Secure.LOCK_PATTERN_ENABLED, USER));
+    }
+}